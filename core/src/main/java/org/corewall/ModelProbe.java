@@ -0,0 +1,29 @@
+package org.corewall;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.corewall.data.Model;
+import org.corewall.internal.DefaultModelProbe;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * Reads ahead the external resources of loaded models, such as the headers of
+ * the images they reference, so the models do not have to read them one at a
+ * time when they are first rendered. Probing happens in the background.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@ImplementedBy(DefaultModelProbe.class)
+public interface ModelProbe {
+
+	/**
+	 * Probes the specified models in the background.
+	 * 
+	 * @param models
+	 *            the models.
+	 * @return a future that completes when the models have been probed.
+	 */
+	Future<?> probe(List<? extends Model> models);
+}
@@ -0,0 +1,71 @@
+package org.corewall;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.corewall.data.Model;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.internal.DefaultModelStore;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * Holds the models of manifest entries in memory while they are in use. Entries
+ * are loaded when first requested and the least recently used entries are
+ * dropped when the estimated size of the store exceeds its budget. A dropped
+ * entry is loaded again, usually from the parsed model cache, the next time it
+ * is requested, so callers should request the models when they need them
+ * rather than holding on to the lists.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@ImplementedBy(DefaultModelStore.class)
+public interface ModelStore {
+
+	/**
+	 * Gets the models of an entry, loading them if they are not in the store.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @return the unmodifiable list of models.
+	 * @throws IOException
+	 *             thrown if the entry cannot be loaded.
+	 */
+	List<? extends Model> get(ManifestEntry entry) throws IOException;
+
+	/**
+	 * Gets the memory budget of this store.
+	 * 
+	 * @return the budget in bytes.
+	 */
+	long getBudget();
+
+	/**
+	 * Gets the models of an entry only if they are in the store.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @return the unmodifiable list of models or null.
+	 */
+	List<? extends Model> getIfPresent(ManifestEntry entry);
+
+	/**
+	 * Gets the estimated size of the models in the store.
+	 * 
+	 * @return the size in bytes.
+	 */
+	long getSize();
+
+	/**
+	 * Drops an entry from the store, for example because its source changed.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 */
+	void invalidate(ManifestEntry entry);
+
+	/**
+	 * Drops all entries from the store.
+	 */
+	void invalidateAll();
+}
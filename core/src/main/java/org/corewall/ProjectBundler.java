@@ -0,0 +1,102 @@
+package org.corewall;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.internal.DefaultProjectBundler;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * Exports a {@link Project} and its data to a single binary bundle file and
+ * opens bundles again. A bundle holds the manifest, the rows of every entry in
+ * columns, and decimated levels of every image, laid out so that it can be
+ * memory-mapped and read lazily.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@ImplementedBy(DefaultProjectBundler.class)
+public interface ProjectBundler {
+
+	/**
+	 * An open bundle. Entries and images are only read from the bundle file
+	 * when they are requested.
+	 */
+	interface Bundle extends Closeable {
+
+		/**
+		 * Gets a decimated image from the bundle.
+		 * 
+		 * @param path
+		 *            the image URL as referenced by the models.
+		 * @param level
+		 *            the desired decimation level.
+		 * @return the stored level closest to but not coarser than the
+		 *         desired level, or null if there is none.
+		 * @throws IOException
+		 *             thrown if there is a problem decoding the image.
+		 */
+		BufferedImage getImage(URL path, int level) throws IOException;
+
+		/**
+		 * Builds the models of an entry from the bundle.
+		 * 
+		 * @param entry
+		 *            an entry of {@link #getProject()}.
+		 * @return the models.
+		 * @throws IOException
+		 *             thrown if the entry is not in the bundle or its format
+		 *             is not registered.
+		 */
+		List<? extends Model> getModels(ManifestEntry entry) throws IOException;
+
+		/**
+		 * Gets the project stored in the bundle.
+		 * 
+		 * @return the project.
+		 */
+		Project getProject();
+
+		/**
+		 * Gets the raw maps of an entry from the bundle.
+		 * 
+		 * @param entry
+		 *            an entry of {@link #getProject()}.
+		 * @return the raw maps.
+		 * @throws IOException
+		 *             thrown if the entry is not in the bundle.
+		 */
+		List<Map<String, String>> getRaw(ManifestEntry entry) throws IOException;
+	}
+
+	/**
+	 * Exports a project to a bundle file.
+	 * 
+	 * @param project
+	 *            the project.
+	 * @param file
+	 *            the bundle file.
+	 * @throws IOException
+	 *             thrown if there is a problem writing the bundle.
+	 */
+	void export(Project project, File file) throws IOException;
+
+	/**
+	 * Opens a bundle file.
+	 * 
+	 * @param file
+	 *            the bundle file.
+	 * @return the bundle, which must be closed when no longer needed.
+	 * @throws IOException
+	 *             thrown if the file is not a bundle.
+	 */
+	Bundle open(File file) throws IOException;
+}
@@ -0,0 +1,208 @@
+package org.corewall;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.internal.DefaultProjectCatalog;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.ImplementedBy;
+
+/**
+ * Keeps a catalog of summary metadata for the manifest entries of a
+ * {@link Project} next to its project file, so the entries that cover a depth
+ * interval can be found without reading their data.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@ImplementedBy(DefaultProjectCatalog.class)
+public interface ProjectCatalog {
+
+	/**
+	 * The summary of a single manifest entry. Depths are in meters.
+	 */
+	final class Summary {
+		private final int[] histogram;
+		private final ImmutableSet<String> fields;
+		private final double max;
+		private final double min;
+		private final int rows;
+		private final String signature;
+
+		/**
+		 * Create a new Summary.
+		 * 
+		 * @param signature
+		 *            the signature of the source the summary was computed
+		 *            from.
+		 * @param rows
+		 *            the number of rows.
+		 * @param fields
+		 *            the fields of the rows.
+		 * @param min
+		 *            the minimum depth or NaN if the entry has no depths.
+		 * @param max
+		 *            the maximum depth or NaN if the entry has no depths.
+		 * @param histogram
+		 *            the number of rows starting in each of a number of equal
+		 *            bins between the minimum and maximum depths.
+		 */
+		public Summary(final String signature, final int rows, final ImmutableSet<String> fields, final double min,
+				final double max, final int[] histogram) {
+			this.signature = signature;
+			this.rows = rows;
+			this.fields = fields;
+			this.min = min;
+			this.max = max;
+			this.histogram = histogram.clone();
+		}
+
+		/**
+		 * Estimates the number of rows that start in a depth interval from
+		 * the histogram. Bins that only touch the interval are counted in
+		 * full, so the estimate errs high.
+		 * 
+		 * @param top
+		 *            the top of the interval.
+		 * @param base
+		 *            the base of the interval.
+		 * @return the estimated number of rows.
+		 */
+		public int estimate(final double top, final double base) {
+			if (!hasDepths() || (base < min) || (top > max)) {
+				return 0;
+			}
+			if ((histogram.length == 0) || (max == min)) {
+				return rows;
+			}
+			double width = (max - min) / histogram.length;
+			double count = 0;
+			for (int i = 0; i < histogram.length; i++) {
+				double start = min + i * width;
+				double end = start + width;
+				if ((base >= start) && (top <= end)) {
+					double overlap = Math.min(base, end) - Math.max(top, start);
+					count += histogram[i] * ((overlap > 0) ? Math.min(1, overlap / width) : 1);
+				}
+			}
+			return (int) Math.ceil(count);
+		}
+
+		/**
+		 * Gets the fields of the rows.
+		 * 
+		 * @return the fields.
+		 */
+		public ImmutableSet<String> getFields() {
+			return fields;
+		}
+
+		/**
+		 * Gets the histogram of row depths.
+		 * 
+		 * @return a copy of the histogram.
+		 */
+		public int[] getHistogram() {
+			return histogram.clone();
+		}
+
+		/**
+		 * Gets the maximum depth.
+		 * 
+		 * @return the maximum depth or NaN.
+		 */
+		public double getMax() {
+			return max;
+		}
+
+		/**
+		 * Gets the minimum depth.
+		 * 
+		 * @return the minimum depth or NaN.
+		 */
+		public double getMin() {
+			return min;
+		}
+
+		/**
+		 * Gets the number of rows.
+		 * 
+		 * @return the number of rows.
+		 */
+		public int getRows() {
+			return rows;
+		}
+
+		/**
+		 * Gets the signature of the source the summary was computed from.
+		 * 
+		 * @return the signature.
+		 */
+		public String getSignature() {
+			return signature;
+		}
+
+		/**
+		 * Checks whether the rows of the entry have depths.
+		 * 
+		 * @return true if the entry has depths.
+		 */
+		public boolean hasDepths() {
+			return !Double.isNaN(min) && !Double.isNaN(max);
+		}
+
+		/**
+		 * Checks whether the entry has rows in a depth interval.
+		 * 
+		 * @param top
+		 *            the top of the interval.
+		 * @param base
+		 *            the base of the interval.
+		 * @return true if the depth extent of the entry overlaps the interval.
+		 */
+		public boolean overlaps(final double top, final double base) {
+			return hasDepths() && (min <= base) && (max >= top);
+		}
+	}
+
+	/**
+	 * Finds the entries of a project that may have rows in a depth interval.
+	 * Entries that are not catalogued or have no depths are always included,
+	 * since they cannot be ruled out without reading them.
+	 * 
+	 * @param project
+	 *            the project.
+	 * @param top
+	 *            the top of the interval in meters.
+	 * @param base
+	 *            the base of the interval in meters.
+	 * @return the entries.
+	 */
+	ImmutableList<ManifestEntry> find(Project project, double top, double base);
+
+	/**
+	 * Gets the catalogued summaries of a project.
+	 * 
+	 * @param project
+	 *            the project.
+	 * @return the summaries by the external form of each entry's path.
+	 */
+	ImmutableMap<String, Summary> getSummaries(Project project);
+
+	/**
+	 * Brings the catalog of a project up to date. Only entries that are new or
+	 * whose source has changed since they were catalogued are read.
+	 * 
+	 * @param project
+	 *            the project.
+	 * @param dir
+	 *            the directory of the project file.
+	 * @throws IOException
+	 *             thrown if there is a problem writing the catalog.
+	 */
+	void update(Project project, File dir) throws IOException;
+}
@@ -0,0 +1,162 @@
+package org.corewall;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.data.io.StreamingModelWriter;
+import org.corewall.internal.DefaultProjectExporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.ImplementedBy;
+
+/**
+ * Exports every manifest entry of a {@link Project}. Entries are read and
+ * written concurrently, each through its own writer, while the amount of
+ * source data in flight at once is bounded.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@ImplementedBy(DefaultProjectExporter.class)
+public interface ProjectExporter {
+
+	/**
+	 * The outcome of an export.
+	 */
+	final class Report {
+		private final long bytes;
+		private final long elapsed;
+		private final int entries;
+		private final ImmutableMap<ManifestEntry, Throwable> failures;
+		private final long models;
+
+		/**
+		 * Create a new Report.
+		 * 
+		 * @param entries
+		 *            the number of entries exported.
+		 * @param models
+		 *            the number of models written.
+		 * @param bytes
+		 *            the number of source bytes read.
+		 * @param elapsed
+		 *            the elapsed time in nanoseconds.
+		 * @param failures
+		 *            the entries that failed and why.
+		 */
+		public Report(final int entries, final long models, final long bytes, final long elapsed,
+				final ImmutableMap<ManifestEntry, Throwable> failures) {
+			this.entries = entries;
+			this.models = models;
+			this.bytes = bytes;
+			this.elapsed = elapsed;
+			this.failures = failures;
+		}
+
+		/**
+		 * Gets the number of source bytes read per second.
+		 * 
+		 * @return the throughput.
+		 */
+		public double getBytesPerSecond() {
+			return (elapsed == 0) ? 0 : bytes * 1e9 / elapsed;
+		}
+
+		/**
+		 * Gets the elapsed time.
+		 * 
+		 * @return the elapsed time in milliseconds.
+		 */
+		public long getElapsedMillis() {
+			return elapsed / 1000000;
+		}
+
+		/**
+		 * Gets the number of entries exported.
+		 * 
+		 * @return the number of entries.
+		 */
+		public int getEntries() {
+			return entries;
+		}
+
+		/**
+		 * Gets the entries that failed to export.
+		 * 
+		 * @return the failures by entry.
+		 */
+		public ImmutableMap<ManifestEntry, Throwable> getFailures() {
+			return failures;
+		}
+
+		/**
+		 * Gets the number of models written.
+		 * 
+		 * @return the number of models.
+		 */
+		public long getModels() {
+			return models;
+		}
+
+		/**
+		 * Gets the number of models written per second.
+		 * 
+		 * @return the throughput.
+		 */
+		public double getModelsPerSecond() {
+			return (elapsed == 0) ? 0 : models * 1e9 / elapsed;
+		}
+
+		@Override
+		public String toString() {
+			return entries + " entries, " + models + " models in " + getElapsedMillis() + " ms ("
+					+ Math.round(getModelsPerSecond()) + " models/s, " + Math.round(getBytesPerSecond() / 1024)
+					+ " KB/s), " + failures.size() + " failed";
+		}
+	}
+
+	/**
+	 * Opens a writer for each exported entry.
+	 */
+	interface Target {
+
+		/**
+		 * Opens the writer for an entry. The writer is closed by the exporter.
+		 * 
+		 * @param entry
+		 *            the entry.
+		 * @return the writer.
+		 * @throws IOException
+		 *             thrown if there is a problem opening the writer.
+		 */
+		StreamingModelWriter open(ManifestEntry entry) throws IOException;
+	}
+
+	/**
+	 * Exports every entry of a project to a tab-separated file named after the
+	 * entry in the specified directory.
+	 * 
+	 * @param project
+	 *            the project.
+	 * @param dir
+	 *            the directory.
+	 * @return the report.
+	 * @throws InterruptedException
+	 *             thrown if interrupted while waiting for the export.
+	 */
+	Report export(Project project, File dir) throws InterruptedException;
+
+	/**
+	 * Exports every entry of a project to the specified target.
+	 * 
+	 * @param project
+	 *            the project.
+	 * @param target
+	 *            the target.
+	 * @return the report.
+	 * @throws InterruptedException
+	 *             thrown if interrupted while waiting for the export.
+	 */
+	Report export(Project project, Target target) throws InterruptedException;
+}
@@ -0,0 +1,102 @@
+package org.corewall;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.internal.DefaultProjectLoader;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.ImplementedBy;
+import com.google.inject.internal.Nullable;
+
+/**
+ * Loads the models of {@link Project} manifest entries in the background.
+ * Independent entries are loaded concurrently so the first entries can be
+ * displayed while the rest are still loading.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@ImplementedBy(DefaultProjectLoader.class)
+public interface ProjectLoader {
+
+	/**
+	 * Receives progress notifications for each entry. Notifications are sent
+	 * from the loading threads, so listeners that update the UI must hand off
+	 * to the event dispatch thread themselves.
+	 */
+	interface Listener {
+
+		/**
+		 * Called when an entry was cancelled.
+		 * 
+		 * @param entry
+		 *            the entry.
+		 */
+		void cancelled(ManifestEntry entry);
+
+		/**
+		 * Called when an entry failed to load.
+		 * 
+		 * @param entry
+		 *            the entry.
+		 * @param t
+		 *            the cause.
+		 */
+		void failed(ManifestEntry entry, Throwable t);
+
+		/**
+		 * Called when an entry was loaded.
+		 * 
+		 * @param entry
+		 *            the entry.
+		 * @param models
+		 *            the models.
+		 */
+		void loaded(ManifestEntry entry, List<? extends Model> models);
+
+		/**
+		 * Called when an entry starts loading.
+		 * 
+		 * @param entry
+		 *            the entry.
+		 */
+		void started(ManifestEntry entry);
+	}
+
+	/**
+	 * Loads a single manifest entry.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @param listener
+	 *            the listener or null.
+	 * @return the future models, which can be cancelled.
+	 */
+	Future<List<? extends Model>> load(ManifestEntry entry, @Nullable Listener listener);
+
+	/**
+	 * Loads all manifest entries of a project.
+	 * 
+	 * @param project
+	 *            the project.
+	 * @param listener
+	 *            the listener or null.
+	 * @return the future models of each entry, in manifest order.
+	 */
+	ImmutableMap<ManifestEntry, Future<List<? extends Model>>> load(Project project, @Nullable Listener listener);
+
+	/**
+	 * Reads the models of a single manifest entry on the calling thread.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @return the models.
+	 * @throws IOException
+	 *             thrown if the entry has no path or format or cannot be read.
+	 */
+	List<? extends Model> read(ManifestEntry entry) throws IOException;
+}
@@ -0,0 +1,76 @@
+package org.corewall;
+
+import java.util.List;
+
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.internal.DefaultProjectWatcher;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * Watches the files of {@link Project} manifest entries and re-reads only the
+ * entries whose files change, so a single re-exported file can be picked up
+ * without reloading the whole project.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@ImplementedBy(DefaultProjectWatcher.class)
+public interface ProjectWatcher {
+
+	/**
+	 * Receives the re-read models of changed entries. Notifications are sent
+	 * from background threads.
+	 */
+	interface Listener {
+
+		/**
+		 * Called when the file of an entry changed and was re-read.
+		 * 
+		 * @param project
+		 *            the project.
+		 * @param entry
+		 *            the entry.
+		 * @param models
+		 *            the new models.
+		 */
+		void changed(Project project, ManifestEntry entry, List<? extends Model> models);
+
+		/**
+		 * Called when the file of an entry changed but could not be re-read.
+		 * 
+		 * @param project
+		 *            the project.
+		 * @param entry
+		 *            the entry.
+		 * @param t
+		 *            the cause.
+		 */
+		void failed(Project project, ManifestEntry entry, Throwable t);
+	}
+
+	/**
+	 * Checks all watched projects for changes now.
+	 */
+	void check();
+
+	/**
+	 * Stops watching a project.
+	 * 
+	 * @param project
+	 *            the project.
+	 */
+	void unwatch(Project project);
+
+	/**
+	 * Starts watching a project. The files of the project as they are now are
+	 * taken as unchanged.
+	 * 
+	 * @param project
+	 *            the project.
+	 * @param listener
+	 *            the listener.
+	 */
+	void watch(Project project, Listener listener);
+}
@@ -1,8 +1,15 @@
 package org.corewall.data;
 
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * An abstract implementation of the {@link Factory} interface that allows for
@@ -13,7 +20,350 @@ import java.util.Map.Entry;
  *            the type that the factory creates.
  */
 public abstract class AbstractFactory<T extends Model> implements Factory<T> {
+	/**
+	 * A {@link Plan} resolved against a fixed set of source keys, such as the
+	 * header of a CSV file. Each visible key maps directly to a column index
+	 * so rows can be read as plain arrays. The keys a factory declares with
+	 * {@link AbstractFactory#getSlots()} are also resolved into slots, so the
+	 * factory can read them by position without a lookup per row.
+	 */
+	public static final class Binding {
+		private final Map<String, Integer> columns;
+		private final Map<String, String> defaults;
+		private final int[] slotColumns;
+		private final String[] slotDefaults;
+		private final String[] slots;
+
+		Binding(final Map<String, Integer> columns, final Map<String, String> defaults, final String[] slots) {
+			this.columns = columns;
+			this.defaults = defaults;
+			this.slots = slots;
+			slotColumns = new int[slots.length];
+			slotDefaults = new String[slots.length];
+			for (int i = 0; i < slots.length; i++) {
+				slotColumns[i] = column(slots[i]);
+				slotDefaults[i] = defaults.get(slots[i]);
+			}
+		}
+
+		/**
+		 * Gets the column that the specified key is read from.
+		 * 
+		 * @param key
+		 *            the key.
+		 * @return the column index or -1 if the key is not read from a column.
+		 */
+		public int column(final String key) {
+			Integer column = columns.get(key);
+			return (column == null) ? -1 : column;
+		}
+
+		/**
+		 * Gets the value of the key in the specified slot from a row.
+		 * 
+		 * @param slot
+		 *            the position of the key in {@link AbstractFactory#getSlots()}.
+		 * @param values
+		 *            the row values.
+		 * @return the value, the default value, or null.
+		 */
+		public String get(final int slot, final String[] values) {
+			return get(slotColumns[slot], slotDefaults[slot], values);
+		}
+
+		private static String get(final int column, final String fallback, final String[] values) {
+			if ((column >= 0) && (column < values.length) && (values[column] != null)) {
+				return values[column];
+			}
+			return fallback;
+		}
+
+		/**
+		 * Gets the value of the specified key from a row.
+		 * 
+		 * @param key
+		 *            the key.
+		 * @param values
+		 *            the row values.
+		 * @return the value, the default value, or null.
+		 */
+		public String get(final String key, final String[] values) {
+			return get(column(key), defaults.get(key), values);
+		}
+
+		/**
+		 * Gets the value of the key in the specified slot from a row as a
+		 * number. Numeric cells are read without creating a string when the
+		 * cells allow it.
+		 * 
+		 * @param slot
+		 *            the position of the key in {@link AbstractFactory#getSlots()}.
+		 * @param values
+		 *            the row values.
+		 * @param cells
+		 *            the row cells or null.
+		 * @return the number.
+		 * @throws NumberFormatException
+		 *             thrown if the key has no value or the value is not a
+		 *             number.
+		 */
+		public double getDouble(final int slot, final String[] values, final Cells cells) {
+			return getDouble(slots[slot], slotColumns[slot], slotDefaults[slot], values, cells);
+		}
+
+		private static double getDouble(final String key, final int column, final String fallback,
+				final String[] values, final Cells cells) {
+			if ((column >= 0) && (cells != null) && (column < cells.size())) {
+				double value = cells.getDouble(column);
+				if (!Double.isNaN(value)) {
+					return value;
+				}
+				if ((column < values.length) && (values[column] == null)) {
+					values[column] = cells.get(column);
+				}
+			}
+			String value = get(column, fallback, values);
+			if ((value == null) || (value.trim().length() == 0)) {
+				throw new NumberFormatException("No value for '" + key + "'");
+			}
+			return Double.parseDouble(value);
+		}
+
+		/**
+		 * Gets the value of the specified key from a row as a number. Numeric
+		 * cells are read without creating a string when the cells allow it.
+		 * Factories reading the same keys from every row should declare them
+		 * as slots and use {@link #getDouble(int, String[], Cells)} instead.
+		 * 
+		 * @param key
+		 *            the key.
+		 * @param values
+		 *            the row values.
+		 * @param cells
+		 *            the row cells or null.
+		 * @return the number.
+		 * @throws NumberFormatException
+		 *             thrown if the key has no value or the value is not a
+		 *             number.
+		 */
+		public double getDouble(final String key, final String[] values, final Cells cells) {
+			return getDouble(key, column(key), defaults.get(key), values, cells);
+		}
+
+		/**
+		 * Creates a read-only map view of the specified row.
+		 * 
+		 * @param values
+		 *            the row values.
+		 * @return the map view.
+		 */
+		public Map<String, String> view(final String[] values) {
+			return new RowView(this, values);
+		}
+	}
+
+	/**
+	 * The rewrite and default rules of a factory compiled once into a table of
+	 * where each key reads its value from. Rows are never modified; instead a
+	 * plan is either viewed over a map or bound to a set of source keys.
+	 */
+	public static final class Plan {
+		private final Map<String, String> defaults = Maps.newHashMap();
+		private final Set<String> hidden = Sets.newHashSet();
+		private final Map<String, String[]> sources = Maps.newHashMap();
+
+		/**
+		 * Compiles a new plan.
+		 * 
+		 * @param rewrite
+		 *            the property names to rewrite or null.
+		 * @param defaults
+		 *            the default properties or null.
+		 */
+		public Plan(final Map<String, String> rewrite, final Map<String, String> defaults) {
+			Map<String, List<String>> targets = Maps.newHashMap();
+			if (rewrite != null) {
+				for (Entry<String, String> e : rewrite.entrySet()) {
+					hidden.add(e.getKey());
+					if (e.getValue() != null) {
+						List<String> list = targets.get(e.getValue());
+						if (list == null) {
+							list = Lists.newArrayList();
+							targets.put(e.getValue(), list);
+						}
+						// later rewrites win
+						list.add(0, e.getKey());
+					}
+				}
+			}
+			if (defaults != null) {
+				this.defaults.putAll(defaults);
+				for (String key : defaults.keySet()) {
+					if (!targets.containsKey(key)) {
+						targets.put(key, Lists.<String> newArrayList());
+					}
+				}
+			}
+
+			// a rewritten value overrides any value already under the target key
+			for (Entry<String, List<String>> e : targets.entrySet()) {
+				List<String> list = e.getValue();
+				if (!hidden.contains(e.getKey())) {
+					list.add(e.getKey());
+				}
+				sources.put(e.getKey(), list.toArray(new String[list.size()]));
+			}
+		}
+
+		/**
+		 * Resolves this plan against the specified source keys.
+		 * 
+		 * @param keys
+		 *            the source keys, null entries are skipped.
+		 * @return the binding.
+		 */
+		public Binding bind(final String[] keys) {
+			return bind(keys, NO_SLOTS);
+		}
+
+		/**
+		 * Resolves this plan against the specified source keys, resolving the
+		 * specified keys into slots.
+		 * 
+		 * @param keys
+		 *            the source keys, null entries are skipped.
+		 * @param slots
+		 *            the keys to read by position.
+		 * @return the binding.
+		 */
+		public Binding bind(final String[] keys, final String[] slots) {
+			Map<String, Integer> index = Maps.newHashMap();
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != null) {
+					index.put(keys[i], i);
+				}
+			}
+
+			Map<String, Integer> columns = Maps.newHashMap();
+			for (Entry<String, Integer> e : index.entrySet()) {
+				if (!hidden.contains(e.getKey()) && !sources.containsKey(e.getKey())) {
+					columns.put(e.getKey(), e.getValue());
+				}
+			}
+			for (Entry<String, String[]> e : sources.entrySet()) {
+				for (String source : e.getValue()) {
+					Integer column = index.get(source);
+					if (column != null) {
+						columns.put(e.getKey(), column);
+						break;
+					}
+				}
+			}
+			return new Binding(columns, defaults, slots);
+		}
+
+		/**
+		 * Creates a read-only map view of the specified map with this plan
+		 * applied.
+		 * 
+		 * @param map
+		 *            the source map.
+		 * @return the map view.
+		 */
+		public Map<String, String> view(final Map<String, String> map) {
+			return new MapView(this, map);
+		}
+	}
+
+	/**
+	 * A read-only view of a map with a {@link Plan} applied.
+	 */
+	private static class MapView extends AbstractMap<String, String> {
+		private final Map<String, String> map;
+		private final Plan plan;
+
+		MapView(final Plan plan, final Map<String, String> map) {
+			this.plan = plan;
+			this.map = map;
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			Set<String> keys = Sets.newHashSet(map.keySet());
+			keys.removeAll(plan.hidden);
+			keys.addAll(plan.sources.keySet());
+			Map<String, String> copy = Maps.newHashMap();
+			for (String key : keys) {
+				String value = get(key);
+				if (value != null) {
+					copy.put(key, value);
+				}
+			}
+			return Collections.unmodifiableSet(copy.entrySet());
+		}
+
+		@Override
+		public String get(final Object key) {
+			String[] candidates = plan.sources.get(key);
+			if (candidates == null) {
+				return plan.hidden.contains(key) ? null : map.get(key);
+			}
+			for (String source : candidates) {
+				String value = map.get(source);
+				if (value != null) {
+					return value;
+				}
+			}
+			return plan.defaults.get(key);
+		}
+	}
+
+	/**
+	 * A read-only view of a row through a {@link Binding}.
+	 */
+	private static class RowView extends AbstractMap<String, String> {
+		private final Binding binding;
+		private final String[] values;
+
+		RowView(final Binding binding, final String[] values) {
+			this.binding = binding;
+			this.values = values;
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			Set<String> keys = Sets.newHashSet(binding.columns.keySet());
+			keys.addAll(binding.defaults.keySet());
+			Map<String, String> copy = Maps.newHashMap();
+			for (String key : keys) {
+				String value = binding.get(key, values);
+				if (value != null) {
+					copy.put(key, value);
+				}
+			}
+			return Collections.unmodifiableSet(copy.entrySet());
+		}
+
+		@Override
+		public String get(final Object key) {
+			return (key instanceof String) ? binding.get((String) key, values) : null;
+		}
+	}
+
+	private static final String[] NO_SLOTS = new String[0];
+
 	protected final Map<String, String> defaults;
+	protected final Plan plan;
 	protected final Map<String, String> rewrite;
 
 	/**
@@ -23,8 +373,7 @@ public abstract class AbstractFactory<T extends Model> implements Factory<T> {
 	 *            the property names to rewrite.
 	 */
 	public AbstractFactory(final Map<String, String> rewrite) {
-		this.rewrite = rewrite;
-		this.defaults = null;
+		this(rewrite, null);
 	}
 
 	/**
@@ -38,41 +387,95 @@ public abstract class AbstractFactory<T extends Model> implements Factory<T> {
 	public AbstractFactory(final Map<String, String> rewrite, final Map<String, String> defaults) {
 		this.rewrite = rewrite;
 		this.defaults = defaults;
+		this.plan = new Plan(rewrite, defaults);
+	}
+
+	/**
+	 * Resolves this factory's rewrite plan against the specified source keys.
+	 * 
+	 * @param keys
+	 *            the source keys.
+	 * @return the binding.
+	 */
+	public Binding bind(final String[] keys) {
+		return plan.bind(keys, getSlots());
+	}
+
+	/**
+	 * Builds a model from a row read through a binding created by
+	 * {@link #bind(String[])}.
+	 * 
+	 * @param binding
+	 *            the binding.
+	 * @param values
+	 *            the row values.
+	 * @return the model.
+	 */
+	public T build(final Binding binding, final String[] values) {
+		return internalBuild(binding.view(values));
+	}
+
+	/**
+	 * Builds a model from a row read through a binding created by
+	 * {@link #bind(String[])}. The values of the keys returned by
+	 * {@link #getNumericKeys()} are not read into the values array; factories
+	 * that declare numeric keys override this method and read them with
+	 * {@link Binding#getDouble(int, String[], Cells)}.
+	 * 
+	 * @param binding
+	 *            the binding.
+	 * @param values
+	 *            the row values.
+	 * @param cells
+	 *            the row cells, only valid for the duration of the call.
+	 * @return the model.
+	 */
+	public T build(final Binding binding, final String[] values, final Cells cells) {
+		return build(binding, values);
 	}
 
 	public T build(final Map<String, String> map) {
-		return internalBuild(rewrite(map));
+		return internalBuild(plan.view(map));
+	}
+
+	/**
+	 * Gets the keys that this factory reads when building a model. Formats use
+	 * this to skip reading values that no model will ever see.
+	 * 
+	 * @return the set of keys or null if the factory may read any key.
+	 */
+	public Set<String> getKeys() {
+		return null;
+	}
+
+	/**
+	 * Gets the keys that this factory reads by position from a
+	 * {@link Binding}, with {@link Binding#get(int, String[])} and
+	 * {@link Binding#getDouble(int, String[], Cells)}. The slot of a key is
+	 * its index in this array.
+	 * 
+	 * @return the keys.
+	 */
+	protected String[] getSlots() {
+		return NO_SLOTS;
+	}
+
+	/**
+	 * Gets the keys that this factory reads as numbers when building from
+	 * cells.
+	 * 
+	 * @return the set of keys.
+	 */
+	public Set<String> getNumericKeys() {
+		return Collections.emptySet();
 	}
 
 	/**
 	 * Constructs the model object from the specified model map.
 	 * 
 	 * @param map
-	 *            the model map.
+	 *            the read-only model map.
 	 * @return the model object.
 	 */
 	protected abstract T internalBuild(Map<String, String> map);
-
-	protected Map<String, String> rewrite(final Map<String, String> map) {
-		if (rewrite != null) {
-			for (Entry<String, String> e : rewrite.entrySet()) {
-				String before = e.getKey();
-				String after = e.getValue();
-				if (map.containsKey(before)) {
-					String value = map.remove(before);
-					if (after != null) {
-						map.put(after, value);
-					}
-				}
-			}
-		}
-		if (defaults != null) {
-			for (Entry<String, String> e : defaults.entrySet()) {
-				if (!map.containsKey(e.getKey())) {
-					map.put(e.getKey(), e.getValue());
-				}
-			}
-		}
-		return map;
-	}
-}
\ No newline at end of file
+}
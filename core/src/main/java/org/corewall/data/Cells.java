@@ -0,0 +1,37 @@
+package org.corewall.data;
+
+/**
+ * A row of cells from a tabular source. Cells are only converted when they are
+ * read, so readers can skip cells nobody uses and hand numeric cells to
+ * factories without going through a string.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public interface Cells {
+
+	/**
+	 * Gets the value of a cell.
+	 * 
+	 * @param column
+	 *            the column.
+	 * @return the value or null if the cell is empty.
+	 */
+	String get(int column);
+
+	/**
+	 * Gets the value of a cell as a number. This is only a fast path; when it
+	 * returns NaN the caller should fall back to parsing {@link #get(int)}.
+	 * 
+	 * @param column
+	 *            the column.
+	 * @return the number or NaN if the cell is empty or not a plain number.
+	 */
+	double getDouble(int column);
+
+	/**
+	 * Gets the number of cells in this row.
+	 * 
+	 * @return the number of cells.
+	 */
+	int size();
+}
@@ -1,8 +1,10 @@
 package org.corewall.data;
 
 import java.util.Map;
+import java.util.Set;
 
-
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
 /**
  * Pre-defined filters.
@@ -14,7 +16,7 @@ public final class Filters {
 	/**
 	 * Accepts if all filters match.
 	 */
-	private static class AllFilter implements Filter {
+	private static class AllFilter implements Filter, Keyed {
 		private final Filter[] filters;
 
 		public AllFilter(final Filter... filters) {
@@ -29,12 +31,16 @@ public final class Filters {
 			}
 			return true;
 		}
+
+		public Set<String> keys() {
+			return union(filters);
+		}
 	}
 
 	/**
 	 * Accepts if any filters match.
 	 */
-	private static class AnyFilter implements Filter {
+	private static class AnyFilter implements Filter, Keyed {
 		private final Filter[] filters;
 
 		public AnyFilter(final Filter... filters) {
@@ -49,12 +55,42 @@ public final class Filters {
 			}
 			return false;
 		}
+
+		public Set<String> keys() {
+			return union(filters);
+		}
+	}
+
+	/**
+	 * Accepts everything or nothing.
+	 */
+	private static class ConstantFilter implements Filter, Keyed {
+		private final boolean accept;
+
+		public ConstantFilter(final boolean accept) {
+			this.accept = accept;
+		}
+
+		public boolean accept(final Map<String, String> map) {
+			return accept;
+		}
+
+		public Set<String> keys() {
+			return ImmutableSet.of();
+		}
+	}
+
+	/**
+	 * Implemented by filters that know which properties they read.
+	 */
+	private interface Keyed {
+		Set<String> keys();
 	}
 
 	/**
 	 * Filters by property and optionally value.
 	 */
-	private static class PropertyFilter implements Filter {
+	private static class PropertyFilter implements Filter, Keyed {
 		private static final String WILDCARD = "*";
 		private final String name;
 		private final String value;
@@ -71,25 +107,21 @@ public final class Filters {
 		public boolean accept(final Map<String, String> map) {
 			return (map.containsKey(name) && ((WILDCARD.equals(value)) || value.equals(map.get(name))));
 		}
+
+		public Set<String> keys() {
+			return ImmutableSet.of(name);
+		}
 	}
 
 	/**
 	 * Accept all.
 	 */
-	private static final Filter ALL = new Filter() {
-		public boolean accept(final Map<String, String> map) {
-			return true;
-		}
-	};
+	private static final Filter ALL = new ConstantFilter(true);
 
 	/**
 	 * Accept none.
 	 */
-	private static final Filter NONE = new Filter() {
-		public boolean accept(final Map<String, String> map) {
-			return false;
-		};
-	};
+	private static final Filter NONE = new ConstantFilter(false);
 
 	/**
 	 * Constructs a filter that accepts all models.
@@ -124,6 +156,25 @@ public final class Filters {
 		return new AnyFilter(filters);
 	}
 
+	/**
+	 * Gets the property names that the specified filter reads. Readers can use
+	 * this to decide which values must be parsed before the filter is applied.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @return the set of property names or null if the filter may read any
+	 *         property.
+	 */
+	public static Set<String> keys(final Filter filter) {
+		if (filter == null) {
+			return ImmutableSet.of();
+		} else if (filter instanceof Keyed) {
+			return ((Keyed) filter).keys();
+		} else {
+			return null;
+		}
+	}
+
 	/**
 	 * Constructs a filter that accepts no models.
 	 * 
@@ -158,4 +209,16 @@ public final class Filters {
 	public static Filter property(final String name, final String value) {
 		return new PropertyFilter(name, value);
 	}
+
+	private static Set<String> union(final Filter... filters) {
+		Set<String> keys = Sets.newHashSet();
+		for (Filter f : filters) {
+			Set<String> k = keys(f);
+			if (k == null) {
+				return null;
+			}
+			keys.addAll(k);
+		}
+		return keys;
+	}
 }
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A Format can read data from a URL and output either maps of key-value pairs
@@ -33,6 +34,24 @@ public interface Format<T extends Model> {
 	 */
 	List<T> getModels(URL url) throws IOException;
 
+	/**
+	 * Gets the models that pass the specified filter. The filter is applied to
+	 * the raw maps in addition to any filter of the format itself, so rejected
+	 * rows are never built. Formats may skip reading values that do not feed
+	 * one of the specified model keys.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @param filter
+	 *            the filter or null.
+	 * @param keys
+	 *            the model keys to read or null for the keys of the factory.
+	 * @return the list of models.
+	 * @throws IOException
+	 *             thrown if there is a problem reading the URL.
+	 */
+	List<T> getModels(URL url, Filter filter, Set<String> keys) throws IOException;
+
 	/**
 	 * Gets the raw maps.
 	 * 
@@ -43,4 +62,20 @@ public interface Format<T extends Model> {
 	 *             thrown if there is a problem reading the URL.
 	 */
 	List<Map<String, String>> getRaw(URL url) throws IOException;
+
+	/**
+	 * Gets the raw maps that pass the specified filter, containing only the
+	 * specified keys.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @param filter
+	 *            the filter or null.
+	 * @param keys
+	 *            the keys to keep or null for all keys.
+	 * @return the list of maps.
+	 * @throws IOException
+	 *             thrown if there is a problem reading the URL.
+	 */
+	List<Map<String, String>> getRaw(URL url, Filter filter, Set<String> keys) throws IOException;
 }
@@ -0,0 +1,42 @@
+package org.corewall.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.corewall.data.internal.DefaultFormatDetector;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.ImplementedBy;
+
+/**
+ * Picks a registered {@link Format} for a file by looking at its content
+ * rather than relying on its name or on a manifest.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@ImplementedBy(DefaultFormatDetector.class)
+public interface FormatDetector {
+
+	/**
+	 * Detects the formats of all files in a directory.
+	 * 
+	 * @param dir
+	 *            the directory.
+	 * @return the format of each file that was recognized.
+	 * @throws IOException
+	 *             thrown if the directory cannot be listed.
+	 */
+	ImmutableMap<File, Format<?>> detect(File dir) throws IOException;
+
+	/**
+	 * Detects the format of a file.
+	 * 
+	 * @param url
+	 *            the URL of the file.
+	 * @return the format or null if the file was not recognized.
+	 * @throws IOException
+	 *             thrown if there is a problem reading the URL.
+	 */
+	Format<?> detect(URL url) throws IOException;
+}
@@ -2,6 +2,7 @@ package org.corewall.data;
 
 import org.corewall.data.internal.DefaultFormatRegistry;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.ImplementedBy;
 
 /**
@@ -21,6 +22,13 @@ public interface FormatRegistry {
 	 */
 	Format<?> get(String id);
 
+	/**
+	 * Gets the ids of all registered formats.
+	 * 
+	 * @return the set of ids.
+	 */
+	ImmutableSet<String> getIds();
+
 	/**
 	 * Register a new format.
 	 * 
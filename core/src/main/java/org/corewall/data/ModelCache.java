@@ -0,0 +1,66 @@
+package org.corewall.data;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.corewall.data.internal.DefaultModelCache;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * A persistent cache of the raw maps parsed by a {@link Format}. Entries are
+ * keyed by the URL and format id and are only returned while the length and
+ * last modified time of the underlying file are unchanged.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@ImplementedBy(DefaultModelCache.class)
+public interface ModelCache {
+
+	/**
+	 * Removes all cached entries.
+	 */
+	void clear();
+
+	/**
+	 * Gets the cached raw maps for the specified format and URL.
+	 * 
+	 * @param format
+	 *            the format id.
+	 * @param url
+	 *            the URL.
+	 * @return the list of maps or null if not cached or the cached entry is
+	 *         stale.
+	 */
+	List<Map<String, String>> get(String format, URL url);
+
+	/**
+	 * Gets the cached raw maps for the specified format and URL, keeping only
+	 * the specified keys. Rows without any of the keys are dropped.
+	 * 
+	 * @param format
+	 *            the format id.
+	 * @param url
+	 *            the URL.
+	 * @param keys
+	 *            the keys to keep or null for all keys.
+	 * @return the list of maps or null if not cached or the cached entry is
+	 *         stale.
+	 */
+	List<Map<String, String>> get(String format, URL url, Set<String> keys);
+
+	/**
+	 * Caches the raw maps parsed from the specified URL. URLs that do not point
+	 * to a local file are not cached.
+	 * 
+	 * @param format
+	 *            the format id.
+	 * @param url
+	 *            the URL.
+	 * @param raw
+	 *            the list of maps.
+	 */
+	void put(String format, URL url, List<Map<String, String>> raw);
+}
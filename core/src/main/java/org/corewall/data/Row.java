@@ -0,0 +1,21 @@
+package org.corewall.data;
+
+/**
+ * A row that models write their properties into, column by column. Writers
+ * reuse a single row for every model so no map is created per model.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public interface Row {
+
+	/**
+	 * Sets the value of a property. Properties that are not columns of this
+	 * row are ignored.
+	 * 
+	 * @param key
+	 *            the property key.
+	 * @param value
+	 *            the value or null.
+	 */
+	void put(String key, String value);
+}
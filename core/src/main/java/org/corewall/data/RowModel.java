@@ -0,0 +1,19 @@
+package org.corewall.data;
+
+/**
+ * A {@link Model} that can write its properties straight into a {@link Row}
+ * instead of creating a map with {@link #toMap()}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public interface RowModel extends Model {
+
+	/**
+	 * Writes the properties of this model into the specified row. This must put
+	 * the same values as {@link #toMap()}.
+	 * 
+	 * @param row
+	 *            the row.
+	 */
+	void write(Row row);
+}
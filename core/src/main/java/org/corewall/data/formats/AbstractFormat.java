@@ -2,15 +2,25 @@ package org.corewall.data.formats;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.corewall.data.AbstractFactory;
+import org.corewall.data.AbstractFactory.Binding;
+import org.corewall.data.AbstractFactory.Plan;
+import org.corewall.data.Cells;
 import org.corewall.data.Factory;
 import org.corewall.data.Filter;
+import org.corewall.data.Filters;
 import org.corewall.data.Format;
 import org.corewall.data.Model;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.internal.Nullable;
 
 /**
@@ -22,6 +32,208 @@ import com.google.inject.internal.Nullable;
  *            the {@link Model} type.
  */
 public abstract class AbstractFormat<T extends Model> implements Format<T> {
+	/**
+	 * Builds models from rows that share a fixed set of keys. When the factory
+	 * is an {@link AbstractFactory}, its rewrite plan is bound to the keys once
+	 * and each row is filtered and built through array-backed views rather
+	 * than a new map per row. The columns the filter reads are read first so
+	 * rejected rows never read the rest, and columns that feed no key of the
+	 * factory are never read at all. Columns the factory reads as numbers are
+	 * left to the factory to read straight from the cells.
+	 */
+	protected class RowBuilder {
+		private final Binding binding;
+		private final int[] columns;
+		private final Filter filter;
+		private final int[] filtered;
+		private final List<T> models;
+		private final AbstractFactory<T> planned;
+		private final Binding raw;
+		private final int width;
+
+		/**
+		 * Create a new RowBuilder.
+		 * 
+		 * @param keys
+		 *            the keys of each row.
+		 * @param models
+		 *            the list to add the built models to.
+		 * @param filter
+		 *            the filter or null.
+		 * @param required
+		 *            the model keys to read or null for the keys of the
+		 *            factory.
+		 */
+		@SuppressWarnings("unchecked")
+		protected RowBuilder(final String[] keys, final List<T> models, @Nullable final Filter filter,
+				@Nullable final Set<String> required) {
+			this.models = models;
+			this.filter = filter;
+			width = keys.length;
+			raw = IDENTITY.bind(keys);
+			filtered = columns(raw, Filters.keys(filter), width);
+			if (factory instanceof AbstractFactory<?>) {
+				planned = (AbstractFactory<T>) factory;
+				binding = planned.bind(keys);
+				Set<String> read = (required == null) ? planned.getKeys() : required;
+				if ((read != null) && !planned.getNumericKeys().isEmpty()) {
+					read = Sets.difference(read, planned.getNumericKeys());
+				}
+				columns = columns(binding, read, width);
+			} else {
+				planned = null;
+				binding = null;
+				columns = columns(raw, null, width);
+			}
+		}
+
+		/**
+		 * Filters and builds a row.
+		 * 
+		 * @param cells
+		 *            the row cells.
+		 */
+		protected void add(final Cells cells) {
+			if ((factory == null) || (cells.size() == 0)) {
+				return;
+			}
+			String[] values = new String[Math.min(cells.size(), width)];
+			read(cells, filtered, values);
+			if ((filter == null) || filter.accept(raw.view(values))) {
+				read(cells, columns, values);
+				T built = (planned == null) ? factory.build(Maps.newHashMap(raw.view(values))) : planned.build(binding,
+						values, cells);
+				if (built != null) {
+					models.add(built);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Presents raw maps as rows of cells over the union of their keys.
+	 */
+	private static class MapCells implements Cells {
+		private final String[] keys;
+		private Map<String, String> map;
+
+		MapCells(final String[] keys) {
+			this.keys = keys;
+		}
+
+		public String get(final int column) {
+			return ((column < 0) || (column >= keys.length)) ? null : map.get(keys[column]);
+		}
+
+		public double getDouble(final int column) {
+			return Double.NaN;
+		}
+
+		public int size() {
+			return keys.length;
+		}
+	}
+
+	/**
+	 * Receives the rows of a tabular format as they are read.
+	 */
+	protected interface RowHandler {
+
+		/**
+		 * Handles a row.
+		 * 
+		 * @param keys
+		 *            the header keys.
+		 * @param cells
+		 *            the row cells, only valid for the duration of the call.
+		 */
+		void row(String[] keys, Cells cells);
+	}
+
+	private static final Plan IDENTITY = new Plan(null, null);
+
+	/**
+	 * Gets the columns that the specified keys are read from.
+	 * 
+	 * @param binding
+	 *            the binding.
+	 * @param keys
+	 *            the keys or null for all columns.
+	 * @param width
+	 *            the number of columns.
+	 * @return the columns in ascending order.
+	 */
+	private static int[] columns(final Binding binding, final Set<String> keys, final int width) {
+		boolean[] used = new boolean[width];
+		int count = 0;
+		if (keys == null) {
+			Arrays.fill(used, true);
+			count = width;
+		} else {
+			for (String key : keys) {
+				int c = binding.column(key);
+				if ((c >= 0) && (c < width) && !used[c]) {
+					used[c] = true;
+					count++;
+				}
+			}
+		}
+		int[] columns = new int[count];
+		for (int i = 0, j = 0; i < width; i++) {
+			if (used[i]) {
+				columns[j++] = i;
+			}
+		}
+		return columns;
+	}
+
+	private static void read(final Cells cells, final int[] columns, final String[] values) {
+		for (int c : columns) {
+			if ((c < values.length) && (values[c] == null)) {
+				values[c] = cells.get(c);
+			}
+		}
+	}
+
+	/**
+	 * Selects the raw maps that pass the specified filter, keeping only the
+	 * specified keys.
+	 * 
+	 * @param raw
+	 *            the raw maps.
+	 * @param filter
+	 *            the filter or null.
+	 * @param keys
+	 *            the keys to keep or null for all keys.
+	 * @return the selected maps.
+	 */
+	protected static List<Map<String, String>> select(final List<Map<String, String>> raw,
+			@Nullable final Filter filter, @Nullable final Set<String> keys) {
+		if ((filter == null) && (keys == null)) {
+			return raw;
+		}
+		List<Map<String, String>> list = Lists.newArrayList();
+		for (Map<String, String> map : raw) {
+			if ((filter == null) || filter.accept(map)) {
+				if (keys == null) {
+					list.add(map);
+				} else {
+					Map<String, String> copy = Maps.newHashMap();
+					for (String key : keys) {
+						String value = map.get(key);
+						if (value != null) {
+							copy.put(key, value);
+						}
+					}
+					if (copy.size() > 0) {
+						list.add(copy);
+					}
+				}
+			}
+		}
+		return list;
+	}
+
 	protected Factory<T> factory;
 	protected Filter filter;
 	protected String id;
@@ -32,24 +244,198 @@ public abstract class AbstractFormat<T extends Model> implements Format<T> {
 		this.factory = factory;
 	}
 
+	/**
+	 * Builds models from the specified raw maps using this format's filter and
+	 * factory.
+	 * 
+	 * @param raw
+	 *            the raw maps.
+	 * @return the list of models.
+	 */
+	protected List<T> build(final List<Map<String, String>> raw) {
+		return build(raw, null);
+	}
+
+	/**
+	 * Builds models from rows that were read outside of this format, such as
+	 * from a project bundle, using this format's filter and factory.
+	 * 
+	 * @param keys
+	 *            the keys of each row.
+	 * @param rows
+	 *            the rows, each only read while it is current.
+	 * @return the list of models.
+	 */
+	public List<T> build(final String[] keys, final Iterator<? extends Cells> rows) {
+		List<T> models = Lists.newArrayList();
+		RowBuilder builder = new RowBuilder(keys, models, filter, null);
+		while (rows.hasNext()) {
+			builder.add(rows.next());
+		}
+		return models;
+	}
+
+	/**
+	 * Builds models from the specified raw maps using this format's factory and
+	 * both this format's filter and the specified filter.
+	 * 
+	 * @param raw
+	 *            the raw maps.
+	 * @param extra
+	 *            the additional filter or null.
+	 * @return the list of models.
+	 */
+	protected List<T> build(final List<Map<String, String>> raw, @Nullable final Filter extra) {
+		return build(raw, extra, null);
+	}
+
+	/**
+	 * Builds models from the specified raw maps through the same
+	 * {@link RowBuilder} as rows read from a source, so the factory's plan
+	 * and the filter and key pushdown apply to them too.
+	 * 
+	 * @param raw
+	 *            the raw maps.
+	 * @param extra
+	 *            the filter to apply in addition to this format's filter or
+	 *            null.
+	 * @param keys
+	 *            the model keys to read or null for the keys of the factory.
+	 * @return the list of models.
+	 */
+	protected List<T> build(final List<Map<String, String>> raw, @Nullable final Filter extra,
+			@Nullable final Set<String> keys) {
+		List<T> models = Lists.newArrayList();
+		if (factory == null) {
+			return models;
+		}
+		Set<String> union = Sets.newLinkedHashSet();
+		for (Map<String, String> map : raw) {
+			union.addAll(map.keySet());
+		}
+		String[] header = union.toArray(new String[union.size()]);
+		RowBuilder builder = new RowBuilder(header, models, filter(extra), keys);
+		MapCells cells = new MapCells(header);
+		for (Map<String, String> map : raw) {
+			cells.map = map;
+			builder.add(cells);
+		}
+		return models;
+	}
+
+	/**
+	 * Combines this format's filter with the specified filter.
+	 * 
+	 * @param extra
+	 *            the additional filter or null.
+	 * @return the combined filter or null.
+	 */
+	protected Filter filter(@Nullable final Filter extra) {
+		if (extra == null) {
+			return filter;
+		} else if (filter == null) {
+			return extra;
+		} else {
+			return Filters.all(filter, extra);
+		}
+	}
+
+	/**
+	 * Gets the factory of this format.
+	 * 
+	 * @return the factory or null.
+	 */
+	public Factory<T> getFactory() {
+		return factory;
+	}
+
 	public String getId() {
 		return id;
 	}
 
 	public List<T> getModels(final URL url) throws IOException {
-		List<T> list = Lists.newLinkedList();
-		if (factory == null) {
-			for (Map<String, String> map : getRaw(url)) {
-				if ((filter == null) || filter.accept(map)) {
-					if (factory != null) {
-						T built = factory.build(map);
-						if (built != null) {
-							list.add(built);
+		return getModels(url, null, null);
+	}
+
+	public List<T> getModels(final URL url, @Nullable final Filter extra, @Nullable final Set<String> keys)
+			throws IOException {
+		return build(getRaw(url), extra, keys);
+	}
+
+	public List<Map<String, String>> getRaw(final URL url, @Nullable final Filter extra,
+			@Nullable final Set<String> keys) throws IOException {
+		return select(getRaw(url), extra, keys);
+	}
+
+	/**
+	 * Creates a {@link RowHandler} that converts each row to a map.
+	 * 
+	 * @param maps
+	 *            the list to add the maps to.
+	 * @param extra
+	 *            the filter or null.
+	 * @param keys
+	 *            the keys to keep or null for all keys.
+	 * @return the row handler.
+	 */
+	protected RowHandler toMaps(final List<Map<String, String>> maps, @Nullable final Filter extra,
+			@Nullable final Set<String> keys) {
+		return new RowHandler() {
+			private int[] filtered = null;
+			private int[] kept = null;
+			private String[] last = null;
+			private Binding raw = null;
+
+			public void row(final String[] header, final Cells cells) {
+				if (header != last) {
+					raw = IDENTITY.bind(header);
+					filtered = columns(raw, Filters.keys(extra), header.length);
+					kept = columns(raw, keys, header.length);
+					last = header;
+				}
+				String[] values = new String[Math.min(cells.size(), header.length)];
+				read(cells, filtered, values);
+				if ((extra == null) || extra.accept(raw.view(values))) {
+					read(cells, kept, values);
+					Map<String, String> map = Maps.newHashMap();
+					for (int c : kept) {
+						if ((c < values.length) && (header[c] != null) && (values[c] != null)) {
+							map.put(header[c], values[c]);
 						}
 					}
+					if (map.size() > 0) {
+						maps.add(map);
+					}
 				}
 			}
-		}
-		return list;
+		};
+	}
+
+	/**
+	 * Creates a {@link RowHandler} that builds models from each row.
+	 * 
+	 * @param models
+	 *            the list to add the models to.
+	 * @param extra
+	 *            the filter to apply in addition to this format's filter or
+	 *            null.
+	 * @param keys
+	 *            the model keys to read or null for the keys of the factory.
+	 * @return the row handler.
+	 */
+	protected RowHandler toModels(final List<T> models, @Nullable final Filter extra, @Nullable final Set<String> keys) {
+		final Filter combined = filter(extra);
+		return new RowHandler() {
+			private RowBuilder builder = null;
+			private String[] last = null;
+
+			public void row(final String[] header, final Cells cells) {
+				if (header != last) {
+					builder = new RowBuilder(header, models, combined, keys);
+					last = header;
+				}
+				builder.add(cells);
+			}
+		};
 	}
 }
@@ -2,19 +2,21 @@ package org.corewall.data.formats;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.corewall.data.Factory;
 import org.corewall.data.Filter;
 import org.corewall.data.Model;
+import org.corewall.data.io.Streams;
 
 import au.com.bytecode.opencsv.CSVParser;
 import au.com.bytecode.opencsv.CSVReader;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
 import com.google.inject.internal.Nullable;
 
@@ -96,35 +98,40 @@ public class CSVFormat<T extends Model> extends AbstractFormat<T> {
 				CSVReader.DEFAULT_SKIP_LINES, null, filter, factory);
 	}
 
+	@Override
+	public List<T> getModels(final URL url, final Filter extra, final Set<String> keys) throws IOException {
+		List<T> models = Lists.newArrayList();
+		read(url, toModels(models, extra, keys));
+		return models;
+	}
+
 	public List<Map<String, String>> getRaw(final URL url) throws IOException {
+		return getRaw(url, null, null);
+	}
+
+	@Override
+	public List<Map<String, String>> getRaw(final URL url, final Filter extra, final Set<String> keys)
+			throws IOException {
 		List<Map<String, String>> models = Lists.newArrayList();
-		boolean first = true;
-		CSVReader reader = null;
+		read(url, toMaps(models, extra, keys));
+		return models;
+	}
+
+	protected void read(final URL url, final RowHandler handler) throws IOException {
+		String[] header = keys;
+		Reader reader = null;
 		try {
-			reader = new CSVReader(new InputStreamReader(url.openStream()), separator, quote, escape, line);
-			String[] row;
-			while ((row = reader.readNext()) != null) {
-				if ((keys == null) && first) {
-					first = false;
-					keys = row;
+			reader = new InputStreamReader(Streams.open(url));
+			CSVTokenizer tokenizer = new CSVTokenizer(reader, separator, quote, escape, line);
+			while (tokenizer.next()) {
+				if (header == null) {
+					header = tokenizer.toArray();
 				} else {
-					Map<String, String> map = Maps.newHashMap();
-					for (int i = 0; i < row.length; i++) {
-						if (i < keys.length) {
-							String key = keys[i];
-							if (key != null) {
-								map.put(key, row[i]);
-							}
-						}
-					}
-					if (map.size() > 0) {
-						models.add(map);
-					}
+					handler.row(header, tokenizer);
 				}
 			}
 		} finally {
 			Closeables.closeQuietly(reader);
 		}
-		return models;
 	}
 }
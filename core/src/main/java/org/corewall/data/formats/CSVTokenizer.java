@@ -0,0 +1,307 @@
+package org.corewall.data.formats;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.corewall.data.Cells;
+
+/**
+ * Splits character-separated records into fields without creating a string per
+ * field. Each record is unescaped into a shared character buffer and only the
+ * offsets of the fields are kept, so a string is created only when a field is
+ * read with {@link #get(int)}. Plain decimal numbers can be read with
+ * {@link #getDouble(int)} without creating a string at all. The quoting and
+ * escaping rules are the same as the opencsv CSVParser.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+final class CSVTokenizer implements Cells {
+	// powers of ten that are exact as doubles
+	private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final char[] buffer = new char[64 * 1024];
+	private char[] chars = new char[1024];
+	private int count = 0;
+	private int[] ends = new int[16];
+	private final char escape;
+	private int length = 0;
+	private int limit = 0;
+	private char[] line = new char[1024];
+	private int position = 0;
+	private final char quote;
+	private final Reader reader;
+	private final char separator;
+	private int skip;
+	private boolean skipNewline = false;
+	private int[] starts = new int[16];
+	private int used = 0;
+
+	/**
+	 * Create a new CSVTokenizer.
+	 * 
+	 * @param reader
+	 *            the reader.
+	 * @param separator
+	 *            the separator character.
+	 * @param quote
+	 *            the quote character.
+	 * @param escape
+	 *            the escape character.
+	 * @param skip
+	 *            the number of lines to skip.
+	 */
+	CSVTokenizer(final Reader reader, final char separator, final char quote, final char escape, final int skip) {
+		this.reader = reader;
+		this.separator = separator;
+		this.quote = quote;
+		this.escape = escape;
+		this.skip = skip;
+	}
+
+	private void append(final char c) {
+		if (used == chars.length) {
+			char[] grown = new char[chars.length * 2];
+			System.arraycopy(chars, 0, grown, 0, used);
+			chars = grown;
+		}
+		chars[used++] = c;
+	}
+
+	private void field(final int start) {
+		if (count == starts.length) {
+			int[] grown = new int[count * 2];
+			System.arraycopy(starts, 0, grown, 0, count);
+			starts = grown;
+			grown = new int[count * 2];
+			System.arraycopy(ends, 0, grown, 0, count);
+			ends = grown;
+		}
+		starts[count] = start;
+		ends[count] = used;
+		count++;
+	}
+
+	public String get(final int column) {
+		if ((column < 0) || (column >= count)) {
+			return null;
+		}
+		return new String(chars, starts[column], ends[column] - starts[column]);
+	}
+
+	/**
+	 * Parses a field as a decimal number. Numbers with at most 15 significant
+	 * digits and a power of ten within 22 are computed with a single exact
+	 * multiply or divide, which rounds the same as {@link Double#parseDouble}.
+	 * Longer numbers fall back to {@link Double#parseDouble}.
+	 */
+	public double getDouble(final int column) {
+		if ((column < 0) || (column >= count)) {
+			return Double.NaN;
+		}
+		int i = starts[column];
+		int end = ends[column];
+		while ((i < end) && (chars[i] <= ' ')) {
+			i++;
+		}
+		while ((end > i) && (chars[end - 1] <= ' ')) {
+			end--;
+		}
+
+		// sign
+		boolean negative = false;
+		if ((i < end) && ((chars[i] == '-') || (chars[i] == '+'))) {
+			negative = (chars[i] == '-');
+			i++;
+		}
+
+		// integer and fraction digits
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		boolean point = false;
+		for (; i < end; i++) {
+			char c = chars[i];
+			if ((c >= '0') && (c <= '9')) {
+				any = true;
+				if ((mantissa != 0) || (c != '0')) {
+					if (++digits > 15) {
+						return parse(column);
+					}
+					mantissa = mantissa * 10 + (c - '0');
+				}
+				if (point) {
+					exponent--;
+				}
+			} else if ((c == '.') && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (!any) {
+			return Double.NaN;
+		}
+
+		// exponent
+		if ((i < end) && ((chars[i] == 'e') || (chars[i] == 'E'))) {
+			i++;
+			boolean negativeExponent = false;
+			if ((i < end) && ((chars[i] == '-') || (chars[i] == '+'))) {
+				negativeExponent = (chars[i] == '-');
+				i++;
+			}
+			int e = 0;
+			int start = i;
+			for (; (i < end) && (chars[i] >= '0') && (chars[i] <= '9'); i++) {
+				if (i - start > 3) {
+					return parse(column);
+				}
+				e = e * 10 + (chars[i] - '0');
+			}
+			if (i == start) {
+				return Double.NaN;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if (i != end) {
+			// units, suffixes and anything else are left to the string path
+			return Double.NaN;
+		}
+
+		double value;
+		if (mantissa == 0) {
+			value = 0;
+		} else if ((exponent >= 0) && (exponent < POWERS.length)) {
+			value = mantissa * POWERS[exponent];
+		} else if ((exponent < 0) && (-exponent < POWERS.length)) {
+			value = mantissa / POWERS[-exponent];
+		} else {
+			return parse(column);
+		}
+		return negative ? -value : value;
+	}
+
+	private double parse(final int column) {
+		try {
+			return Double.parseDouble(get(column));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Reads the next record.
+	 * 
+	 * @return true if a record was read, false at the end of the input.
+	 * @throws IOException
+	 *             thrown if there is a problem reading the input.
+	 */
+	boolean next() throws IOException {
+		for (; skip > 0; skip--) {
+			if (!readLine()) {
+				return false;
+			}
+		}
+		if (!readLine()) {
+			return false;
+		}
+
+		count = 0;
+		used = 0;
+		int start = 0;
+		boolean inQuotes = false;
+		while (true) {
+			for (int i = 0; i < length; i++) {
+				char c = line[i];
+				boolean hasNext = (i + 1 < length);
+				if (c == escape) {
+					// only quotes and escapes inside quotes can be escaped
+					if (inQuotes && hasNext && ((line[i + 1] == quote) || (line[i + 1] == escape))) {
+						append(line[++i]);
+					}
+				} else if (c == quote) {
+					if (inQuotes && hasNext && (line[i + 1] == quote)) {
+						append(line[++i]);
+					} else {
+						inQuotes = !inQuotes;
+
+						// keep quotes embedded in the middle of a field
+						if ((i > 2) && (line[i - 1] != separator) && hasNext && (line[i + 1] != separator)) {
+							append(c);
+						}
+					}
+				} else if ((c == separator) && !inQuotes) {
+					field(start);
+					start = used;
+				} else {
+					append(c);
+				}
+			}
+
+			// a quoted field continues on the next line
+			if (!inQuotes) {
+				break;
+			}
+			append('\n');
+			if (!readLine()) {
+				break;
+			}
+		}
+		field(start);
+		return true;
+	}
+
+	private boolean readLine() throws IOException {
+		length = 0;
+		boolean read = false;
+		while (true) {
+			if (position == limit) {
+				limit = reader.read(buffer, 0, buffer.length);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return read;
+				}
+			}
+			char c = buffer[position++];
+			if (skipNewline) {
+				skipNewline = false;
+				if (c == '\n') {
+					continue;
+				}
+			}
+			read = true;
+			if (c == '\n') {
+				return true;
+			} else if (c == '\r') {
+				skipNewline = true;
+				return true;
+			}
+			if (length == line.length) {
+				char[] grown = new char[line.length * 2];
+				System.arraycopy(line, 0, grown, 0, length);
+				line = grown;
+			}
+			line[length++] = c;
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Gets all fields of the current record.
+	 * 
+	 * @return the fields.
+	 */
+	String[] toArray() {
+		String[] fields = new String[count];
+		for (int i = 0; i < count; i++) {
+			fields[i] = get(i);
+		}
+		return fields;
+	}
+}
@@ -0,0 +1,117 @@
+package org.corewall.data.formats;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.corewall.data.Cells;
+import org.corewall.data.Factory;
+import org.corewall.data.Filter;
+import org.corewall.data.Filters;
+import org.corewall.data.Format;
+import org.corewall.data.Model;
+import org.corewall.data.ModelCache;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Wraps an {@link AbstractFormat} so that its raw maps are read from a
+ * {@link ModelCache} when the source has not changed since they were last
+ * read. The cache holds every row and is filled when all of the raw maps are
+ * read. On a miss, models and projected maps are read straight from the source
+ * by the wrapped format, and on a hit models are built from the cached rows
+ * through the format's row builder, so plans, filters and key pushdown apply
+ * either way.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ * 
+ * @param <T>
+ *            the {@link Model} type.
+ */
+public class CachedFormat<T extends Model> implements Format<T> {
+	protected final ModelCache cache;
+	protected final AbstractFormat<T> format;
+
+	/**
+	 * Create a new CachedFormat.
+	 * 
+	 * @param format
+	 *            the wrapped format.
+	 * @param cache
+	 *            the cache.
+	 */
+	public CachedFormat(final AbstractFormat<T> format, final ModelCache cache) {
+		this.format = format;
+		this.cache = cache;
+	}
+
+	/**
+	 * Builds models from rows with the wrapped format.
+	 * 
+	 * @param keys
+	 *            the keys of each row.
+	 * @param rows
+	 *            the rows, each only read while it is current.
+	 * @return the list of models.
+	 * @see AbstractFormat#build(String[], Iterator)
+	 */
+	public List<T> build(final String[] keys, final Iterator<? extends Cells> rows) {
+		return format.build(keys, rows);
+	}
+
+	/**
+	 * Gets the factory of the wrapped format.
+	 * 
+	 * @return the factory or null.
+	 */
+	public Factory<T> getFactory() {
+		return format.getFactory();
+	}
+
+	public String getId() {
+		return format.getId();
+	}
+
+	public List<T> getModels(final URL url) throws IOException {
+		return getModels(url, null, null);
+	}
+
+	public List<T> getModels(final URL url, final Filter filter, final Set<String> keys) throws IOException {
+		List<Map<String, String>> raw = cache.get(format.getId(), url);
+		if (raw == null) {
+			return format.getModels(url, filter, keys);
+		}
+		return format.build(raw, filter, keys);
+	}
+
+	public List<Map<String, String>> getRaw(final URL url) throws IOException {
+		List<Map<String, String>> raw = cache.get(format.getId(), url);
+		if (raw == null) {
+			raw = format.getRaw(url);
+			cache.put(format.getId(), url, raw);
+		}
+		return raw;
+	}
+
+	public List<Map<String, String>> getRaw(final URL url, final Filter filter, final Set<String> keys)
+			throws IOException {
+		if ((filter == null) && (keys == null)) {
+			return getRaw(url);
+		}
+
+		// only read the kept keys and the keys the filter reads from the cache
+		Set<String> read = null;
+		Set<String> filtered = Filters.keys(filter);
+		if ((keys != null) && (filtered != null)) {
+			read = Sets.union(keys, filtered);
+		}
+		List<Map<String, String>> raw = cache.get(format.getId(), url, read);
+		if (raw == null) {
+			return format.getRaw(url, filter, keys);
+		}
+		return AbstractFormat.select(raw, filter, keys);
+	}
+}
@@ -1,22 +1,27 @@
 package org.corewall.data.formats;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.corewall.data.Cells;
 import org.corewall.data.Factory;
 import org.corewall.data.Filter;
 import org.corewall.data.Model;
+import org.corewall.data.io.Streams;
 
 import com.google.common.collect.Lists;
-import com.google.inject.internal.Maps;
+import com.google.common.io.Closeables;
 import com.google.inject.internal.Nullable;
 
 /**
@@ -28,6 +33,31 @@ import com.google.inject.internal.Nullable;
  *            the {@link Model} type.
  */
 public class ExcelFormat<T extends Model> extends AbstractFormat<T> {
+	/**
+	 * The cells of a row, indexed by column so empty cells keep their place.
+	 * Numeric cells are read as numbers rather than formatted and re-parsed.
+	 */
+	private static class RowCells implements Cells {
+		private Row row;
+
+		public String get(final int column) {
+			Cell cell = row.getCell(column);
+			return (cell == null) ? null : cell.toString();
+		}
+
+		public double getDouble(final int column) {
+			Cell cell = row.getCell(column);
+			if ((cell == null) || (cell.getCellType() != Cell.CELL_TYPE_NUMERIC) || DateUtil.isCellDateFormatted(cell)) {
+				return Double.NaN;
+			}
+			return cell.getNumericCellValue();
+		}
+
+		public int size() {
+			return Math.max(0, row.getLastCellNum());
+		}
+	}
+
 	protected String[] keys;
 	protected final String sheetName;
 	protected final int sheetNumber;
@@ -113,13 +143,34 @@ public class ExcelFormat<T extends Model> extends AbstractFormat<T> {
 		this.keys = keys;
 	}
 
+	@Override
+	public List<T> getModels(final URL url, final Filter extra, final Set<String> keys) throws IOException {
+		List<T> models = Lists.newArrayList();
+		read(url, toModels(models, extra, keys));
+		return models;
+	}
+
 	public List<Map<String, String>> getRaw(final URL url) throws IOException {
-		Workbook workbook;
+		return getRaw(url, null, null);
+	}
+
+	@Override
+	public List<Map<String, String>> getRaw(final URL url, final Filter extra, final Set<String> keys)
+			throws IOException {
 		List<Map<String, String>> models = Lists.newArrayList();
+		read(url, toMaps(models, extra, keys));
+		return models;
+	}
+
+	protected void read(final URL url, final RowHandler handler) throws IOException {
+		Workbook workbook;
+		String[] header = keys;
 		boolean first = true;
+		InputStream in = null;
 		try {
 			// open our workbook and get our sheet
-			workbook = WorkbookFactory.create(url.openStream());
+			in = Streams.open(url);
+			workbook = WorkbookFactory.create(in);
 			Sheet sheet;
 			if (sheetName != null) {
 				sheet = workbook.getSheet(sheetName);
@@ -133,35 +184,26 @@ public class ExcelFormat<T extends Model> extends AbstractFormat<T> {
 				}
 			}
 
-			// read row by row
+			// read row by row, only converting the cells that are used
+			RowCells cells = new RowCells();
 			for (Row row : sheet) {
-				List<String> values = Lists.newArrayList();
-				for (Cell cell : row) {
-					values.add(cell.toString());
-				}
+				cells.row = row;
 				if (first) {
 					first = false;
-					if (keys == null) {
-						keys = values.toArray(new String[0]);
-					}
-				} else {
-					Map<String, String> map = Maps.newHashMap();
-					for (int i = 0; i < values.size(); i++) {
-						if (i < keys.length) {
-							String key = keys[i];
-							if (key != null) {
-								map.put(key, values.get(i));
-							}
+					if (header == null) {
+						header = new String[cells.size()];
+						for (int i = 0; i < header.length; i++) {
+							header[i] = cells.get(i);
 						}
 					}
-					if (map.size() > 0) {
-						models.add(map);
-					}
+				} else {
+					handler.row(header, cells);
 				}
 			}
 		} catch (InvalidFormatException e) {
 			throw new IOException("Invalid Excel Format", e);
+		} finally {
+			Closeables.closeQuietly(in);
 		}
-		return models;
 	}
 }
@@ -10,6 +10,7 @@ import java.util.Map;
 import org.corewall.data.Factory;
 import org.corewall.data.Filter;
 import org.corewall.data.Model;
+import org.corewall.data.io.Streams;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -52,7 +53,7 @@ public class JSONFormat<T extends Model> extends AbstractFormat<T> {
 		Reader reader = null;
 		JSONArray array;
 		try {
-			reader = new InputStreamReader(url.openStream());
+			reader = new InputStreamReader(Streams.open(url));
 			array = new JSONArray(new JSONTokener(reader));
 			for (int i = 0; i < array.length(); i++) {
 				models.add(json2map(array.getJSONObject(i)));
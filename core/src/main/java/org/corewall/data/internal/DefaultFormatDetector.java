@@ -0,0 +1,367 @@
+package org.corewall.data.internal;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.corewall.data.AbstractFactory;
+import org.corewall.data.AbstractFactory.Binding;
+import org.corewall.data.Factory;
+import org.corewall.data.Format;
+import org.corewall.data.FormatDetector;
+import org.corewall.data.FormatRegistry;
+import org.corewall.data.formats.AbstractFormat;
+import org.corewall.data.formats.CachedFormat;
+import org.corewall.data.io.Streams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.bytecode.opencsv.CSVParser;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Default implementation of the {@link FormatDetector} interface. Only the
+ * first {@link #SNIFF} bytes of a file are read. Excel workbooks are
+ * recognized by their magic bytes, CML sessions and JSON by their first
+ * characters, and delimited text by the separator that splits the first lines
+ * into the same number of fields. The type is then picked by matching the
+ * header keys against the keys read by the factory of each candidate format.
+ * The most recent decisions are cached by file path, length, and last modified
+ * time.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@Singleton
+public class DefaultFormatDetector implements FormatDetector {
+	private static final int DECISIONS = 4096;
+	private static final Pattern JSON_KEY = Pattern.compile("\"([^\"\\\\]+)\"\\s*:");
+	private static final Logger LOG = LoggerFactory.getLogger(DefaultFormatDetector.class);
+	private static final int LINES = 10;
+	private static final String NONE = "";
+	private static final char[] SEPARATORS = { '\t', ',' };
+
+	/**
+	 * The number of bytes read from each file.
+	 */
+	public static final int SNIFF = 8 * 1024;
+
+	private static boolean startsWith(final byte[] bytes, final int length, final int... magic) {
+		if (length < magic.length) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if ((bytes[i] & 0xff) != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static File toFile(final URL url) {
+		if (!"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	protected final Map<String, String> decisions = Collections.synchronizedMap(new LinkedHashMap<String, String>(16,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+			return size() > DECISIONS;
+		}
+	});
+	protected final ExecutorService executor;
+	protected final FormatRegistry registry;
+
+	/**
+	 * Create a new DefaultFormatDetector.
+	 * 
+	 * @param registry
+	 *            the format registry.
+	 */
+	@Inject
+	public DefaultFormatDetector(final FormatRegistry registry) {
+		this.registry = registry;
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 10, SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		pool.allowCoreThreadTimeOut(true);
+		executor = MoreExecutors.getExitingExecutorService(pool, 1, SECONDS);
+	}
+
+	/**
+	 * Picks the format with the specified prefix whose factory reads the most
+	 * of the specified keys.
+	 * 
+	 * @param prefix
+	 *            the format id prefix, e.g. 'csv'.
+	 * @param keys
+	 *            the header keys or null if they are unknown.
+	 * @param name
+	 *            the file name, used when the keys are unknown.
+	 * @return the format id or null.
+	 */
+	protected String choose(final String prefix, final String[] keys, final String name) {
+		List<String> ids = Lists.newArrayList();
+		for (String id : registry.getIds()) {
+			if (id.startsWith(prefix + ":")) {
+				ids.add(id);
+			}
+		}
+		if (ids.isEmpty()) {
+			return null;
+		}
+		String[] sorted = ids.toArray(new String[ids.size()]);
+		Arrays.sort(sorted);
+		if (sorted.length == 1) {
+			return sorted[0];
+		}
+
+		String best = null;
+		int score = 0;
+		for (String id : sorted) {
+			int s = (keys == null) ? score(id, name) : score(registry.get(id), keys);
+			if (s > score) {
+				best = id;
+				score = s;
+			}
+		}
+		return best;
+	}
+
+	public ImmutableMap<File, Format<?>> detect(final File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Unable to list " + dir);
+		}
+		Arrays.sort(files);
+
+		// sniff the files in parallel
+		Map<File, Future<Format<?>>> futures = Maps.newLinkedHashMap();
+		for (final File file : files) {
+			if (file.isFile()) {
+				futures.put(file, executor.submit(new Callable<Format<?>>() {
+					public Format<?> call() throws IOException {
+						return detect(file.toURI().toURL());
+					}
+				}));
+			}
+		}
+
+		ImmutableMap.Builder<File, Format<?>> formats = ImmutableMap.builder();
+		for (Map.Entry<File, Future<Format<?>>> e : futures.entrySet()) {
+			try {
+				Format<?> format = e.getValue().get();
+				if (format != null) {
+					formats.put(e.getKey(), format);
+				}
+			} catch (ExecutionException ex) {
+				LOG.warn("Unable to detect the format of {}: {}", e.getKey(), ex.getCause().getMessage());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return formats.build();
+	}
+
+	public Format<?> detect(final URL url) throws IOException {
+		// check our cache
+		File file = toFile(url);
+		String signature = null;
+		if (file != null) {
+			signature = file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+			String id = decisions.get(signature);
+			if (id != null) {
+				return NONE.equals(id) ? null : registry.get(id);
+			}
+		}
+
+		String id = sniff(url);
+		if (signature != null) {
+			decisions.put(signature, (id == null) ? NONE : id);
+		}
+		LOG.debug("Detected format {} for {}", id, url);
+		return (id == null) ? null : registry.get(id);
+	}
+
+	/**
+	 * Picks the separator that splits the first lines into the same number of
+	 * fields.
+	 * 
+	 * @param lines
+	 *            the lines.
+	 * @return the separator or 0 if none fits.
+	 */
+	protected char separator(final List<String> lines) {
+		char best = 0;
+		int fields = 1;
+		for (char separator : SEPARATORS) {
+			CSVParser parser = new CSVParser(separator);
+			int count = -1;
+			for (String line : lines) {
+				int n;
+				try {
+					n = parser.parseLine(line).length;
+				} catch (IOException e) {
+					n = -1;
+				}
+				if ((count != -1) && (n != count)) {
+					count = -1;
+					break;
+				}
+				count = n;
+			}
+			if (count > fields) {
+				best = separator;
+				fields = count;
+			}
+		}
+		return best;
+	}
+
+	private int score(final Format<?> format, final String[] keys) {
+		Factory<?> factory = null;
+		if (format instanceof AbstractFormat<?>) {
+			factory = ((AbstractFormat<?>) format).getFactory();
+		} else if (format instanceof CachedFormat<?>) {
+			factory = ((CachedFormat<?>) format).getFactory();
+		}
+		if (!(factory instanceof AbstractFactory<?>)) {
+			return 0;
+		}
+		AbstractFactory<?> planned = (AbstractFactory<?>) factory;
+		Set<String> read = planned.getKeys();
+		if (read == null) {
+			return 0;
+		}
+		Binding binding = planned.bind(keys);
+		int score = 0;
+		for (String key : read) {
+			if (binding.column(key) >= 0) {
+				score++;
+			}
+		}
+		return score;
+	}
+
+	private int score(final String id, final String name) {
+		String type = id.substring(id.indexOf(':') + 1).toLowerCase();
+		return name.toLowerCase().contains(type) ? 1 : 0;
+	}
+
+	/**
+	 * Reads the start of a file and picks a format id.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @return the format id or null.
+	 * @throws IOException
+	 *             thrown if there is a problem reading the URL.
+	 */
+	protected String sniff(final URL url) throws IOException {
+		byte[] bytes = new byte[SNIFF];
+		int length = 0;
+		InputStream in = null;
+		try {
+			// a small synchronous stream, as only the start of the file is read
+			in = new BufferedInputStream(url.openStream(), SNIFF);
+			boolean compressed = Streams.isCompressed(url);
+			if (!compressed) {
+				in.mark(2);
+				compressed = (in.read() == 0x1f) && (in.read() == 0x8b);
+				in.reset();
+			}
+			if (compressed) {
+				in = new GZIPInputStream(in, SNIFF);
+			}
+			int read;
+			while ((length < SNIFF) && ((read = in.read(bytes, length, SNIFF - length)) > 0)) {
+				length += read;
+			}
+		} finally {
+			Closeables.closeQuietly(in);
+		}
+
+		// binary formats
+		String path = url.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		if (startsWith(bytes, length, 0x50, 0x4b, 0x03, 0x04) || startsWith(bytes, length, 0xd0, 0xcf, 0x11, 0xe0)) {
+			return choose("excel", null, name);
+		}
+
+		// text formats
+		String text = new String(bytes, 0, length, "UTF-8");
+		if (text.startsWith("\uFEFF")) {
+			text = text.substring(1);
+		}
+		String trimmed = text.trim();
+		if (trimmed.startsWith("<")) {
+			return (trimmed.contains("<session")) ? choose("cml", null, name) : null;
+		} else if (trimmed.startsWith("[") || trimmed.startsWith("{")) {
+			Set<String> keys = Sets.newLinkedHashSet();
+			Matcher m = JSON_KEY.matcher(trimmed);
+			while (m.find()) {
+				keys.add(m.group(1));
+			}
+			String[] header = keys.toArray(new String[keys.size()]);
+			String id = choose("json", header, name);
+			return (id == null) ? choose("coreref", header, name) : id;
+		}
+
+		// delimited text, ignoring a partial last line
+		List<String> lines = Lists.newArrayList(text.split("\r\n|\r|\n"));
+		if ((length == SNIFF) && (lines.size() > 1)) {
+			lines.remove(lines.size() - 1);
+		}
+		while (lines.size() > LINES) {
+			lines.remove(lines.size() - 1);
+		}
+		if (lines.isEmpty()) {
+			return null;
+		}
+		char separator = separator(lines);
+		if (separator == 0) {
+			return null;
+		}
+		String[] header = new CSVParser(separator).parseLine(lines.get(0));
+		return choose((separator == '\t') ? "tsv" : "csv", header, name);
+	}
+}
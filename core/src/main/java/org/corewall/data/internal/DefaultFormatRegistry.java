@@ -2,46 +2,74 @@ package org.corewall.data.internal;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.corewall.data.Format;
 import org.corewall.data.FormatRegistry;
+import org.corewall.data.Model;
+import org.corewall.data.ModelCache;
+import org.corewall.data.formats.AbstractFormat;
+import org.corewall.data.formats.CachedFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.internal.Maps;
 
 /**
- * Default implementation of the {@link FormatRegistry} interface.
+ * Default implementation of the {@link FormatRegistry} interface. Formats
+ * derived from {@link AbstractFormat} are wrapped in a {@link CachedFormat}
+ * when they are registered so their parsed maps are cached between sessions.
+ * Formats are looked up concurrently by the loading threads.
  * 
  * @author Josh Reed (jareed@andrill.org)
  */
 @Singleton
 public class DefaultFormatRegistry implements FormatRegistry {
 	private static final Logger LOG = LoggerFactory.getLogger(DefaultFormatRegistry.class);
+	protected final ModelCache cache;
 	protected final Map<String, Format<?>> formats;
 
 	/**
 	 * Create a new DefaultFormatRegistry.
+	 * 
+	 * @param cache
+	 *            the model cache.
 	 */
-	DefaultFormatRegistry() {
-		formats = Maps.newHashMap();
+	@Inject
+	DefaultFormatRegistry(final ModelCache cache) {
+		this.cache = cache;
+		formats = new ConcurrentHashMap<String, Format<?>>();
 		LOG.debug("Initialized");
 	}
 
+	private <T extends Model> Format<T> cached(final AbstractFormat<T> format) {
+		return new CachedFormat<T>(format, cache);
+	}
+
 	public Format<?> get(final String id) {
 		return formats.get(id);
 	}
 
+	public ImmutableSet<String> getIds() {
+		return ImmutableSet.copyOf(formats.keySet());
+	}
+
+	// the modules bind the raw Format type so the set must be raw too
 	@Inject(optional = true)
-	void inject(final Set<Format<?>> injected) {
+	@SuppressWarnings("rawtypes")
+	void inject(final Set<Format> injected) {
 		for (Format<?> f : injected) {
-			formats.put(f.getId(), f);
+			register(f);
 		}
 	}
 
 	public void register(final Format<?> format) {
-		formats.put(format.getId(), format);
+		if ((cache != null) && (format instanceof AbstractFormat<?>)) {
+			formats.put(format.getId(), cached((AbstractFormat<?>) format));
+		} else {
+			formats.put(format.getId(), format);
+		}
 	}
 }
@@ -0,0 +1,357 @@
+package org.corewall.data.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.corewall.data.ModelCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.inject.Singleton;
+
+/**
+ * Default implementation of the {@link ModelCache} interface. Each entry is
+ * stored in its own file named by a hash of the URL and format id. The file
+ * starts with the length and last modified time of the source so stale entries
+ * are detected on read, followed by a key table and the rows encoded as key
+ * indexes and UTF-8 values. Entries are evicted least recently used first once
+ * the total size of the cache exceeds its capacity. Only the index is locked,
+ * so entries are read and written concurrently; a new entry is written to its
+ * own temporary file and moved into place.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@Singleton
+public class DefaultModelCache implements ModelCache {
+	/**
+	 * The default capacity in bytes.
+	 */
+	public static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+	private static final Logger LOG = LoggerFactory.getLogger(DefaultModelCache.class);
+	private static final int MAGIC = 0x43574d43; // CWMC
+	private static final String SUFFIX = ".rows";
+	private static final int VERSION = 1;
+
+	private static String hash(final String str) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(str.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e.getMessage());
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e.getMessage());
+		}
+	}
+
+	private static int readInt(final DataInputStream in) throws IOException {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private static String readString(final DataInputStream in) throws IOException {
+		int length = readInt(in) - 1;
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void skipString(final DataInputStream in) throws IOException {
+		int length = readInt(in) - 1;
+		if (length > 0) {
+			ByteStreams.skipFully(in, length);
+		}
+	}
+
+	private static File toFile(final URL url) {
+		if ((url == null) || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			File file = new File(url.toURI());
+			return file.isFile() ? file : null;
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static void writeInt(final DataOutputStream out, final int value) throws IOException {
+		int v = value;
+		while ((v & ~0x7f) != 0) {
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	private static void writeString(final DataOutputStream out, final String str) throws IOException {
+		if (str == null) {
+			writeInt(out, 0);
+		} else {
+			byte[] bytes = str.getBytes("UTF-8");
+			writeInt(out, bytes.length + 1);
+			out.write(bytes);
+		}
+	}
+
+	protected final long capacity;
+	protected final File dir;
+	protected final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long puts = 0;
+	protected long size = 0;
+
+	/**
+	 * Create a new DefaultModelCache in the system temporary directory.
+	 */
+	DefaultModelCache() {
+		this(new File(System.getProperty("java.io.tmpdir"), "corewall" + File.separator + "models"), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a new DefaultModelCache.
+	 * 
+	 * @param dir
+	 *            the cache directory.
+	 * @param capacity
+	 *            the maximum size of the cache in bytes.
+	 */
+	public DefaultModelCache(final File dir, final long capacity) {
+		this.dir = dir;
+		this.capacity = capacity;
+		dir.mkdirs();
+
+		// index the existing entries, oldest first
+		File[] existing = dir.listFiles();
+		if (existing != null) {
+			Arrays.sort(existing, new Comparator<File>() {
+				public int compare(final File f1, final File f2) {
+					long diff = f1.lastModified() - f2.lastModified();
+					return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+				}
+			});
+			for (File f : existing) {
+				if (f.getName().endsWith(SUFFIX)) {
+					index.put(f.getName(), f.length());
+					size += f.length();
+				}
+			}
+		}
+		LOG.debug("Initialized with {} entries", index.size());
+	}
+
+	public synchronized void clear() {
+		for (String name : index.keySet()) {
+			new File(dir, name).delete();
+		}
+		index.clear();
+		size = 0;
+	}
+
+	protected void evict() {
+		Iterator<Entry<String, Long>> i = index.entrySet().iterator();
+		while ((size > capacity) && i.hasNext()) {
+			Entry<String, Long> e = i.next();
+			new File(dir, e.getKey()).delete();
+			size -= e.getValue();
+			i.remove();
+		}
+	}
+
+	public List<Map<String, String>> get(final String format, final URL url) {
+		return get(format, url, null);
+	}
+
+	public List<Map<String, String>> get(final String format, final URL url, final Set<String> wanted) {
+		File source = toFile(url);
+		if (source == null) {
+			return null;
+		}
+		String name = name(format, url);
+		long seen;
+		synchronized (this) {
+			if (index.get(name) == null) {
+				return null;
+			}
+			seen = puts;
+		}
+
+		File file = new File(dir, name);
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) || (in.readLong() != source.length())
+					|| (in.readLong() != source.lastModified())) {
+				Closeables.closeQuietly(in);
+				remove(name, seen);
+				return null;
+			}
+
+			// read our keys
+			String[] keys = new String[readInt(in)];
+			boolean[] kept = new boolean[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = readString(in);
+				kept[i] = (wanted == null) || wanted.contains(keys[i]);
+			}
+
+			// read our rows
+			int rows = readInt(in);
+			List<Map<String, String>> raw = Lists.newArrayListWithCapacity(rows);
+			for (int r = 0; r < rows; r++) {
+				int count = readInt(in);
+				Map<String, String> map = Maps.newHashMapWithExpectedSize(count);
+				for (int c = 0; c < count; c++) {
+					int k = readInt(in);
+					if (kept[k]) {
+						map.put(keys[k], readString(in));
+					} else {
+						skipString(in);
+					}
+				}
+				if ((wanted == null) || !map.isEmpty()) {
+					raw.add(map);
+				}
+			}
+			file.setLastModified(System.currentTimeMillis());
+			return raw;
+		} catch (IOException e) {
+			LOG.warn("Unable to read cached entry for {}: {}", url, e.getMessage());
+			Closeables.closeQuietly(in);
+			remove(name, seen);
+			return null;
+		} finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	protected String name(final String format, final URL url) {
+		return hash(format + '|' + url.toExternalForm()) + SUFFIX;
+	}
+
+	public void put(final String format, final URL url, final List<Map<String, String>> raw) {
+		File source = toFile(url);
+		if ((source == null) || (raw == null)) {
+			return;
+		}
+		String name = name(format, url);
+
+		// build our key table
+		Map<String, Integer> keys = Maps.newLinkedHashMap();
+		for (Map<String, String> map : raw) {
+			for (String key : map.keySet()) {
+				if (!keys.containsKey(key)) {
+					keys.put(key, keys.size());
+				}
+			}
+		}
+
+		// write to a temporary file and then move it into place
+		File temp = null;
+		File file = new File(dir, name);
+		DataOutputStream out = null;
+		try {
+			temp = File.createTempFile(name, ".tmp", dir);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+			writeInt(out, keys.size());
+			for (String key : keys.keySet()) {
+				writeString(out, key);
+			}
+			writeInt(out, raw.size());
+			for (Map<String, String> map : raw) {
+				writeInt(out, map.size());
+				for (Entry<String, String> e : map.entrySet()) {
+					writeInt(out, keys.get(e.getKey()));
+					writeString(out, e.getValue());
+				}
+			}
+			out.close();
+			synchronized (this) {
+				// replace the entry in one step where the platform allows it
+				Long length = index.remove(name);
+				if (length != null) {
+					size -= length;
+				}
+				if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+					throw new IOException("Unable to move " + temp + " to " + file);
+				}
+				puts++;
+				index.put(name, file.length());
+				size += file.length();
+				evict();
+			}
+		} catch (IOException e) {
+			LOG.warn("Unable to cache entry for {}: {}", url, e.getMessage());
+			if (temp != null) {
+				temp.delete();
+			}
+		} finally {
+			Closeables.closeQuietly(out);
+		}
+	}
+
+	protected synchronized void remove(final String name) {
+		Long length = index.remove(name);
+		if (length != null) {
+			size -= length;
+		}
+		new File(dir, name).delete();
+	}
+
+	/**
+	 * Removes an entry that could not be read, unless an entry has been put
+	 * since it was looked up and the file read may have been replaced.
+	 * 
+	 * @param name
+	 *            the entry name.
+	 * @param seen
+	 *            the number of puts when the entry was looked up.
+	 */
+	private synchronized void remove(final String name, final long seen) {
+		if (puts == seen) {
+			remove(name);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.corewall.data.io;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -12,13 +13,23 @@ import org.corewall.data.Model;
 import au.com.bytecode.opencsv.CSVWriter;
 
 /**
- * Writes models to character-separated value (CSV) files.
+ * Writes models to character-separated value (CSV) files. Models can be written
+ * as a list with {@link #write(List)} or streamed with {@link #append(Model)}
+ * and {@link #close()}; each row is written from a single reused
+ * {@link RowBuffer} through a large output buffer.
  * 
  * @author Josh Reed (jareed@andrill.org)
  */
-public class CSVModelWriter implements ModelWriter {
-	protected final CSVWriter writer;
+public class CSVModelWriter implements StreamingModelWriter {
+	private static final int BUFFER = 64 * 1024;
+
+	private static Writer buffer(final Writer writer) {
+		return (writer instanceof BufferedWriter) ? writer : new BufferedWriter(writer, BUFFER);
+	}
+
 	protected final Map<String, String> headers;
+	protected RowBuffer row = null;
+	protected final CSVWriter writer;
 
 	/**
 	 * Creates a new CSVModelWriter from the specified {@link CSVWriter} and
@@ -48,7 +59,7 @@ public class CSVModelWriter implements ModelWriter {
 	 *            the separator.
 	 */
 	public CSVModelWriter(final OutputStream out, final char separator) {
-		this(new CSVWriter(new OutputStreamWriter(out), separator), null);
+		this(new CSVWriter(buffer(new OutputStreamWriter(out)), separator), null);
 	}
 
 	/**
@@ -63,7 +74,7 @@ public class CSVModelWriter implements ModelWriter {
 	 *            the headers.
 	 */
 	public CSVModelWriter(final OutputStream out, final char separator, final Map<String, String> headers) {
-		this(new CSVWriter(new OutputStreamWriter(out), separator), headers);
+		this(new CSVWriter(buffer(new OutputStreamWriter(out)), separator), headers);
 	}
 
 	/**
@@ -76,7 +87,7 @@ public class CSVModelWriter implements ModelWriter {
 	 *            the separator.
 	 */
 	public CSVModelWriter(final Writer writer, final char separator) {
-		this(new CSVWriter(writer, separator), null);
+		this(new CSVWriter(buffer(writer), separator), null);
 	}
 
 	/**
@@ -91,39 +102,55 @@ public class CSVModelWriter implements ModelWriter {
 	 *            the headers.
 	 */
 	public CSVModelWriter(final Writer writer, final char separator, final Map<String, String> headers) {
-		this(new CSVWriter(writer, separator), headers);
+		this(new CSVWriter(buffer(writer), separator), headers);
 	}
 
-	public void write(final List<? extends Model> models) throws IOException {
-		if (models.size() == 0) {
-			return;
+	public void append(final List<? extends Model> models) throws IOException {
+		for (Model m : models) {
+			append(m);
 		}
+	}
 
-		// get our keys
-		String[] keys;
-		if (headers == null) {
-			keys = models.get(0).toMap().keySet().toArray(null);
-		} else {
-			keys = headers.keySet().toArray(new String[0]);
+	public void append(final Model model) throws IOException {
+		if (row == null) {
+			open((headers == null) ? model.toMap().keySet().toArray(new String[0]) : null);
 		}
+		writer.writeNext(row.read(model));
+	}
+
+	public void close() throws IOException {
+		writer.close();
+	}
+
+	public void flush() throws IOException {
+		writer.flush();
+	}
 
-		// write our header if necessary
-		String[] row = new String[keys.length];
+	/**
+	 * {@inheritDoc} If this writer has a header map, its keys are used and the
+	 * specified keys may be null.
+	 */
+	public void open(final String[] keys) throws IOException {
+		if (row != null) {
+			throw new IllegalStateException("Writer is already open");
+		}
 		if (headers != null) {
-			for (int i = 0; i < keys.length; i++) {
-				row[i] = headers.get(keys[i]);
+			row = new RowBuffer(headers.keySet().toArray(new String[0]));
+			String[] labels = row.getKeys();
+			for (int i = 0; i < labels.length; i++) {
+				labels[i] = headers.get(labels[i]);
 			}
-			writer.writeNext(row);
+			writer.writeNext(labels);
+		} else {
+			row = new RowBuffer(keys);
 		}
+	}
 
-		// write our models
-		for (Model m : models) {
-			Map<String, String> map = m.toMap();
-			for (int i = 0; i < keys.length; i++) {
-				row[i] = map.get(keys[i]);
-			}
-			writer.writeNext(row);
+	public void write(final List<? extends Model> models) throws IOException {
+		if (models.size() == 0) {
+			return;
 		}
-		writer.close();
+		append(models);
+		close();
 	}
 }
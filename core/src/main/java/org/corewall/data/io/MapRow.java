@@ -0,0 +1,53 @@
+package org.corewall.data.io;
+
+import java.util.Map;
+
+import org.corewall.data.Row;
+import org.corewall.data.RowModel;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link Row} that puts every property into a map, so a {@link RowModel} can
+ * implement {@link RowModel#toMap()} with {@link RowModel#write(Row)} and the
+ * two always agree.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public final class MapRow implements Row {
+
+	/**
+	 * Writes a model into a new map.
+	 * 
+	 * @param model
+	 *            the model.
+	 * @param expectedSize
+	 *            the number of properties the model writes.
+	 * @return the map.
+	 */
+	public static Map<String, String> toMap(final RowModel model, final int expectedSize) {
+		MapRow row = new MapRow(Maps.<String, String> newHashMapWithExpectedSize(expectedSize));
+		model.write(row);
+		return row.map;
+	}
+
+	private final Map<String, String> map;
+
+	/**
+	 * Create a new MapRow.
+	 * 
+	 * @param map
+	 *            the map to put the properties into.
+	 */
+	public MapRow(final Map<String, String> map) {
+		this.map = map;
+	}
+
+	public Map<String, String> getMap() {
+		return map;
+	}
+
+	public void put(final String key, final String value) {
+		map.put(key, value);
+	}
+}
@@ -0,0 +1,98 @@
+package org.corewall.data.io;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.corewall.data.Model;
+import org.corewall.data.Row;
+import org.corewall.data.RowModel;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A reusable {@link Row} with a fixed set of columns. Each model is written
+ * into the same array, which stays valid until the next model is read.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public final class RowBuffer implements Row {
+	private final Map<String, Integer> columns;
+	private final String[] keys;
+	private final String[] values;
+
+	/**
+	 * Create a new RowBuffer.
+	 * 
+	 * @param keys
+	 *            the keys of the columns.
+	 */
+	public RowBuffer(final String[] keys) {
+		this.keys = keys.clone();
+		values = new String[keys.length];
+		columns = Maps.newHashMapWithExpectedSize(keys.length);
+		for (int i = keys.length - 1; i >= 0; i--) {
+			columns.put(keys[i], i);
+		}
+	}
+
+	/**
+	 * Clears all columns.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+	}
+
+	/**
+	 * Gets the keys of the columns.
+	 * 
+	 * @return a copy of the keys.
+	 */
+	public String[] getKeys() {
+		return keys.clone();
+	}
+
+	/**
+	 * Gets the values of the columns. The array is reused for every row.
+	 * 
+	 * @return the values.
+	 */
+	public String[] getValues() {
+		return values;
+	}
+
+	public void put(final String key, final String value) {
+		Integer column = columns.get(key);
+		if (column != null) {
+			values[column] = value;
+		}
+	}
+
+	/**
+	 * Clears this row and fills it from the specified model. A
+	 * {@link RowModel} writes straight into the row; any other model is read
+	 * through its map.
+	 * 
+	 * @param model
+	 *            the model.
+	 * @return the values.
+	 */
+	public String[] read(final Model model) {
+		clear();
+		if (model instanceof RowModel) {
+			((RowModel) model).write(this);
+		} else {
+			Map<String, String> map = model.toMap();
+			if (map.size() > keys.length) {
+				for (int i = 0; i < keys.length; i++) {
+					values[i] = map.get(keys[i]);
+				}
+			} else {
+				for (Entry<String, String> e : map.entrySet()) {
+					put(e.getKey(), e.getValue());
+				}
+			}
+		}
+		return values;
+	}
+}
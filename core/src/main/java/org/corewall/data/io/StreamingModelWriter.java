@@ -0,0 +1,49 @@
+package org.corewall.data.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.List;
+
+import org.corewall.data.Model;
+
+/**
+ * A {@link ModelWriter} that writes models as they are appended rather than
+ * from a complete list, so any number of models can be written in constant
+ * memory.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public interface StreamingModelWriter extends ModelWriter, Closeable, Flushable {
+
+	/**
+	 * Appends a batch of models.
+	 * 
+	 * @param models
+	 *            the models.
+	 * @throws IOException
+	 *             thrown if there is any problem writing the models.
+	 */
+	void append(List<? extends Model> models) throws IOException;
+
+	/**
+	 * Appends a model.
+	 * 
+	 * @param model
+	 *            the model.
+	 * @throws IOException
+	 *             thrown if there is any problem writing the model.
+	 */
+	void append(Model model) throws IOException;
+
+	/**
+	 * Opens this writer with the specified keys. If this is not called, the
+	 * keys are taken from the first model appended.
+	 * 
+	 * @param keys
+	 *            the model keys to write, in order.
+	 * @throws IOException
+	 *             thrown if there is any problem writing the header.
+	 */
+	void open(String[] keys) throws IOException;
+}
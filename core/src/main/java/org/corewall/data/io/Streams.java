@@ -0,0 +1,235 @@
+package org.corewall.data.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Opens data files for reading. Files compressed with gzip, detected by a
+ * '.gz' extension or by their magic bytes, are decompressed on a pooled
+ * daemon thread while the caller parses the decompressed bytes.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public final class Streams {
+	/**
+	 * Decompresses a gzip stream into a small queue of large chunks. The
+	 * decompressing thread only holds a weak reference to the stream being
+	 * read, so it stops and releases its chunks once the stream is closed or
+	 * abandoned by its reader.
+	 */
+	private static class Gunzip implements Runnable {
+		private volatile boolean closed = false;
+		private volatile IOException error = null;
+		private final InputStream in;
+		private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(CHUNKS);
+		private WeakReference<GunzipStream> reader;
+
+		Gunzip(final InputStream in) {
+			this.in = in;
+		}
+
+		void close() {
+			closed = true;
+			queue.clear();
+		}
+
+		private boolean offer(final byte[] bytes) throws InterruptedException {
+			while (!closed && (reader.get() != null)) {
+				if (queue.offer(bytes, 100, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public void run() {
+			InputStream gzip = null;
+			try {
+				gzip = new GZIPInputStream(in, BUFFER);
+				boolean more = true;
+				while (more && !closed) {
+					byte[] bytes = new byte[CHUNK];
+					int length = 0;
+					int read;
+					while ((length < CHUNK) && ((read = gzip.read(bytes, length, CHUNK - length)) > 0)) {
+						length += read;
+					}
+					more = (length == CHUNK);
+					if (length > 0) {
+						byte[] full = bytes;
+						if (length < CHUNK) {
+							full = new byte[length];
+							System.arraycopy(bytes, 0, full, 0, length);
+						}
+						more &= offer(full);
+					}
+				}
+			} catch (IOException e) {
+				error = e;
+			} catch (InterruptedException e) {
+				error = new InterruptedIOException("Interrupted while decompressing");
+			} finally {
+				Closeables.closeQuietly(gzip);
+				Closeables.closeQuietly(in);
+				try {
+					if (!offer(EOF)) {
+						queue.clear();
+					}
+				} catch (InterruptedException e) {
+					// the reader has gone away
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the chunks decompressed by a {@link Gunzip} on its own thread so
+	 * decompression and parsing overlap.
+	 */
+	private static class GunzipStream extends InputStream {
+		private byte[] chunk = null;
+		private boolean closed = false;
+		private int position = 0;
+		private final Gunzip source;
+
+		GunzipStream(final Gunzip source) {
+			this.source = source;
+			source.reader = new WeakReference<GunzipStream>(this);
+		}
+
+		@Override
+		public int available() throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			return (chunk == null) ? 0 : chunk.length - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			chunk = null;
+			source.close();
+		}
+
+		private boolean next() throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			if ((chunk != null) && (position < chunk.length)) {
+				return true;
+			}
+			if (chunk == EOF) {
+				return false;
+			}
+			try {
+				chunk = source.queue.take();
+				position = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while decompressing");
+			}
+			if (chunk == EOF) {
+				if (source.error != null) {
+					throw source.error;
+				}
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return next() ? (chunk[position++] & 0xff) : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!next()) {
+				return -1;
+			}
+			int count = Math.min(len, chunk.length - position);
+			System.arraycopy(chunk, position, b, off, count);
+			position += count;
+			return count;
+		}
+	}
+
+	private static final int BUFFER = 256 * 1024;
+	private static final int CHUNK = 256 * 1024;
+	private static final int CHUNKS = 4;
+	private static final byte[] EOF = new byte[0];
+	private static ExecutorService executor = null;
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			// every open stream needs its own decompressor, so threads are
+			// added as needed and reclaimed when idle
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(), new ThreadFactoryBuilder().setNameFormat("corewall-gunzip-%d")
+							.build());
+			executor = MoreExecutors.getExitingExecutorService(pool, 1, TimeUnit.SECONDS);
+		}
+		return executor;
+	}
+
+	/**
+	 * Checks whether the specified URL names a gzip file.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @return true if the path ends with '.gz'.
+	 */
+	public static boolean isCompressed(final URL url) {
+		return url.getPath().toLowerCase().endsWith(".gz");
+	}
+
+	/**
+	 * Opens the specified URL, decompressing it if it is a gzip file.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @return the input stream.
+	 * @throws IOException
+	 *             thrown if there is a problem opening the URL.
+	 */
+	public static InputStream open(final URL url) throws IOException {
+		InputStream in = new BufferedInputStream(url.openStream(), BUFFER);
+		boolean compressed = isCompressed(url);
+		if (!compressed) {
+			in.mark(2);
+			compressed = (in.read() == 0x1f) && (in.read() == 0x8b);
+			in.reset();
+		}
+		if (!compressed) {
+			return in;
+		}
+
+		Gunzip gunzip = new Gunzip(in);
+		GunzipStream stream = new GunzipStream(gunzip);
+		getExecutor().execute(gunzip);
+		return stream;
+	}
+
+	private Streams() {
+		// not to be instantiated
+	}
+}
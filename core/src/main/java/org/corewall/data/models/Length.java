@@ -10,7 +10,12 @@ import java.text.DecimalFormat;
  * @author Josh Reed (jareed@andrill.org)
  */
 public class Length implements Comparable<Length> {
-	private static final DecimalFormat NUM = new DecimalFormat("0.####");
+	private static final ThreadLocal<DecimalFormat> NUM = new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("0.####");
+		}
+	};
 
 	/**
 	 * Create a new Length from the specified BigDecimal and unit.
@@ -270,6 +275,6 @@ public class Length implements Comparable<Length> {
 
 	@Override
 	public String toString() {
-		return NUM.format(value) + " " + unit;
+		return NUM.get().format(value) + " " + unit;
 	}
 }
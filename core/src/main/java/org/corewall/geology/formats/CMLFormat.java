@@ -1,6 +1,7 @@
 package org.corewall.geology.formats;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.util.List;
@@ -12,6 +13,7 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.corewall.data.formats.AbstractFormat;
+import org.corewall.data.io.Streams;
 import org.corewall.geology.models.Image;
 import org.corewall.scene.Orientation;
 import org.slf4j.Logger;
@@ -20,6 +22,7 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import com.google.common.io.Closeables;
 import com.google.inject.internal.Lists;
 import com.google.inject.internal.Maps;
 import com.google.inject.internal.Sets;
@@ -108,10 +111,11 @@ public class CMLFormat extends AbstractFormat<Image> {
 	public List<Map<String, String>> getRaw(final URL url) throws IOException {
 		List<Map<String, String>> models = Lists.newArrayList();
 		CMLHandler handler = new CMLHandler();
+		InputStream in = null;
 		try {
 			SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
-			handler = new CMLHandler();
-			parser.parse(url.openStream(), handler);
+			in = Streams.open(url);
+			parser.parse(in, handler);
 			models.addAll(handler.models);
 		} catch (ParserConfigurationException e) {
 			LOGGER.error("No SAX parser", e);
@@ -121,6 +125,8 @@ public class CMLFormat extends AbstractFormat<Image> {
 		} catch (IOException e) {
 			LOGGER.error("I/O error", e);
 			throw new RuntimeException("I/O error", e);
+		} finally {
+			Closeables.closeQuietly(in);
 		}
 		return models;
 	}
@@ -1,11 +1,17 @@
 package org.corewall.geology.formats;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.text.DecimalFormat;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.corewall.data.io.Streams;
 import org.corewall.geology.models.XYDataSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +19,7 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import com.google.common.io.Closeables;
 import com.google.inject.internal.Lists;
 import com.google.inject.internal.Maps;
 
@@ -22,6 +29,69 @@ import com.google.inject.internal.Maps;
  * @author Josh Reed (jareed@andrill.org)
  */
 public class XMLDataFormat {
+	/**
+	 * A SAX handler that streams Corelyzer's data format directly into one
+	 * {@link XYDataSet} per field. Readings are parsed straight to doubles and
+	 * added to the dataset for their field id without building any
+	 * intermediate maps. The x value of each reading is the section offset
+	 * plus the reading depth.
+	 */
+	public static class XMLDataSetHandler extends DefaultHandler {
+		protected final StringBuilder buffer = new StringBuilder();
+		protected final Map<String, XYDataSet> datasets = Maps.newLinkedHashMap();
+		protected double depth = 0.0;
+		protected final Map<String, String> names = Maps.newHashMap();
+		protected double offset = 0.0;
+		protected XYDataSet sensor = null;
+
+		@Override
+		public void characters(final char[] ch, final int start, final int length) throws SAXException {
+			buffer.append(ch, start, length);
+		}
+
+		@Override
+		public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+			if ("depth".equals(qName)) {
+				depth = parseDouble(buffer.toString(), 0);
+			} else if ("sensor".equals(qName)) {
+				if (sensor != null) {
+					sensor.add(offset + depth, parseDouble(buffer.toString(), -1));
+				}
+			} else if ("offset".equals(qName)) {
+				offset = parseDouble(buffer.toString(), 0);
+			}
+		}
+
+		/**
+		 * Gets the parsed datasets keyed by field id.
+		 * 
+		 * @return the datasets.
+		 */
+		public Map<String, XYDataSet> getDataSets() {
+			return datasets;
+		}
+
+		@Override
+		public void startElement(final String uri, final String localName, final String qName,
+				final Attributes attributes) throws SAXException {
+			buffer.setLength(0);
+			if ("section".equals(qName)) {
+				offset = parseDouble(attributes.getValue("offset"), 0);
+				depth = 0.0;
+			} else if ("field".equals(qName)) {
+				names.put(attributes.getValue("localid"), attributes.getValue("name"));
+			} else if ("sensor".equals(qName)) {
+				String id = attributes.getValue("id");
+				sensor = datasets.get(id);
+				if (sensor == null) {
+					String name = names.get(id);
+					sensor = new XYDataSet(name == null ? id : name);
+					datasets.put(id, sensor);
+				}
+			}
+		}
+	}
+
 	/**
 	 * A SAX handler for Corelyzer's data format.
 	 */
@@ -51,13 +121,13 @@ public class XMLDataFormat {
 				Map<String, String> model = Maps.newHashMap();
 				models.add(model);
 				model.put("type", "sensor");
-				model.put("offset", NUM.format(offset));
-				model.put("depth", NUM.format(depth));
+				model.put("offset", NUM.get().format(offset));
+				model.put("depth", NUM.get().format(depth));
 				model.put("field_id", sensor);
 				String[] field = fields.get(sensor);
 				model.put("field_name", field[0]);
 				model.put("field_unit", field[1]);
-				model.put("value", NUM.format(parseDouble(buffer.toString(), -1)));
+				model.put("value", NUM.get().format(parseDouble(buffer.toString(), -1)));
 			} else if ("offset".equals(qName)) {
 				offset = parseDouble(buffer.toString(), 0);
 			} else if ("top".equals(qName)) {
@@ -73,7 +143,7 @@ public class XMLDataFormat {
 				section = Maps.newHashMap();
 				models.add(section);
 				offset = parseDouble(attributes.getValue("offset"), 0);
-				section.put("offset", NUM.format(offset));
+				section.put("offset", NUM.get().format(offset));
 				section.put("type", "section");
 			} else if ("field".equals(qName)) {
 				String id = attributes.getValue("localid");
@@ -88,7 +158,12 @@ public class XMLDataFormat {
 	}
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(XMLDataFormat.class);
-	private static final DecimalFormat NUM = new DecimalFormat("0.####");
+	private static final ThreadLocal<DecimalFormat> NUM = new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("0.####");
+		}
+	};
 
 	protected static double parseDouble(final String str, final double defaultValue) {
 		if ((str == null) || "".equals(str.trim())) {
@@ -104,21 +179,76 @@ public class XMLDataFormat {
 
 	protected final String id;
 
+	/**
+	 * Create a new XMLDataFormat.
+	 * 
+	 * @param id
+	 *            the format id.
+	 */
 	public XMLDataFormat(final String id) {
 		this.id = id;
 	}
 
+	/**
+	 * Gets the datasets keyed by field id.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @return the datasets in the order their fields were first read.
+	 * @throws IOException
+	 *             thrown if there is a problem reading the URL.
+	 */
+	public Map<String, XYDataSet> getDataSets(final URL url) throws IOException {
+		XMLDataSetHandler handler = new XMLDataSetHandler();
+		parse(url, handler);
+		return handler.getDataSets();
+	}
+
 	public String getId() {
 		return id;
 	}
 
+	/**
+	 * Gets one dataset per field.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @return the list of datasets.
+	 * @throws IOException
+	 *             thrown if there is a problem reading the URL.
+	 */
 	public List<XYDataSet> getModels(final URL url) throws IOException {
-		// TODO: implement
-		return null;
+		return Lists.newArrayList(getDataSets(url).values());
 	}
 
+	/**
+	 * Gets the section and sensor maps.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @return the list of maps.
+	 * @throws IOException
+	 *             thrown if there is a problem reading the URL.
+	 */
 	public List<Map<String, String>> getRaw(final URL url) throws IOException {
-		// TODO: implement
-		return null;
+		XMLDataHandler handler = new XMLDataHandler();
+		parse(url, handler);
+		return handler.models;
+	}
+
+	protected void parse(final URL url, final DefaultHandler handler) throws IOException {
+		InputStream in = null;
+		try {
+			in = Streams.open(url);
+			SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+			parser.parse(in, handler);
+		} catch (ParserConfigurationException e) {
+			LOGGER.error("No SAX parser", e);
+			throw new RuntimeException("No SAX parser", e);
+		} catch (SAXException e) {
+			throw new IOException("Unable to parse XML", e);
+		} finally {
+			Closeables.closeQuietly(in);
+		}
 	}
 }
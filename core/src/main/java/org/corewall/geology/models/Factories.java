@@ -1,19 +1,27 @@
 package org.corewall.geology.models;
 
 import java.util.Map;
+import java.util.Set;
 
 import org.corewall.data.AbstractFactory;
+import org.corewall.data.Cells;
 import org.corewall.data.Factory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableSet;
+
 /**
  * Pre-defined factories for creating models.
  * 
  * @author Josh Reed (jareed@andrill.org)
  */
 public final class Factories {
+	private static final Set<String> DATUM_KEYS = ImmutableSet.of("x", "y");
+	private static final String[] DATUM_SLOTS = { "x", "y" };
 	private static final Logger LOGGER = LoggerFactory.getLogger(Factories.class);
+	private static final int X = 0;
+	private static final int Y = 1;
 
 	/**
 	 * Returns a {@link Factory} that creates {@link XYDatum}s from model maps.
@@ -40,6 +48,31 @@ public final class Factories {
 	 */
 	public static Factory<XYDatum> datum(final Map<String, String> rewrite, final Map<String, String> defaults) {
 		return new AbstractFactory<XYDatum>(rewrite, defaults) {
+			@Override
+			public XYDatum build(final Binding binding, final String[] values, final Cells cells) {
+				try {
+					return new XYDatum(binding.getDouble(X, values, cells), binding.getDouble(Y, values, cells));
+				} catch (RuntimeException e) {
+					LOGGER.warn("Invalid datum", e);
+					return null;
+				}
+			}
+
+			@Override
+			public Set<String> getKeys() {
+				return DATUM_KEYS;
+			}
+
+			@Override
+			public Set<String> getNumericKeys() {
+				return DATUM_KEYS;
+			}
+
+			@Override
+			protected String[] getSlots() {
+				return DATUM_SLOTS;
+			}
+
 			@Override
 			protected XYDatum internalBuild(final Map<String, String> map) {
 				try {
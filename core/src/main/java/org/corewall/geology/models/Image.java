@@ -1,32 +1,34 @@
 package org.corewall.geology.models;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.text.DecimalFormat;
 import java.util.Map;
+import java.util.Set;
 
 import org.corewall.Locator;
 import org.corewall.Platform;
 import org.corewall.data.AbstractFactory;
 import org.corewall.data.Factory;
-import org.corewall.data.Model;
+import org.corewall.data.Row;
+import org.corewall.data.RowModel;
+import org.corewall.data.io.MapRow;
 import org.corewall.data.models.Length;
 import org.corewall.data.models.Unit;
-import org.corewall.graphics.internal.ImageInfo;
+import org.corewall.graphics.internal.ImageCache;
+import org.corewall.graphics.internal.ImageMetadataIndex;
 import org.corewall.scene.Orientation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.common.io.Closeables;
 
 /**
  * Models an image.
  * 
  * @author Josh Reed (jareed@andrill.org)
  */
-public class Image implements Model {
+public class Image implements RowModel {
 	/**
 	 * A helper class for building {@link Image}s.
 	 */
@@ -48,7 +50,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder base(final double value) {
-			map.put(BASE_KEY, NUM.format(value));
+			map.put(BASE_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -93,7 +95,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder dpcm(final double value) {
-			map.put(DPCM_KEY, NUM.format(value));
+			map.put(DPCM_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -117,7 +119,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder dpcmX(final double value) {
-			map.put(DPCM_X_KEY, NUM.format(value));
+			map.put(DPCM_X_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -141,7 +143,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder dpcmY(final double value) {
-			map.put(DPCM_Y_KEY, NUM.format(value));
+			map.put(DPCM_Y_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -165,7 +167,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder dpi(final double value) {
-			map.put(DPI_KEY, NUM.format(value));
+			map.put(DPI_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -189,7 +191,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder dpiX(final double value) {
-			map.put(DPI_X_KEY, NUM.format(value));
+			map.put(DPI_X_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -213,7 +215,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder dpiY(final double value) {
-			map.put(DPI_Y_KEY, NUM.format(value));
+			map.put(DPI_Y_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -237,7 +239,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder height(final int value) {
-			map.put(HEIGHT_KEY, NUM.format(value));
+			map.put(HEIGHT_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -261,7 +263,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder length(final double value) {
-			map.put(LENGTH_KEY, NUM.format(value));
+			map.put(LENGTH_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -345,7 +347,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder top(final double value) {
-			map.put(TOP_KEY, NUM.format(value));
+			map.put(TOP_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -393,7 +395,7 @@ public class Image implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder width(final int value) {
-			map.put(WIDTH_KEY, NUM.format(value));
+			map.put(WIDTH_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -421,12 +423,19 @@ public class Image implements Model {
 	protected static final String HEIGHT_KEY = "height";
 	protected static final String LENGTH_KEY = "length";
 	private static final Logger LOGGER = LoggerFactory.getLogger(Image.class);
-	private static final DecimalFormat NUM = new DecimalFormat("0.####");
+	private static final ThreadLocal<DecimalFormat> NUM = new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("0.####");
+		}
+	};
 	protected static final String ORIENTATION_KEY = "orientation";
 	protected static final String PATH_KEY = "path";
 	protected static final String TOP_KEY = "top";
 	protected static final String TYPE_KEY = "type";
 	protected static final String WIDTH_KEY = "width";
+	private static final Set<String> KEYS = ImmutableSet.of(PATH_KEY, TYPE_KEY, ORIENTATION_KEY, TOP_KEY, BASE_KEY,
+			LENGTH_KEY, WIDTH_KEY, HEIGHT_KEY, DPI_X_KEY, DPI_Y_KEY, DPI_KEY, DPCM_X_KEY, DPCM_Y_KEY, DPCM_KEY);
 
 	/**
 	 * Creates a new Image builder.
@@ -461,6 +470,11 @@ public class Image implements Model {
 	 */
 	public static Factory<Image> factory(final Map<String, String> rewrite, final Map<String, String> defaults) {
 		return new AbstractFactory<Image>(rewrite, defaults) {
+			@Override
+			public Set<String> getKeys() {
+				return KEYS;
+			}
+
 			@Override
 			protected Image internalBuild(final Map<String, String> map) {
 				return new Image(map);
@@ -772,27 +786,24 @@ public class Image implements Model {
 		return result;
 	}
 
-	protected void parseImageInfo() {
+	protected synchronized void parseImageInfo() {
 		if (parsed) {
 			return;
 		}
 		parsed = true;
 
-		// determine our width and height
-		ImageInfo ii = new ImageInfo();
-		InputStream in = null;
-		try {
-			in = path.openStream();
-			ii.setInput(in);
-			if (ii.check()) {
-				if (width == -1) {
-					width = ii.getWidth();
-				}
-				if (height == -1) {
-					height = ii.getHeight();
-				}
+		// determine our width and height from the metadata index
+		ImageMetadataIndex.Metadata metadata = Platform.getService(ImageCache.class).getMetadata(path);
+		if (metadata != null) {
+			if (width == -1) {
+				width = metadata.getWidth();
+			}
+			if (height == -1) {
+				height = metadata.getHeight();
+			}
 
-				// calculate DPI
+			// calculate DPI from the length or fall back to the header
+			if (length != null) {
 				int pixels = (orientation == Orientation.HORIZONTAL ? width : height);
 				double dpi = pixels / length.to(Unit.INCH).getValue().doubleValue();
 				if (preciseEquals(dpiX, -1)) {
@@ -801,26 +812,38 @@ public class Image implements Model {
 				if (preciseEquals(dpiY, -1)) {
 					dpiY = dpi;
 				}
+			} else {
+				if (preciseEquals(dpiX, -1) && (metadata.getDpiX() > 0)) {
+					dpiX = metadata.getDpiX();
+				}
+				if (preciseEquals(dpiY, -1) && (metadata.getDpiY() > 0)) {
+					dpiY = metadata.getDpiY();
+				}
 			}
+		}
 
-			// warn about invalid values
-			if (width == -1) {
-				LOGGER.warn("'width' was not specified and could not be parsed from the images, defaulting to -1");
-			}
-			if (height == -1) {
-				LOGGER.warn("'height' was not specified and could not be parsed from the images, defaulting to -1");
-			}
-			if (preciseEquals(dpiX, -1)) {
-				LOGGER.warn("'dpiX' was not specified and could not be parsed from the images, defaulting to -1");
-			}
-			if (preciseEquals(dpiY, -1)) {
-				LOGGER.warn("'dpiY' was not specified and could not be parsed from the images, defaulting to -1");
-			}
-		} catch (IOException e) {
-			LOGGER.error("Unable to parse image info for " + path.toExternalForm(), e);
-		} finally {
-			Closeables.closeQuietly(in);
+		// warn about invalid values
+		if (width == -1) {
+			LOGGER.warn("'width' was not specified and could not be parsed from the images, defaulting to -1");
+		}
+		if (height == -1) {
+			LOGGER.warn("'height' was not specified and could not be parsed from the images, defaulting to -1");
+		}
+		if (preciseEquals(dpiX, -1)) {
+			LOGGER.warn("'dpiX' was not specified and could not be parsed from the images, defaulting to -1");
 		}
+		if (preciseEquals(dpiY, -1)) {
+			LOGGER.warn("'dpiY' was not specified and could not be parsed from the images, defaulting to -1");
+		}
+	}
+
+	/**
+	 * Reads the width, height, and resolution of this image from the image
+	 * itself if they were not specified. This normally happens on first use;
+	 * calling it ahead of time moves the I/O off the rendering path.
+	 */
+	public void probe() {
+		parseImageInfo();
 	}
 
 	private boolean preciseEquals(final double a, final double b) {
@@ -833,22 +856,24 @@ public class Image implements Model {
 	 * @return the serialized model as a map.
 	 */
 	public Map<String, String> toMap() {
-		Map<String, String> map = Maps.newHashMapWithExpectedSize(10);
-		map.put(PATH_KEY, getPath().toExternalForm());
-		map.put(TYPE_KEY, (type == null ? "" : type));
-		map.put(ORIENTATION_KEY, getOrientation().name());
-		map.put(TOP_KEY, getTop().toString());
-		map.put(BASE_KEY, getBase().toString());
-		map.put(LENGTH_KEY, getLength().toString());
-		map.put(DPI_X_KEY, NUM.format(getDpiX()));
-		map.put(DPI_Y_KEY, NUM.format(getDpiY()));
-		map.put(WIDTH_KEY, NUM.format(getWidth()));
-		map.put(HEIGHT_KEY, NUM.format(getHeight()));
-		return map;
+		return MapRow.toMap(this, 10);
 	}
 
 	@Override
 	public String toString() {
 		return "Image " + toMap();
 	}
+
+	public void write(final Row row) {
+		row.put(PATH_KEY, getPath().toExternalForm());
+		row.put(TYPE_KEY, (type == null ? "" : type));
+		row.put(ORIENTATION_KEY, getOrientation().name());
+		row.put(TOP_KEY, getTop().toString());
+		row.put(BASE_KEY, getBase().toString());
+		row.put(LENGTH_KEY, getLength().toString());
+		row.put(DPI_X_KEY, NUM.get().format(getDpiX()));
+		row.put(DPI_Y_KEY, NUM.get().format(getDpiY()));
+		row.put(WIDTH_KEY, NUM.get().format(getWidth()));
+		row.put(HEIGHT_KEY, NUM.get().format(getHeight()));
+	}
 }
@@ -2,13 +2,17 @@ package org.corewall.geology.models;
 
 import java.text.DecimalFormat;
 import java.util.Map;
+import java.util.Set;
 
 import org.corewall.data.AbstractFactory;
 import org.corewall.data.Factory;
-import org.corewall.data.Model;
+import org.corewall.data.Row;
+import org.corewall.data.RowModel;
+import org.corewall.data.io.MapRow;
 import org.corewall.data.models.Length;
 import org.corewall.data.models.Unit;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
 /**
@@ -16,7 +20,7 @@ import com.google.common.collect.Maps;
  * 
  * @author Josh Reed (jareed@andrill.org)
  */
-public class Section implements Model {
+public class Section implements RowModel {
 	/**
 	 * A helper class for building {@link Image}s.
 	 */
@@ -38,7 +42,7 @@ public class Section implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder base(final double value) {
-			map.put(BASE_KEY, NUM.format(value));
+			map.put(BASE_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -83,7 +87,7 @@ public class Section implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder length(final double value) {
-			map.put(LENGTH_KEY, NUM.format(value));
+			map.put(LENGTH_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -131,7 +135,7 @@ public class Section implements Model {
 		 * @return the builder as a convenience.
 		 */
 		public Builder top(final double value) {
-			map.put(TOP_KEY, NUM.format(value));
+			map.put(TOP_KEY, NUM.get().format(value));
 			return this;
 		}
 
@@ -164,8 +168,14 @@ public class Section implements Model {
 	protected static final String BASE_KEY = "base";
 	protected static final String LENGTH_KEY = "length";
 	protected static final String NAME_KEY = "name";
-	private static final DecimalFormat NUM = new DecimalFormat("0.####");
+	private static final ThreadLocal<DecimalFormat> NUM = new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("0.####");
+		}
+	};
 	protected static final String TOP_KEY = "top";
+	private static final Set<String> KEYS = ImmutableSet.of(NAME_KEY, TOP_KEY, BASE_KEY, LENGTH_KEY);
 
 	/**
 	 * Creates a new Section builder.
@@ -200,6 +210,11 @@ public class Section implements Model {
 	 */
 	public static Factory<Section> factory(final Map<String, String> rewrite, final Map<String, String> defaults) {
 		return new AbstractFactory<Section>(rewrite, defaults) {
+			@Override
+			public Set<String> getKeys() {
+				return KEYS;
+			}
+
 			@Override
 			protected Section internalBuild(final Map<String, String> map) {
 				return new Section(map);
@@ -339,15 +354,17 @@ public class Section implements Model {
 	}
 
 	public Map<String, String> toMap() {
-		Map<String, String> map = Maps.newHashMapWithExpectedSize(3);
-		map.put(NAME_KEY, getName());
-		map.put(TOP_KEY, getTop().toString());
-		map.put(BASE_KEY, getBase().toString());
-		return map;
+		return MapRow.toMap(this, 3);
 	}
 
 	@Override
 	public String toString() {
 		return "Section " + toMap();
 	}
+
+	public void write(final Row row) {
+		row.put(NAME_KEY, getName());
+		row.put(TOP_KEY, getTop().toString());
+		row.put(BASE_KEY, getBase().toString());
+	}
 }
@@ -3,19 +3,24 @@ package org.corewall.geology.models;
 import java.text.DecimalFormat;
 import java.util.Map;
 
-import org.corewall.data.Model;
+import org.corewall.data.Row;
+import org.corewall.data.RowModel;
+import org.corewall.data.io.MapRow;
 import org.corewall.data.models.Length;
 import org.corewall.data.models.Unit;
 
-import com.google.common.collect.Maps;
-
 /**
  * The Datum class holds the x and y values for a data point.
  * 
  * @author Josh Reed (jareed@andrill.org)
  */
-public class XYDatum implements Comparable<XYDatum>, Model {
-	private static final DecimalFormat NUM = new DecimalFormat("0.####");
+public class XYDatum implements Comparable<XYDatum>, RowModel {
+	private static final ThreadLocal<DecimalFormat> NUM = new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("0.####");
+		}
+	};
 
 	protected double x, y;
 
@@ -145,14 +150,16 @@ public class XYDatum implements Comparable<XYDatum>, Model {
 	}
 
 	public Map<String, String> toMap() {
-		Map<String, String> map = Maps.newHashMapWithExpectedSize(2);
-		map.put("x", NUM.format(x));
-		map.put("y", NUM.format(y));
-		return map;
+		return MapRow.toMap(this, 2);
 	}
 
 	@Override
 	public String toString() {
-		return "(" + NUM.format(x) + ", " + NUM.format(y) + ")";
+		return "(" + NUM.get().format(x) + ", " + NUM.get().format(y) + ")";
+	}
+
+	public void write(final Row row) {
+		row.put("x", NUM.get().format(x));
+		row.put("y", NUM.get().format(y));
 	}
 }
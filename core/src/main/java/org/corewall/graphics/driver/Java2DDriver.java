@@ -16,6 +16,7 @@ import java.awt.geom.Arc2D;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -54,6 +55,7 @@ public class Java2DDriver implements Driver {
 	protected static final float LINE_DASH[] = { 18, 9 };
 	protected static final float LINE_DASH_DOT[] = { 9, 3, 3, 3 };
 	protected static final float LINE_DOT[] = { 3, 3 };
+	private static final int MAX_PREFETCH = 8;
 
 	protected Graphics2D g2d = null;
 	protected final ImageCache imageCache;
@@ -67,6 +69,10 @@ public class Java2DDriver implements Driver {
 	protected JComponent interactive = null;
 	protected BufferedImage imageError = null;
 	protected BufferedImage imageLoading = null;
+	protected Rectangle2D lookahead = null;
+	protected long prefetched = 0;
+	protected int prefetches = 0;
+	protected Rectangle2D visible = null;
 
 	/**
 	 * Create a new Java2DDriver.
@@ -98,6 +104,9 @@ public class Java2DDriver implements Driver {
 		this.interactive = interactive;
 		locator = Platform.getService(Locator.class);
 		imageCache = Platform.getService(ImageCache.class);
+		if (interactive != null) {
+			imageCache.startPaint(interactive);
+		}
 	}
 
 	private List<Paint> createPaints(final Fill fill, final Shape shape) {
@@ -202,6 +211,23 @@ public class Java2DDriver implements Driver {
 		originalTransform = null;
 	}
 
+	/**
+	 * Gets the distance of a rectangle from the visible area.
+	 * 
+	 * @param r
+	 *            the rectangle.
+	 * @return the distance in pixels or 0 if the rectangle is visible.
+	 */
+	protected int distance(final Rectangle2D r) {
+		Rectangle2D clip = getVisible();
+		if (clip == null) {
+			return 0;
+		}
+		double dx = Math.max(clip.getMinX() - r.getMaxX(), r.getMinX() - clip.getMaxX());
+		double dy = Math.max(clip.getMinY() - r.getMaxY(), r.getMinY() - clip.getMaxY());
+		return (int) Math.max(0, Math.max(dx, dy));
+	}
+
 	private void draw(final Shape s) {
 		prepareDraw();
 		if (scaleStrokes) {
@@ -219,7 +245,8 @@ public class Java2DDriver implements Driver {
 
 	public void drawImage(final Point2D point, final Image image) {
 		prepareDraw();
-		Future<BufferedImage> future = imageCache.get(image.url, 0, image.isVertical, interactive);
+		Future<BufferedImage> future = imageCache.get(image.url, 0, null, image.isVertical, interactive,
+				distance(new Rectangle2D.Double(point.getX(), point.getY(), ANCHOR.getWidth(), ANCHOR.getHeight())));
 		if ((interactive == null) || future.isDone()) {
 			try {
 				BufferedImage bi = future.get();
@@ -236,13 +263,22 @@ public class Java2DDriver implements Driver {
 				drawImageError(new Rectangle2D.Double(point.getX(), point.getY(), ANCHOR.getWidth(), ANCHOR.getHeight()), image.url);
 			}
 		} else {
-			drawImageLoading(new Rectangle2D.Double(point.getX(), point.getY(), ANCHOR.getWidth(), ANCHOR.getHeight()), image.url);
+			drawImageLoading(new Rectangle2D.Double(point.getX(), point.getY(), ANCHOR.getWidth(), ANCHOR.getHeight()), image.url,
+					image.isVertical);
 		}
 	}
 
 	public void drawImage(final Rectangle2D rect, final Image image) {
 		prepareDraw();
-		Future<BufferedImage> future = imageCache.get(image.url, new Dimension((int) rect.getWidth(), (int) rect.getHeight()), image.isVertical, interactive);
+		if ((interactive != null) && (visible != null) && !rect.intersects(getVisible())) {
+			prefetchImage(rect, image);
+			return;
+		}
+		if ((interactive != null) && drawImageBlocks(rect, image)) {
+			return;
+		}
+		int level = imageCache.getLevel(image.url, new Dimension((int) rect.getWidth(), (int) rect.getHeight()));
+		Future<BufferedImage> future = imageCache.get(image.url, level, null, image.isVertical, interactive, distance(rect));
 		if ((interactive == null) || future.isDone()) {
 			try {
 				BufferedImage bi = future.get();
@@ -259,10 +295,91 @@ public class Java2DDriver implements Driver {
 				drawImageError(rect, image.url);
 			}
 		} else {
-			drawImageLoading(rect, image.url);
+			drawImageLoading(rect, image.url, image.isVertical);
 		}
 	}
 
+	/**
+	 * Draws only the blocks of an image that are visible in the clip, so a
+	 * long image that is mostly off screen is not decoded in full.
+	 * 
+	 * @param rect
+	 *            the image rectangle.
+	 * @param image
+	 *            the image.
+	 * @return true if the image was drawn, false if most of it is visible.
+	 */
+	protected boolean drawImageBlocks(final Rectangle2D rect, final Image image) {
+		Rectangle2D clip = getVisible();
+		if ((clip == null) || (rect.getWidth() <= 0) || (rect.getHeight() <= 0)) {
+			return false;
+		}
+		Rectangle2D visible = rect.createIntersection(clip);
+		if (visible.isEmpty() || (visible.getWidth() * visible.getHeight() * 2 > rect.getWidth() * rect.getHeight())) {
+			return false;
+		}
+
+		// map the visible part into source pixels; horizontal images are
+		// rotated right so the top of the source is on the right
+		Dimension size = imageCache.getDimensions(image.url);
+		double fx0 = (visible.getMinX() - rect.getMinX()) / rect.getWidth();
+		double fx1 = (visible.getMaxX() - rect.getMinX()) / rect.getWidth();
+		double fy0 = (visible.getMinY() - rect.getMinY()) / rect.getHeight();
+		double fy1 = (visible.getMaxY() - rect.getMinY()) / rect.getHeight();
+		Rectangle region;
+		if (image.isVertical) {
+			region = toPixels(size, fx0, fy0, fx1, fy1);
+		} else {
+			region = toPixels(size, fy0, 1 - fx1, fy1, 1 - fx0);
+		}
+
+		int level = imageCache.getLevel(image.url, new Dimension((int) rect.getWidth(), (int) rect.getHeight()));
+		for (Rectangle block : imageCache.getBlocks(image.url, level, region)) {
+			double bx0 = block.getMinX() / size.width;
+			double bx1 = block.getMaxX() / size.width;
+			double by0 = block.getMinY() / size.height;
+			double by1 = block.getMaxY() / size.height;
+			Rectangle2D target;
+			if (image.isVertical) {
+				target = new Rectangle2D.Double(rect.getMinX() + bx0 * rect.getWidth(), rect.getMinY() + by0
+						* rect.getHeight(), (bx1 - bx0) * rect.getWidth(), (by1 - by0) * rect.getHeight());
+			} else {
+				target = new Rectangle2D.Double(rect.getMaxX() - by1 * rect.getWidth(), rect.getMinY() + bx0
+						* rect.getHeight(), (by1 - by0) * rect.getWidth(), (bx1 - bx0) * rect.getHeight());
+			}
+
+			Future<BufferedImage> future = imageCache.get(image.url, level, block, image.isVertical, interactive,
+					distance(target));
+			BufferedImage bi = null;
+			if (future.isDone()) {
+				try {
+					bi = future.get();
+				} catch (InterruptedException e) {
+					LOGGER.error("drawImage() error", e);
+				} catch (ExecutionException e) {
+					LOGGER.error("drawImage() error", e);
+				}
+			}
+			if (bi != null) {
+				int x = (int) Math.floor(target.getMinX());
+				int y = (int) Math.floor(target.getMinY());
+				g2d.drawImage(bi, x, y, (int) Math.ceil(target.getMaxX()) - x, (int) Math.ceil(target.getMaxY()) - y,
+						null);
+			} else {
+				// draw the placeholder for the whole image clipped to the block
+				Shape saved = g2d.getClip();
+				g2d.clip(target);
+				if (future.isDone()) {
+					drawImageError(target, image.url);
+				} else {
+					drawImageLoading(rect, image.url, image.isVertical);
+				}
+				g2d.setClip(saved);
+			}
+		}
+		return true;
+	}
+
 	protected void drawImageError(final Rectangle2D r, final URL orig) {
 		if (imageError == null) {
 			try {
@@ -277,9 +394,10 @@ public class Java2DDriver implements Driver {
 		}
 	}
 
-	protected void drawImageLoading(final Rectangle2D r, final URL url) {
+	protected void drawImageLoading(final Rectangle2D r, final URL url, final boolean isVertical) {
 		// try a placeholder image first
-		Future<BufferedImage> placeholder = imageCache.getClosest(url, new Dimension((int) r.getWidth(), (int) r.getHeight()));
+		Future<BufferedImage> placeholder = imageCache.getClosest(url, new Dimension((int) r.getWidth(), (int) r
+				.getHeight()), isVertical);
 		if (placeholder == null) {
 			internalDrawImageLoading(r);
 		} else {
@@ -402,6 +520,21 @@ public class Java2DDriver implements Driver {
 		return new AffineTransform(transforms.peek());
 	}
 
+	/**
+	 * Gets the visible area in the current user space. This is the whole
+	 * viewport if one was set, so a repaint of a small part of the component
+	 * does not lower the priority of the other visible images.
+	 * 
+	 * @return the visible area or null if unknown.
+	 */
+	protected Rectangle2D getVisible() {
+		if (visible == null) {
+			return g2d.getClipBounds();
+		}
+		Rectangle2D user = toUser(visible);
+		return (user == null) ? g2d.getClipBounds() : user;
+	}
+
 	protected void internalDrawImageLoading(final Rectangle2D r) {
 		if (imageLoading == null) {
 			try {
@@ -436,6 +569,32 @@ public class Java2DDriver implements Driver {
 		}
 	}
 
+	/**
+	 * Requests an image that is not visible but lies in the lookahead area, so
+	 * it is loaded before it scrolls into view. The number and estimated size
+	 * of the images prefetched in each paint are capped so prefetching cannot
+	 * push the visible images out of the memory cache.
+	 * 
+	 * @param rect
+	 *            the image rectangle.
+	 * @param image
+	 *            the image.
+	 */
+	protected void prefetchImage(final Rectangle2D rect, final Image image) {
+		Rectangle2D ahead = (lookahead == null) ? null : toUser(lookahead);
+		if ((ahead == null) || !rect.intersects(ahead) || (prefetches >= MAX_PREFETCH)) {
+			return;
+		}
+		int level = imageCache.getLevel(image.url, new Dimension((int) rect.getWidth(), (int) rect.getHeight()));
+		long bytes = imageCache.estimate(image.url, level);
+		if (prefetched + bytes > imageCache.getBudget() / 4) {
+			return;
+		}
+		prefetches++;
+		prefetched += bytes;
+		imageCache.get(image.url, level, null, image.isVertical, interactive, distance(rect));
+	}
+
 	private void prepareDraw() {
 		if (stroke == null) {
 			createStroke();
@@ -492,4 +651,42 @@ public class Java2DDriver implements Driver {
 		stateStack.peek().lineThickness = thickness;
 		stroke = null;
 	}
+
+	/**
+	 * Sets the viewport of the interactive component. Images outside of the
+	 * visible area are only requested if they fall in the lookahead area.
+	 * 
+	 * @param visible
+	 *            the visible area in device space.
+	 * @param lookahead
+	 *            the area to prefetch images in, in device space, or null.
+	 */
+	public void setViewport(final Rectangle2D visible, final Rectangle2D lookahead) {
+		this.visible = visible;
+		this.lookahead = lookahead;
+	}
+
+	private Rectangle toPixels(final Dimension size, final double x0, final double y0, final double x1,
+			final double y1) {
+		int left = (int) Math.floor(x0 * size.width);
+		int top = (int) Math.floor(y0 * size.height);
+		return new Rectangle(left, top, (int) Math.ceil(x1 * size.width) - left, (int) Math.ceil(y1 * size.height)
+				- top);
+	}
+
+	/**
+	 * Gets a device space rectangle in the current user space.
+	 * 
+	 * @param r
+	 *            the device space rectangle.
+	 * @return the user space bounds or null if the transform cannot be
+	 *         inverted.
+	 */
+	private Rectangle2D toUser(final Rectangle2D r) {
+		try {
+			return g2d.getTransform().createInverse().createTransformedShape(r).getBounds2D();
+		} catch (NoninvertibleTransformException e) {
+			return null;
+		}
+	}
 }
@@ -0,0 +1,579 @@
+package org.corewall.graphics.internal;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * A persistent cache of downloaded images. Each file is named by a hash of its
+ * URL and stored in a sub-directory named by the first two characters of the
+ * hash. An index file records the validator, length, tile pyramid size, and
+ * last access time of each file, so the cache does not list its directories
+ * on startup. A cached file is checked against its source once per session, by length and last
+ * modified time for local files and by ETag or length and Last-Modified for
+ * remote files, and is downloaded again if it has changed. Files are evicted
+ * least recently used first once the total size of the cache exceeds its
+ * capacity, along with any tile pyramid built next to them, which counts
+ * towards the size of the cache once it is reported with {@link #tiled(File)}.
+ * The index is saved in the background after each download, at most once a
+ * minute for access times, and when the JVM shuts down; changes made while a
+ * save is pending are written with it.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DownloadCache {
+	/**
+	 * A cached file.
+	 */
+	private static class Entry {
+		long accessed;
+		volatile boolean checked = false;
+		final long length;
+		long tiles = 0;
+		final String validator;
+
+		Entry(final String validator, final long length, final long accessed) {
+			this.validator = validator;
+			this.length = length;
+			this.accessed = accessed;
+		}
+
+		long size() {
+			return length + tiles;
+		}
+	}
+
+	/**
+	 * The default capacity in bytes.
+	 */
+	public static final long DEFAULT_CAPACITY = 1024L * 1024 * 1024;
+	private static final String INDEX = "index.properties";
+	private static final Logger LOGGER = LoggerFactory.getLogger(DownloadCache.class);
+	private static final long SAVE_INTERVAL = 60 * 1000;
+	private static ExecutorService writers = null;
+
+	private static synchronized ExecutorService getWriters() {
+		if (writers == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 10, SECONDS, new LinkedBlockingQueue<Runnable>());
+			pool.allowCoreThreadTimeOut(true);
+			writers = MoreExecutors.getExitingExecutorService(pool, 1, SECONDS);
+		}
+		return writers;
+	}
+
+	/**
+	 * Gets the cache file name for a URL.
+	 * 
+	 * @param path
+	 *            the URL.
+	 * @return the hash of the URL with the suffix of the URL.
+	 */
+	protected static String name(final String path) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(path.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder(digest.length * 2 + 6);
+			for (byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xf, 16));
+				name.append(Character.forDigit(b & 0xf, 16));
+			}
+			int dot = path.lastIndexOf('.');
+			if ((dot > path.lastIndexOf('/')) && path.substring(dot + 1).matches("[A-Za-z0-9]{1,5}")) {
+				name.append(path.substring(dot).toLowerCase());
+			}
+			return name.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e.getMessage());
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e.getMessage());
+		}
+	}
+
+	private static long sizeOf(final File file) {
+		File[] children = file.listFiles();
+		if (children == null) {
+			return file.length();
+		}
+		long size = 0;
+		for (File child : children) {
+			size += sizeOf(child);
+		}
+		return size;
+	}
+
+	protected static File toFile(final URL url) {
+		if (!"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the validator of a URL from an open connection.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @param connection
+	 *            the connection or null to open one.
+	 * @return the validator or null if the source cannot be validated.
+	 * @throws IOException
+	 *             thrown if the source cannot be reached.
+	 */
+	protected static String validator(final URL url, final URLConnection connection) throws IOException {
+		File file = toFile(url);
+		if (file != null) {
+			if (!file.isFile()) {
+				throw new IOException("No such file " + file);
+			}
+			return file.length() + ":" + file.lastModified();
+		}
+
+		URLConnection c = connection;
+		if (c == null) {
+			c = url.openConnection();
+			if (c instanceof HttpURLConnection) {
+				((HttpURLConnection) c).setRequestMethod("HEAD");
+			}
+		}
+		try {
+			if ((c instanceof HttpURLConnection) && (((HttpURLConnection) c).getResponseCode() >= 400)) {
+				throw new IOException("Unable to fetch " + url + ": " + ((HttpURLConnection) c).getResponseCode());
+			}
+			String etag = c.getHeaderField("ETag");
+			if (etag != null) {
+				return "etag:" + etag;
+			}
+			if ((c.getContentLength() < 0) && (c.getLastModified() == 0)) {
+				return null;
+			}
+			return c.getContentLength() + ":" + c.getLastModified();
+		} finally {
+			if ((connection == null) && (c instanceof HttpURLConnection)) {
+				((HttpURLConnection) c).disconnect();
+			}
+		}
+	}
+
+	protected final long capacity;
+	protected final File dir;
+	private boolean dirty = false;
+	private final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private boolean pending = false;
+	private long saved = 0;
+	private long size = 0;
+	private final Object writer = new Object();
+
+	/**
+	 * Create a new DownloadCache.
+	 * 
+	 * @param dir
+	 *            the cache directory.
+	 * @param capacity
+	 *            the maximum size of the cache in bytes.
+	 */
+	public DownloadCache(final File dir, final long capacity) {
+		this.dir = dir;
+		this.capacity = capacity;
+		dir.mkdirs();
+		readIndex();
+		LOGGER.debug("Initialized with {} files ({} bytes)", index.size(), size);
+		Runtime.getRuntime().addShutdownHook(new Thread("corewall-download-flush") {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	private void delete(final String name) {
+		File file = file(name);
+		file.delete();
+		File tiles = tiles(file);
+		if (tiles.exists()) {
+			try {
+				Files.deleteRecursively(tiles);
+			} catch (IOException e) {
+				LOGGER.warn("Unable to delete {}", tiles);
+			}
+		}
+	}
+
+	/**
+	 * Evicts the least recently used files until the cache is within its
+	 * capacity.
+	 * 
+	 * @param keep
+	 *            the name of a file to keep.
+	 * @return the evicted files.
+	 */
+	private List<File> evict(final String keep) {
+		List<File> evicted = Lists.newArrayList();
+		Iterator<Map.Entry<String, Entry>> i = index.entrySet().iterator();
+		while ((size > capacity) && i.hasNext()) {
+			Map.Entry<String, Entry> e = i.next();
+			if (!e.getKey().equals(keep)) {
+				LOGGER.debug("Evicting {} ({} bytes)", e.getKey(), e.getValue().size());
+				delete(e.getKey());
+				size -= e.getValue().size();
+				i.remove();
+				evicted.add(file(e.getKey()));
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Called with the files evicted from the cache, outside of any lock held
+	 * by the cache. Does nothing by default.
+	 * 
+	 * @param files
+	 *            the evicted files.
+	 */
+	protected void evicted(final List<File> files) {
+		// nothing to do
+	}
+
+	/**
+	 * Saves the index if it has changed since it was last saved.
+	 */
+	public void flush() {
+		// hold the writer lock while taking the snapshot so an earlier
+		// snapshot is never written over a later one
+		synchronized (writer) {
+			Properties properties;
+			synchronized (this) {
+				pending = false;
+				if (!dirty) {
+					return;
+				}
+				properties = snapshot();
+				dirty = false;
+				saved = System.currentTimeMillis();
+			}
+			try {
+				write(properties);
+			} catch (IOException e) {
+				LOGGER.warn("Unable to save download index: {}", e.getMessage());
+				synchronized (this) {
+					dirty = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the cached file for the specified URL, downloading it if it is not
+	 * cached or has changed.
+	 * 
+	 * @param path
+	 *            the URL.
+	 * @return the file.
+	 * @throws IOException
+	 *             thrown if the file cannot be downloaded.
+	 */
+	public File get(final String path) throws IOException {
+		URL url = new URL(path);
+		String name = name(path);
+		File file = file(name);
+		Entry entry;
+		synchronized (this) {
+			entry = index.get(name);
+		}
+		if ((entry != null) && entry.checked && file.exists()) {
+			return touch(name, entry);
+		}
+
+		// check the cached copy
+		if ((entry != null) && file.exists()) {
+			try {
+				String current = validator(url, null);
+				if ((current == null) || current.equals(entry.validator)) {
+					return touch(name, entry);
+				}
+			} catch (IOException e) {
+				LOGGER.warn("Using cached copy of {}: {}", path, e.getMessage());
+				return touch(name, entry);
+			}
+		}
+
+		// download to a temporary file and move it into place
+		File temp = File.createTempFile("download", ".tmp", dir);
+		InputStream in = null;
+		OutputStream out = null;
+		List<File> evicted;
+		try {
+			URLConnection connection = url.openConnection();
+			in = connection.getInputStream();
+			String validator = validator(url, connection);
+			out = new FileOutputStream(temp);
+			ByteStreams.copy(in, out);
+			out.close();
+			synchronized (this) {
+				Entry old = index.remove(name);
+				if (old != null) {
+					size -= old.size();
+				}
+				delete(name);
+				file.getParentFile().mkdirs();
+				if (!temp.renameTo(file)) {
+					throw new IOException("Unable to move " + temp + " to " + file);
+				}
+				Entry added = new Entry(validator, file.length(), System.currentTimeMillis());
+				added.checked = true;
+				index.put(name, added);
+				size += added.length;
+				evicted = evict(name);
+				save();
+			}
+		} finally {
+			Closeables.closeQuietly(in);
+			Closeables.closeQuietly(out);
+			temp.delete();
+		}
+		if (!evicted.isEmpty()) {
+			evicted(evicted);
+		}
+		return file;
+	}
+
+	/**
+	 * Gets the cached file for the specified URL if it is known to be current
+	 * without going over the network.
+	 * 
+	 * @param path
+	 *            the URL.
+	 * @return the file or null if it needs to be downloaded or checked.
+	 */
+	public File getIfCurrent(final String path) {
+		String name = name(path);
+		Entry entry;
+		synchronized (this) {
+			entry = index.get(name);
+		}
+		File file = file(name);
+		if ((entry == null) || !file.exists()) {
+			return null;
+		}
+		if (entry.checked) {
+			return touch(name, entry);
+		}
+		try {
+			URL url = new URL(path);
+			if ((toFile(url) != null) && validator(url, null).equals(entry.validator)) {
+				return touch(name, entry);
+			}
+		} catch (IOException e) {
+			// check it when downloading
+		}
+		return null;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the validator of a cached file without going over the network.
+	 * 
+	 * @param path
+	 *            the URL.
+	 * @return the validator or null if the file is not cached or has not been
+	 *         checked against its source this session.
+	 */
+	public synchronized String getValidator(final String path) {
+		Entry entry = index.get(name(path));
+		return ((entry != null) && entry.checked) ? entry.validator : null;
+	}
+
+	protected File file(final String name) {
+		return new File(new File(dir, name.substring(0, 2)), name);
+	}
+
+	/**
+	 * Gets the directory for the tile pyramid of a cached file.
+	 * 
+	 * @param file
+	 *            the cached file.
+	 * @return the directory.
+	 */
+	public File tiles(final File file) {
+		return new File(file.getParentFile(), file.getName() + ".tiles");
+	}
+
+	/**
+	 * Counts the tile pyramid built next to a cached file towards the size of
+	 * the cache, evicting other files if it no longer fits.
+	 * 
+	 * @param file
+	 *            the cached file.
+	 */
+	public void tiled(final File file) {
+		long tiles = sizeOf(tiles(file));
+		List<File> evicted;
+		synchronized (this) {
+			Entry entry = index.get(file.getName());
+			if ((entry == null) || (entry.tiles == tiles)) {
+				return;
+			}
+			size += tiles - entry.tiles;
+			entry.tiles = tiles;
+			evicted = evict(file.getName());
+			save();
+		}
+		if (!evicted.isEmpty()) {
+			evicted(evicted);
+		}
+	}
+
+	private synchronized void readIndex() {
+		Properties properties = new Properties();
+		File file = new File(dir, INDEX);
+		if (!file.exists()) {
+			return;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			properties.load(in);
+		} catch (IOException e) {
+			LOGGER.warn("Unable to read download index {}: {}", file, e.getMessage());
+			return;
+		} finally {
+			Closeables.closeQuietly(in);
+		}
+
+		// add the entries least recently used first
+		final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		for (String name : properties.stringPropertyNames()) {
+			try {
+				List<String> values = Lists.newArrayList(Splitter.on('\t').split(properties.getProperty(name)));
+				String validator = values.get(0).length() == 0 ? null : values.get(0);
+				Entry entry = new Entry(validator, Long.parseLong(values.get(1)), Long.parseLong(values.get(2)));
+				if (values.size() > 3) {
+					entry.tiles = Long.parseLong(values.get(3));
+				}
+				entries.put(name, entry);
+			} catch (RuntimeException e) {
+				LOGGER.warn("Skipping invalid download index entry {}", name);
+			}
+		}
+		List<String> names = Lists.newArrayList(entries.keySet());
+		Collections.sort(names, new Comparator<String>() {
+			public int compare(final String n1, final String n2) {
+				long diff = entries.get(n1).accessed - entries.get(n2).accessed;
+				return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+			}
+		});
+		for (String name : names) {
+			Entry entry = entries.get(name);
+			index.put(name, entry);
+			size += entry.size();
+		}
+	}
+
+	private synchronized File touch(final String name, final Entry entry) {
+		entry.checked = true;
+		entry.accessed = System.currentTimeMillis();
+		index.get(name);
+
+		// save access times now and then rather than on every access
+		dirty = true;
+		if (entry.accessed - saved > SAVE_INTERVAL) {
+			save();
+		}
+		return file(name);
+	}
+
+	/**
+	 * Marks the index as changed and saves it in the background unless a save
+	 * is already pending. Must be called with the lock held.
+	 */
+	private void save() {
+		dirty = true;
+		if (!pending) {
+			pending = true;
+			getWriters().execute(new Runnable() {
+				public void run() {
+					flush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Copies the index into properties to save. Must be called with the lock
+	 * held.
+	 * 
+	 * @return the properties.
+	 */
+	private Properties snapshot() {
+		Properties properties = new Properties();
+		for (Map.Entry<String, Entry> e : index.entrySet()) {
+			Entry entry = e.getValue();
+			properties.setProperty(e.getKey(), (entry.validator == null ? "" : entry.validator) + "\t" + entry.length
+					+ "\t" + entry.accessed + "\t" + entry.tiles);
+		}
+		return properties;
+	}
+
+	/**
+	 * Writes the index to a temporary file and moves it into place.
+	 * 
+	 * @param properties
+	 *            the index.
+	 * @throws IOException
+	 *             thrown if the index cannot be written.
+	 */
+	private void write(final Properties properties) throws IOException {
+		File temp = new File(dir, INDEX + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			properties.store(out, "Downloaded images");
+		} finally {
+			Closeables.closeQuietly(out);
+		}
+		File file = new File(dir, INDEX);
+		file.delete();
+		if (!temp.renameTo(file)) {
+			throw new IOException("Unable to move " + temp + " to " + file);
+		}
+	}
+}
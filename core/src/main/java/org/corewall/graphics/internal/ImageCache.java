@@ -1,145 +1,301 @@
 package org.corewall.graphics.internal;
 
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.FutureTask;
 
 import javax.swing.JComponent;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 import com.google.common.collect.MapMaker;
-import com.google.common.io.Closeables;
-import com.google.common.io.Files;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Singleton;
 
 /**
- * Loads and caches images at various levels of detail.
+ * Loads and caches images at various levels of detail. Decoded images are kept
+ * within a memory budget, which defaults to a quarter of the maximum heap and
+ * can be set with the 'corewall.images.budget' system property (in megabytes).
+ * Downloaded files are kept in a persistent {@link DownloadCache}, capped at
+ * 1 GB or the 'corewall.downloads.capacity' system property (in megabytes).
+ * Large images are cut into a {@link TilePyramid} next to the cached file once
+ * they are drawn, and image headers are kept in an {@link ImageMetadataIndex}
+ * in the same directory. Fetching and decoding are ordered by a
+ * {@link LoadScheduler}. The files, pyramids, and dimensions of the most
+ * recently used images are remembered in memory; the rest are looked up again
+ * in the persistent caches.
  * 
  * @author Josh Reed (jareed@andrill.org)
  */
 @Singleton
 public class ImageCache {
+	/**
+	 * A tile pyramid build for the latest drawn request of an image.
+	 */
+	private class Build extends FutureTask<TilePyramid> implements LoadScheduler.Job {
+		final String path;
+		volatile LoadTask.Params request;
+
+		Build(final LoadTask.Params request) {
+			super(new Callable<TilePyramid>() {
+				public TilePyramid call() throws Exception {
+					try {
+						File source = request.file.get();
+						TilePyramid pyramid = TilePyramid.open(source);
+						if (pyramid != null) {
+							downloads.tiled(source);
+						}
+						return pyramid;
+					} catch (ExecutionException e) {
+						// the fetch failed so try again when the image is next drawn
+						forgetPyramid(request.path, null);
+						return null;
+					} catch (IOException e) {
+						LOGGER.warn("Unable to build tile pyramid for " + request.path, e);
+						return null;
+					}
+				}
+			});
+			this.path = request.path;
+			this.request = request;
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				// let the next drawn request try again
+				forgetPyramid(path, this);
+			}
+		}
+
+		public LoadTask.Params getRequest() {
+			return request;
+		}
+	}
+
+	/**
+	 * A download of a file for the latest request of it. Decodes of the file
+	 * wait here until the download finishes rather than holding a decode
+	 * thread.
+	 */
+	private class Fetch extends FutureTask<File> implements LoadScheduler.Job {
+		private boolean finished = false;
+		final String path;
+		volatile LoadTask.Params request;
+		private final List<LoadScheduler.Job> waiting = Lists.newArrayList();
+
+		Fetch(final LoadTask.Params request) {
+			super(new Callable<File>() {
+				public File call() throws Exception {
+					try {
+						return downloads.get(request.path);
+					} catch (IOException e) {
+						LOGGER.error("Unable to download and cache " + request.path, e);
+						throw e;
+					}
+				}
+			});
+			this.path = request.path;
+			this.request = request;
+		}
+
+		/**
+		 * Queues a decode of the file once it has been downloaded.
+		 * 
+		 * @param decode
+		 *            the decode.
+		 */
+		void decode(final LoadScheduler.Job decode) {
+			synchronized (waiting) {
+				if (!finished) {
+					waiting.add(decode);
+					return;
+				}
+			}
+			scheduler.decode.execute(decode);
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				// let the next request try again
+				synchronized (files) {
+					if (files.get(path) == this) {
+						files.remove(path);
+					}
+				}
+			}
+
+			// release the waiting decodes
+			List<LoadScheduler.Job> decodes;
+			synchronized (waiting) {
+				finished = true;
+				decodes = Lists.newArrayList(waiting);
+				waiting.clear();
+			}
+			for (LoadScheduler.Job decode : decodes) {
+				if (isCancelled()) {
+					decode.cancel(false);
+				} else {
+					scheduler.decode.execute(decode);
+				}
+			}
+		}
+
+		public LoadTask.Params getRequest() {
+			return request;
+		}
+	}
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(ImageCache.class);
+	private static final int MAX_IMAGES = 1024;
+
+	/**
+	 * The size of a region block in decoded pixels.
+	 */
+	public static final int BLOCK = 512;
 
-	protected final Map<LoadTask.Params, Future<BufferedImage>> images;
-	protected final Map<String, Future<File>> files;
-	protected Map<String, Dimension> dimensions;
-	protected final ExecutorService scaleQueue;
-	protected final ExecutorService fetchQueue;
-	protected final ExecutorService fastQueue;
+	/**
+	 * Creates a map of the loads of the most recently used images. Once the
+	 * map is full, the least recently used finished load is forgotten; loads
+	 * in progress are never forgotten, so they are not started twice.
+	 * 
+	 * @return the map.
+	 */
+	private static <V> Map<String, Future<V>> recent() {
+		return new LinkedHashMap<String, Future<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Future<V>> eldest) {
+				if (size() > MAX_IMAGES) {
+					for (Iterator<Future<V>> i = values().iterator(); i.hasNext();) {
+						if (i.next().isDone()) {
+							i.remove();
+							break;
+						}
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	protected final ImageMemoryCache images;
+	protected final DownloadCache downloads;
+	protected final Map<String, Future<File>> files = recent();
+	protected final Map<String, Future<TilePyramid>> pyramids = recent();
+	protected final Map<String, Dimension> dimensions = new MapMaker().softValues().expiration(10, MINUTES)
+			.makeMap();
+	protected final ImageMetadataIndex metadata;
+	protected final LoadScheduler scheduler;
 	protected final File dir;
 
 	ImageCache() {
-		this(Files.createTempDir());
+		this(new File(System.getProperty("java.io.tmpdir"), "corewall" + File.separator + "images"));
 	}
 
 	ImageCache(final File dir) {
+		this(dir, Long.getLong("corewall.images.budget", Runtime.getRuntime().maxMemory() / (4 * 1024 * 1024))
+				.longValue() * 1024 * 1024, Long.getLong("corewall.downloads.capacity",
+				DownloadCache.DEFAULT_CAPACITY / (1024 * 1024)).longValue() * 1024 * 1024);
+	}
+
+	ImageCache(final File dir, final long budget, final long capacity) {
 		this.dir = dir;
 
-		// create our thread pools
+		// create our scheduler and thread pool
 		int procs = Runtime.getRuntime().availableProcessors();
-		fetchQueue = MoreExecutors
-				.getExitingExecutorService(new ThreadPoolExecutor(0, 1 * procs, 10, SECONDS, new LinkedBlockingQueue<Runnable>()), 1, SECONDS);
-		scaleQueue = MoreExecutors
-				.getExitingExecutorService(new ThreadPoolExecutor(0, 1 * procs, 10, SECONDS, new LinkedBlockingQueue<Runnable>()), 1, SECONDS);
-		fastQueue = MoreExecutors.getExitingExecutorService(new ThreadPoolExecutor(0, 2 * procs, 10, SECONDS, new LinkedBlockingQueue<Runnable>()), 1, SECONDS);
-
-		// create our file cache
-		files = new MapMaker().makeComputingMap(new Function<String, Future<File>>() {
-			public Future<File> apply(final String path) {
-				String name = path.substring(path.lastIndexOf('/') + 1);
-				final File file = new File(dir, name);
-				if (file.exists()) {
-					return Futures.immediateFuture(file);
-				}
-
-				// download the file
-				return fetchQueue.submit(new Callable<File>() {
-					public File call() throws Exception {
-						byte[] buffer = new byte[1024 * 1024];
-						InputStream in = null;
-						FileOutputStream out = null;
-						try {
-							// download the file
-							File temp = File.createTempFile("image", ".tmp");
-							out = new FileOutputStream(temp);
-							in = new URL(path).openStream();
-							int count = 0;
-							while ((count = in.read(buffer)) != -1) {
-								out.write(buffer, 0, count);
-							}
-							in.close();
-							out.close();
-
-							// move
-							Files.move(temp, file);
-						} catch (FileNotFoundException e) {
-							// will never happen
-							throw new AssertionError(e.getMessage());
-						} catch (IOException e) {
-							LOGGER.error("Unable to download and cache " + path, e);
-						} finally {
-							Closeables.closeQuietly(in);
-							Closeables.closeQuietly(out);
-						}
-						return file;
-					}
-				});
+		scheduler = new LoadScheduler(Math.max(2, procs), procs);
+		downloads = new DownloadCache(dir, capacity) {
+			@Override
+			protected void evicted(final List<File> evicted) {
+				forget(evicted);
 			}
-		});
+		};
 
-		images = new MapMaker().softValues().makeComputingMap(new Function<LoadTask.Params, Future<BufferedImage>>() {
-			public Future<BufferedImage> apply(final LoadTask.Params key) {
-				// if we're interactive and the file is already fetched, submit
-				// to the fast queue so it is displayed faster
-				if ((key.component.get() != null) && key.file.isDone() && !key.file.isCancelled()) {
-					return fastQueue.submit(new LoadTask(key));
+		images = new ImageMemoryCache(budget) {
+			@Override
+			protected void load(final LoadTask.Params key, final LoadScheduler.Job task) {
+				if (key.file instanceof Fetch) {
+					((Fetch) key.file).decode(task);
 				} else {
-					return scaleQueue.submit(new LoadTask(key));
+					scheduler.decode.execute(task);
 				}
 			}
-		});
-
-		// our map to compute the dimensions of an image
-		dimensions = new MapMaker().makeComputingMap(new Function<String, Dimension>() {
-			public Dimension apply(final String path) {
-				ImageInfo ii = new ImageInfo();
-				InputStream is = null;
-				try {
-					is = new URL(path).openStream();
-					ii.setInput(is);
-					if (ii.check()) {
-						if ((ii.getWidth() > 0) && (ii.getHeight() > 0)) {
-							return new Dimension(ii.getWidth(), ii.getHeight());
-						}
-					}
-				} catch (IOException e) {
-					LOGGER.error("Unable to load image", e);
-				} finally {
-					Closeables.closeQuietly(is);
+		};
+		metadata = new ImageMetadataIndex(dir, downloads);
+	}
+
+
+	/**
+	 * Estimates the memory needed for an image at the specified level.
+	 * 
+	 * @param url
+	 *            the image URL.
+	 * @param level
+	 *            the decimation level.
+	 * @return the size in bytes assuming four bytes per pixel.
+	 */
+	public long estimate(final URL url, final int level) {
+		Dimension image = getDimensions(url);
+		int step = Math.max(1, level);
+		return 4L * ((image.width + step - 1) / step) * ((image.height + step - 1) / step);
+	}
+
+	/**
+	 * Forgets the files and tile pyramids of evicted downloads, so the next
+	 * request for them downloads them again.
+	 * 
+	 * @param evicted
+	 *            the evicted files.
+	 */
+	protected void forget(final List<File> evicted) {
+		Set<File> gone = Sets.newHashSet(evicted);
+		synchronized (files) {
+			for (Iterator<Map.Entry<String, Future<File>>> i = files.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<String, Future<File>> e = i.next();
+				if (e.getValue().isDone() && gone.contains(downloads.file(DownloadCache.name(e.getKey())))) {
+					LOGGER.debug("Forgetting evicted {}", e.getKey());
+					i.remove();
+				}
+			}
+		}
+
+		// pyramids may be remembered longer than their files
+		synchronized (pyramids) {
+			for (Iterator<String> i = pyramids.keySet().iterator(); i.hasNext();) {
+				if (gone.contains(downloads.file(DownloadCache.name(i.next())))) {
+					i.remove();
 				}
-				return new Dimension(1, 1);
 			}
-		});
+		}
+	}
+
+	private void forgetPyramid(final String path, final Future<TilePyramid> pyramid) {
+		synchronized (pyramids) {
+			if ((pyramid == null) || (pyramids.get(path) == pyramid)) {
+				pyramids.remove(path);
+			}
+		}
 	}
 
 	/**
@@ -175,8 +331,98 @@ public class ImageCache {
 	 * @return the image Future.
 	 */
 	public Future<BufferedImage> get(final URL url, final int level, final boolean isVertical, final JComponent component) {
+		return get(url, level, null, isVertical, component);
+	}
+
+	/**
+	 * Gets a region of the specified image with the specified URL. Regions
+	 * should come from {@link #getBlocks(URL, int, Rectangle)} so that
+	 * adjacent requests share cached blocks.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @param level
+	 *            the decimation level.
+	 * @param region
+	 *            the region of the source image or null for the whole image.
+	 * @param isVertical
+	 *            true if vertical, false otherwise.
+	 * @param component
+	 *            the component rendering the image or null if headless
+	 *            rendering.
+	 * @return the image Future.
+	 */
+	public Future<BufferedImage> get(final URL url, final int level, final Rectangle region, final boolean isVertical,
+			final JComponent component) {
+		return get(url, level, region, isVertical, component, 0);
+	}
+
+	/**
+	 * Gets a region of the specified image with the specified URL. Images
+	 * closer to the visible part of the component are loaded first.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @param level
+	 *            the decimation level.
+	 * @param region
+	 *            the region of the source image or null for the whole image.
+	 * @param isVertical
+	 *            true if vertical, false otherwise.
+	 * @param component
+	 *            the component rendering the image or null if headless
+	 *            rendering.
+	 * @param distance
+	 *            the distance in pixels of the image from the visible part of
+	 *            the component.
+	 * @return the image Future.
+	 */
+	public Future<BufferedImage> get(final URL url, final int level, final Rectangle region, final boolean isVertical,
+			final JComponent component, final int distance) {
 		String path = url.toExternalForm();
-		return images.get(new LoadTask.Params(path, files.get(path), level, isVertical, component));
+		LoadTask.Params params = new LoadTask.Params(path, null, null, level, region, isVertical, component);
+		scheduler.stamp(params, distance);
+		params.file = getFile(params);
+		params.pyramid = getPyramid(params);
+		return images.get(params);
+	}
+
+	/**
+	 * Gets the memory budget for decoded images.
+	 * 
+	 * @return the budget in bytes.
+	 */
+	public long getBudget() {
+		return images.getBudget();
+	}
+
+	/**
+	 * Gets the blocks of the source image that cover a region. Blocks are
+	 * aligned to a grid of {@link #BLOCK} decoded pixels at the specified level
+	 * and clipped to the image.
+	 * 
+	 * @param url
+	 *            the image URL.
+	 * @param level
+	 *            the decimation level.
+	 * @param region
+	 *            the region of the source image.
+	 * @return the blocks.
+	 */
+	public List<Rectangle> getBlocks(final URL url, final int level, final Rectangle region) {
+		Dimension image = getDimensions(url);
+		Rectangle bounds = region.intersection(new Rectangle(image));
+		List<Rectangle> blocks = Lists.newArrayList();
+		if (bounds.isEmpty()) {
+			return blocks;
+		}
+		int size = BLOCK * Math.max(1, level);
+		for (int y = bounds.y / size * size; y < bounds.y + bounds.height; y += size) {
+			for (int x = bounds.x / size * size; x < bounds.x + bounds.width; x += size) {
+				blocks.add(new Rectangle(x, y, Math.min(size, image.width - x), Math.min(size, image.height - y)));
+			}
+		}
+		return blocks;
 	}
 
 	/**
@@ -186,10 +432,12 @@ public class ImageCache {
 	 *            the image URL.
 	 * @param dim
 	 *            the desired dimension.
+	 * @param isVertical
+	 *            true if vertical, false otherwise.
 	 * @return the image Future or null.
 	 */
-	public Future<BufferedImage> getClosest(final URL url, final Dimension dim) {
-		return getClosest(url, getLevel(url, dim));
+	public Future<BufferedImage> getClosest(final URL url, final Dimension dim, final boolean isVertical) {
+		return getClosest(url, getLevel(url, dim), isVertical);
 	}
 
 	/**
@@ -199,22 +447,103 @@ public class ImageCache {
 	 *            the image URL.
 	 * @param level
 	 *            the desired level.
+	 * @param isVertical
+	 *            true if vertical, false otherwise.
 	 * @return the image Future or null.
 	 */
-	public Future<BufferedImage> getClosest(final URL url, final int level) {
-		final String path = url.toExternalForm();
-		Future<BufferedImage> closest = null;
-		int distance = Integer.MAX_VALUE;
-		for (Entry<LoadTask.Params, Future<BufferedImage>> e : images.entrySet()) {
-			if (path.equals(e.getKey().path) && e.getValue().isDone() && !e.getValue().isCancelled()) {
-				int diff = Math.abs(e.getKey().level - level);
-				if (diff < distance) {
-					distance = diff;
-					closest = e.getValue();
+	public Future<BufferedImage> getClosest(final URL url, final int level, final boolean isVertical) {
+		return images.getClosest(url.toExternalForm(), level, isVertical);
+	}
+
+	/**
+	 * Gets the dimensions of the source image.
+	 * 
+	 * @param url
+	 *            the image URL.
+	 * @return the dimensions or 1x1 if the image cannot be read.
+	 */
+	public Dimension getDimensions(final URL url) {
+		String path = url.toExternalForm();
+		Dimension dimension = dimensions.get(path);
+		if (dimension == null) {
+			// failures are not remembered so the next request tries again
+			ImageMetadataIndex.Metadata m = metadata.get(url);
+			if (m == null) {
+				return new Dimension(1, 1);
+			}
+			dimension = new Dimension(m.getWidth(), m.getHeight());
+			dimensions.put(path, dimension);
+		}
+		return dimension;
+	}
+
+	/**
+	 * Gets the metadata of an image from the persistent index, reading its
+	 * header if it is not indexed or has changed.
+	 * 
+	 * @param url
+	 *            the image URL.
+	 * @return the metadata or null if the image cannot be read.
+	 */
+	public ImageMetadataIndex.Metadata getMetadata(final URL url) {
+		return metadata.get(url);
+	}
+
+	/**
+	 * Gets the cached file for a request, fetching it if needed.
+	 * 
+	 * @param request
+	 *            the request.
+	 * @return the file Future.
+	 */
+	protected Future<File> getFile(final LoadTask.Params request) {
+		synchronized (files) {
+			Future<File> file = files.get(request.path);
+			if (file instanceof Fetch) {
+				((Fetch) file).request = request;
+			}
+			if (file == null) {
+				File cached = downloads.getIfCurrent(request.path);
+				if (cached != null) {
+					file = Futures.immediateFuture(cached);
+				} else {
+					Fetch fetch = new Fetch(request);
+					scheduler.fetch.execute(fetch);
+					file = fetch;
 				}
+				files.put(request.path, file);
+			}
+			return file;
+		}
+	}
+
+	/**
+	 * Gets the tile pyramid for a request. A pyramid is only built for an
+	 * image that is drawn in the visible part of a component once its file
+	 * has been fetched, and a queued build is cancelled if the image stops
+	 * being drawn.
+	 * 
+	 * @param request
+	 *            the request.
+	 * @return the pyramid Future or null if there is none yet.
+	 */
+	protected Future<TilePyramid> getPyramid(final LoadTask.Params request) {
+		synchronized (pyramids) {
+			Future<TilePyramid> pyramid = pyramids.get(request.path);
+			if ((request.distance > 0) || !request.file.isDone() || request.file.isCancelled()) {
+				return pyramid;
+			}
+			if (pyramid instanceof Build) {
+				((Build) pyramid).request = request;
 			}
+			if (pyramid == null) {
+				Build build = new Build(request);
+				scheduler.tile.execute(build);
+				pyramid = build;
+				pyramids.put(request.path, pyramid);
+			}
+			return pyramid;
 		}
-		return closest;
 	}
 
 	/**
@@ -226,12 +555,44 @@ public class ImageCache {
 	 *            the dimensions.
 	 * @return the level.
 	 */
-	protected int getLevel(final URL url, final Dimension dim) {
-		Dimension image = dimensions.get(url.toExternalForm());
+	public int getLevel(final URL url, final Dimension dim) {
+		Dimension image = getDimensions(url);
 		if ((dim.width <= 0) || (dim.height <= 0)) {
 			return 10;
 		} else {
 			return Math.max(0, Math.min(10, Math.min(image.width / dim.width, image.height / dim.height)));
 		}
 	}
+
+	/**
+	 * Reads the metadata of all of the images in a directory concurrently.
+	 * 
+	 * @param directory
+	 *            the directory.
+	 */
+	public void probe(final File directory) {
+		metadata.populate(directory);
+	}
+
+	/**
+	 * Reads the metadata of the specified images concurrently and waits for
+	 * all of them to finish.
+	 * 
+	 * @param urls
+	 *            the image URLs.
+	 */
+	public void probe(final Collection<URL> urls) {
+		metadata.populate(urls);
+	}
+
+	/**
+	 * Starts a new paint of an interactive component. Loads requested by the
+	 * component that are not requested again in the next paint are cancelled.
+	 * 
+	 * @param component
+	 *            the component.
+	 */
+	public void startPaint(final JComponent component) {
+		scheduler.startPass(component);
+	}
 }
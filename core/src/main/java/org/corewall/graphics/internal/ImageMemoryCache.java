@@ -0,0 +1,293 @@
+package org.corewall.graphics.internal;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Holds decoded images within a fixed memory budget. Images are weighed by
+ * the size of their pixel buffers once they have loaded and the least
+ * recently used images are dropped when the budget is exceeded. Images that
+ * are still loading are never dropped. Loaded whole images are also indexed by
+ * path, orientation, and level so the closest level can be found by walking
+ * outward from the requested level.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public abstract class ImageMemoryCache {
+	/**
+	 * A load that weighs its image before it is handed out.
+	 */
+	private class Loading extends FutureTask<BufferedImage> implements LoadScheduler.Job {
+		long bytes = 0;
+		final LoadTask.Params key;
+		volatile LoadTask.Params request;
+
+		Loading(final LoadTask.Params key) {
+			super(new LoadTask(key));
+			this.key = key;
+			request = key;
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				cancelled(this);
+			}
+		}
+
+		public LoadTask.Params getRequest() {
+			return request;
+		}
+
+		@Override
+		protected void set(final BufferedImage image) {
+			loaded(this, image);
+			super.set(image);
+		}
+
+		@Override
+		protected void setException(final Throwable t) {
+			if (t instanceof CancellationException) {
+				// the file was cancelled so cancel rather than fail
+				cancel(false);
+			} else {
+				super.setException(t);
+			}
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImageMemoryCache.class);
+
+	private static Entry<Integer, Loading> done(final Entry<Integer, List<Loading>> e) {
+		for (Loading task : e.getValue()) {
+			if (task.isDone()) {
+				return Maps.immutableEntry(e.getKey(), task);
+			}
+		}
+		return null;
+	}
+
+	private static String key(final String path, final boolean isVertical) {
+		return (isVertical ? "v:" : "h:") + path;
+	}
+
+	/**
+	 * Weighs an image.
+	 * 
+	 * @param image
+	 *            the image or null.
+	 * @return the size of the image in bytes.
+	 */
+	public static long weigh(final BufferedImage image) {
+		if (image == null) {
+			return 0;
+		}
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	protected final long budget;
+	private long evictions = 0;
+	private long hits = 0;
+	private final Map<LoadTask.Params, Loading> images = new LinkedHashMap<LoadTask.Params, Loading>(16, 0.75f,
+			true);
+	private final Map<String, TreeMap<Integer, List<Loading>>> index = Maps.newHashMap();
+	private long misses = 0;
+	private long size = 0;
+
+	/**
+	 * Create a new ImageMemoryCache.
+	 * 
+	 * @param budget
+	 *            the memory budget in bytes.
+	 */
+	public ImageMemoryCache(final long budget) {
+		this.budget = budget;
+	}
+
+	private synchronized void cancelled(final Loading task) {
+		// let the next request try again
+		if (images.get(task.key) == task) {
+			images.remove(task.key);
+			size -= task.bytes;
+			unindex(task);
+		}
+	}
+
+	/**
+	 * Gets the image for the specified params, starting a load if it is not
+	 * cached.
+	 * 
+	 * @param key
+	 *            the params.
+	 * @return the image Future.
+	 */
+	public Future<BufferedImage> get(final LoadTask.Params key) {
+		Loading task;
+		synchronized (this) {
+			task = images.get(key);
+			if (task != null) {
+				hits++;
+				task.request = key;
+				return task;
+			}
+			misses++;
+			task = new Loading(key);
+			images.put(key, task);
+		}
+		load(key, task);
+		return task;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Gets the closest loaded whole image for the specified path and
+	 * orientation. Ties go to the more detailed level. Images are indexed just
+	 * before their load completes, so only completed loads are returned and
+	 * the caller never blocks.
+	 * 
+	 * @param path
+	 *            the image path.
+	 * @param level
+	 *            the desired level.
+	 * @param isVertical
+	 *            true if vertical, false otherwise.
+	 * @return the image Future or null.
+	 */
+	public synchronized Future<BufferedImage> getClosest(final String path, final int level,
+			final boolean isVertical) {
+		TreeMap<Integer, List<Loading>> levels = index.get(key(path, isVertical));
+		if (levels == null) {
+			return null;
+		}
+
+		// the nearest completed load at or below and above the level
+		Entry<Integer, Loading> below = null;
+		for (Entry<Integer, List<Loading>> e = levels.floorEntry(level); (below == null) && (e != null); e = levels
+				.lowerEntry(e.getKey())) {
+			below = done(e);
+		}
+		Entry<Integer, Loading> above = null;
+		for (Entry<Integer, List<Loading>> e = levels.higherEntry(level); (above == null) && (e != null); e = levels
+				.higherEntry(e.getKey())) {
+			above = done(e);
+		}
+		if (below == null) {
+			return (above == null) ? null : above.getValue();
+		} else if ((above != null) && (above.getKey() - level < level - below.getKey())) {
+			return above.getValue();
+		}
+		return below.getValue();
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Starts loading an image.
+	 * 
+	 * @param key
+	 *            the params.
+	 * @param task
+	 *            the task to run.
+	 */
+	protected abstract void load(LoadTask.Params key, LoadScheduler.Job task);
+
+	/**
+	 * Adds a loaded whole image to the level index of its path.
+	 * 
+	 * @param task
+	 *            the load.
+	 */
+	private void index(final Loading task) {
+		String key = key(task.key.path, task.key.isVertical);
+		TreeMap<Integer, List<Loading>> levels = index.get(key);
+		if (levels == null) {
+			levels = new TreeMap<Integer, List<Loading>>();
+			index.put(key, levels);
+		}
+		List<Loading> list = levels.get(task.key.level);
+		if (list == null) {
+			list = Lists.newArrayListWithCapacity(2);
+			levels.put(task.key.level, list);
+		}
+		list.add(task);
+	}
+
+	private synchronized void loaded(final Loading task, final BufferedImage image) {
+		if (images.get(task.key) != task) {
+			return;
+		}
+		task.bytes = weigh(image);
+		size += task.bytes;
+		if ((image != null) && (task.key.region == null)) {
+			index(task);
+		}
+
+		// drop the least recently used images, but always keep the newest
+		Iterator<Loading> i = images.values().iterator();
+		while ((size > budget) && i.hasNext()) {
+			Loading eldest = i.next();
+			if ((eldest != task) && eldest.isDone()) {
+				LOGGER.debug("Dropping {} @ {} ({} bytes)", new Object[] { eldest.key.path, eldest.key.level,
+						eldest.bytes });
+				size -= eldest.bytes;
+				evictions++;
+				i.remove();
+				unindex(eldest);
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ImageMemoryCache[size=" + size + ", budget=" + budget + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions + "]";
+	}
+
+	private void unindex(final Loading task) {
+		String key = key(task.key.path, task.key.isVertical);
+		TreeMap<Integer, List<Loading>> levels = index.get(key);
+		if (levels == null) {
+			return;
+		}
+		List<Loading> list = levels.get(task.key.level);
+		if ((list != null) && list.remove(task) && list.isEmpty()) {
+			levels.remove(task.key.level);
+			if (levels.isEmpty()) {
+				index.remove(key);
+			}
+		}
+	}
+}
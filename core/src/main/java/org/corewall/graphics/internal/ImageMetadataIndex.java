@@ -0,0 +1,539 @@
+package org.corewall.graphics.internal;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * A persistent index of image header metadata, so the width, height,
+ * resolution, format, and progressive flag of an image are read from its
+ * header once rather than once per session by every caller. Entries are keyed
+ * by URL and store the validator of the source, the length and last modified
+ * time for local files and the ETag or length and Last-Modified for remote
+ * files, and are read again if it has changed. Remote entries are checked
+ * against the {@link DownloadCache} if it has already checked the image, and
+ * otherwise trusted and checked again in the background, so a lookup never
+ * waits on the network for an indexed image. Entries unused for 90 days are
+ * pruned, and the index keeps at most 100,000 of the most recently used. The
+ * index is saved with each bulk population, at most once a minute otherwise,
+ * and when the JVM shuts down. Saving copies the index under its lock and
+ * writes the copy outside of it, so lookups never wait on the disk.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class ImageMetadataIndex {
+	/**
+	 * The metadata of an image.
+	 */
+	public static class Metadata {
+		private final int dpiX;
+		private final int dpiY;
+		private final String format;
+		private final int height;
+		private final boolean progressive;
+		private final int width;
+
+		/**
+		 * Create a new Metadata.
+		 * 
+		 * @param width
+		 *            the width in pixels.
+		 * @param height
+		 *            the height in pixels.
+		 * @param dpiX
+		 *            the horizontal resolution or -1 if unknown.
+		 * @param dpiY
+		 *            the vertical resolution or -1 if unknown.
+		 * @param format
+		 *            the format name.
+		 * @param progressive
+		 *            true if the image is progressive or interlaced.
+		 */
+		public Metadata(final int width, final int height, final int dpiX, final int dpiY, final String format,
+				final boolean progressive) {
+			this.width = width;
+			this.height = height;
+			this.dpiX = dpiX;
+			this.dpiY = dpiY;
+			this.format = format;
+			this.progressive = progressive;
+		}
+
+		public int getDpiX() {
+			return dpiX;
+		}
+
+		public int getDpiY() {
+			return dpiY;
+		}
+
+		public String getFormat() {
+			return format;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public boolean isProgressive() {
+			return progressive;
+		}
+	}
+
+	/**
+	 * An indexed image.
+	 */
+	private static class Entry {
+		volatile boolean checked = false;
+		final Metadata metadata;
+		long used;
+		final String validator;
+
+		Entry(final String validator, final Metadata metadata, final long used) {
+			this.validator = validator;
+			this.metadata = metadata;
+			this.used = used;
+		}
+	}
+
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	private static final String INDEX = "metadata.properties";
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImageMetadataIndex.class);
+	private static final long MAX_AGE = 90 * DAY;
+	private static final int MAX_ENTRIES = 100000;
+	private static ExecutorService readers = null;
+	private static final int READER_THREADS = 8;
+	private static final long SAVE_INTERVAL = 60 * 1000;
+
+	private static synchronized ExecutorService getReaders() {
+		if (readers == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(READER_THREADS, READER_THREADS, 10, SECONDS,
+					new LinkedBlockingQueue<Runnable>());
+			pool.allowCoreThreadTimeOut(true);
+			readers = MoreExecutors.getExitingExecutorService(pool, 1, SECONDS);
+		}
+		return readers;
+	}
+
+	/**
+	 * Reads the metadata from the header of an image.
+	 * 
+	 * @param url
+	 *            the image URL.
+	 * @return the metadata or null if the header cannot be parsed.
+	 * @throws IOException
+	 *             thrown if the image cannot be read.
+	 */
+	protected static Metadata read(final URL url) throws IOException {
+		InputStream in = null;
+		try {
+			in = url.openStream();
+			return read(in);
+		} finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	private static Metadata read(final InputStream in) {
+		ImageInfo ii = new ImageInfo();
+		ii.setInput(in);
+		if (!ii.check() || (ii.getWidth() <= 0) || (ii.getHeight() <= 0)) {
+			return null;
+		}
+		return new Metadata(ii.getWidth(), ii.getHeight(), ii.getPhysicalWidthDpi(), ii.getPhysicalHeightDpi(),
+				ii.getFormatName(), ii.isProgressive());
+	}
+
+	protected final File dir;
+	private boolean dirty = false;
+	protected final DownloadCache downloads;
+	private final Map<String, Entry> index = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, ImageMetadataIndex.Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private long saved = 0;
+	private final Object writer = new Object();
+
+	/**
+	 * Create a new ImageMetadataIndex.
+	 * 
+	 * @param dir
+	 *            the directory to keep the index in.
+	 */
+	public ImageMetadataIndex(final File dir) {
+		this(dir, null);
+	}
+
+	/**
+	 * Create a new ImageMetadataIndex that reads remote images through a
+	 * download cache.
+	 * 
+	 * @param dir
+	 *            the directory to keep the index in.
+	 * @param downloads
+	 *            the download cache or null.
+	 */
+	public ImageMetadataIndex(final File dir, final DownloadCache downloads) {
+		this.dir = dir;
+		this.downloads = downloads;
+		dir.mkdirs();
+		readIndex();
+		saved = System.currentTimeMillis();
+		LOGGER.debug("Initialized with {} images", index.size());
+		Runtime.getRuntime().addShutdownHook(new Thread("corewall-metadata-flush") {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	/**
+	 * Saves the index if it has changed since it was last saved.
+	 */
+	public void flush() {
+		// hold the writer lock while taking the snapshot so an earlier
+		// snapshot is never written over a later one
+		synchronized (writer) {
+			Properties properties;
+			synchronized (this) {
+				if (!dirty) {
+					return;
+				}
+				properties = snapshot();
+				dirty = false;
+				saved = System.currentTimeMillis();
+			}
+			try {
+				write(properties);
+			} catch (IOException e) {
+				LOGGER.warn("Unable to save image metadata index: {}", e.getMessage());
+				synchronized (this) {
+					dirty = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the metadata of an image, reading its header if it is not indexed
+	 * or has changed.
+	 * 
+	 * @param url
+	 *            the image URL.
+	 * @return the metadata or null if the image cannot be read.
+	 */
+	public Metadata get(final URL url) {
+		String path = url.toExternalForm();
+		Entry entry;
+		synchronized (this) {
+			entry = index.get(path);
+			long now = System.currentTimeMillis();
+			if ((entry != null) && (now - entry.used > DAY)) {
+				entry.used = now;
+				dirty = true;
+			}
+		}
+		if ((entry != null) && entry.checked) {
+			return entry.metadata;
+		}
+
+		// check remote entries without waiting on the network
+		boolean remote = DownloadCache.toFile(url) == null;
+		String validator = (remote && (downloads != null)) ? downloads.getValidator(path) : null;
+		if ((entry != null) && remote) {
+			entry.checked = true;
+			if (validator == null) {
+				recheck(url, entry);
+				return entry.metadata;
+			} else if (validator.equals(entry.validator)) {
+				return entry.metadata;
+			}
+		}
+
+		// check the indexed entry
+		if (!remote) {
+			try {
+				validator = DownloadCache.validator(url, null);
+				if ((entry != null) && ((validator == null) || validator.equals(entry.validator))) {
+					entry.checked = true;
+					return entry.metadata;
+				}
+			} catch (IOException e) {
+				if (entry != null) {
+					LOGGER.warn("Using indexed metadata of {}: {}", path, e.getMessage());
+					entry.checked = true;
+					return entry.metadata;
+				}
+			}
+		}
+		return index(url, validator);
+	}
+
+	/**
+	 * Reads the header of an image and indexes it.
+	 * 
+	 * @param url
+	 *            the image URL.
+	 * @param validator
+	 *            the validator of the image or null to take it from the
+	 *            connection the header is read from.
+	 * @return the metadata or null if the image cannot be read.
+	 */
+	private Metadata index(final URL url, final String validator) {
+		String path = url.toExternalForm();
+		String current = validator;
+		InputStream in = null;
+		try {
+			// read a current download rather than the source
+			File cached = (downloads == null) ? null : downloads.getIfCurrent(path);
+			Metadata metadata;
+			if (cached != null) {
+				metadata = read(cached.toURI().toURL());
+			} else {
+				URLConnection connection = url.openConnection();
+				in = connection.getInputStream();
+				if (current == null) {
+					current = DownloadCache.validator(url, connection);
+				}
+				metadata = read(in);
+			}
+			if (metadata == null) {
+				LOGGER.warn("Unable to parse image info for {}", path);
+				return null;
+			}
+			Entry added = new Entry(current, metadata, System.currentTimeMillis());
+			added.checked = true;
+			boolean save;
+			synchronized (this) {
+				index.put(path, added);
+				dirty = true;
+				save = System.currentTimeMillis() - saved > SAVE_INTERVAL;
+			}
+			if (save) {
+				flush();
+			}
+			return metadata;
+		} catch (IOException e) {
+			LOGGER.error("Unable to parse image info for " + path, e);
+			return null;
+		} finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Indexes all of the images in a directory concurrently and saves the
+	 * index.
+	 * 
+	 * @param directory
+	 *            the directory.
+	 */
+	public void populate(final File directory) {
+		Set<String> suffixes = Sets.newHashSet(ImageIO.getReaderFileSuffixes());
+		List<URL> urls = Lists.newArrayList();
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			int dot = name.lastIndexOf('.');
+			if (file.isFile() && (dot > 0) && suffixes.contains(name.substring(dot + 1).toLowerCase())) {
+				try {
+					urls.add(file.toURI().toURL());
+				} catch (IOException e) {
+					LOGGER.warn("Skipping {}: {}", file, e.getMessage());
+				}
+			}
+		}
+		populate(urls);
+	}
+
+	/**
+	 * Indexes the specified images concurrently on a bounded I/O pool, waits
+	 * for all of them to finish, and saves the index.
+	 * 
+	 * @param urls
+	 *            the image URLs.
+	 */
+	public void populate(final Collection<URL> urls) {
+		List<Callable<Object>> tasks = Lists.newArrayList();
+		for (final URL url : urls) {
+			tasks.add(Executors.callable(new Runnable() {
+				public void run() {
+					get(url);
+				}
+			}));
+		}
+		try {
+			getReaders().invokeAll(tasks);
+		} catch (InterruptedException e) {
+			// the images will be read on first use instead
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	/**
+	 * Checks an indexed remote image in the background and reads it again if
+	 * it has changed.
+	 * 
+	 * @param url
+	 *            the image URL.
+	 * @param entry
+	 *            the indexed entry.
+	 */
+	private void recheck(final URL url, final Entry entry) {
+		getReaders().execute(new Runnable() {
+			public void run() {
+				try {
+					String validator = DownloadCache.validator(url, null);
+					if ((validator != null) && !validator.equals(entry.validator)) {
+						index(url, validator);
+					}
+				} catch (IOException e) {
+					LOGGER.debug("Unable to check {}: {}", url, e.getMessage());
+				}
+			}
+		});
+	}
+
+	private synchronized void readIndex() {
+		Properties properties = new Properties();
+		File file = new File(dir, INDEX);
+		if (!file.exists()) {
+			return;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			properties.load(in);
+		} catch (IOException e) {
+			LOGGER.warn("Unable to read image metadata index {}: {}", file, e.getMessage());
+			return;
+		} finally {
+			Closeables.closeQuietly(in);
+		}
+		// insert the entries from least to most recently used so the access
+		// order of the index matches their use
+		long now = System.currentTimeMillis();
+		List<Map.Entry<String, Entry>> entries = Lists.newArrayList();
+		for (String path : properties.stringPropertyNames()) {
+			try {
+				List<String> values = Lists.newArrayList(Splitter.on('\t').split(properties.getProperty(path)));
+				String validator = values.get(0).length() == 0 ? null : values.get(0);
+				long used = (values.size() > 7) ? Long.parseLong(values.get(7)) : now;
+				if (now - used > MAX_AGE) {
+					dirty = true;
+					continue;
+				}
+				entries.add(Maps.immutableEntry(path, new Entry(validator, new Metadata(Integer.parseInt(values
+						.get(1)), Integer.parseInt(values.get(2)), Integer.parseInt(values.get(3)), Integer
+						.parseInt(values.get(4)), values.get(5), Boolean.parseBoolean(values.get(6))), used)));
+			} catch (RuntimeException e) {
+				LOGGER.warn("Skipping invalid image metadata index entry {}", path);
+			}
+		}
+		Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+			public int compare(final Map.Entry<String, Entry> e1, final Map.Entry<String, Entry> e2) {
+				long u1 = e1.getValue().used;
+				long u2 = e2.getValue().used;
+				return (u1 < u2) ? -1 : ((u1 > u2) ? 1 : 0);
+			}
+		});
+		for (Map.Entry<String, Entry> e : entries) {
+			index.put(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Prunes the entries unused for too long and copies the rest into
+	 * properties to save.
+	 * 
+	 * @return the properties.
+	 */
+	private Properties snapshot() {
+		Properties properties = new Properties();
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<String, Entry>> i = index.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String, Entry> e = i.next();
+			Entry entry = e.getValue();
+			if (now - entry.used > MAX_AGE) {
+				i.remove();
+				continue;
+			}
+			Metadata m = entry.metadata;
+			properties.setProperty(e.getKey(), (entry.validator == null ? "" : entry.validator) + "\t" + m.width
+					+ "\t" + m.height + "\t" + m.dpiX + "\t" + m.dpiY + "\t" + m.format + "\t" + m.progressive
+					+ "\t" + entry.used);
+		}
+		return properties;
+	}
+
+	/**
+	 * Writes the index to a temporary file and moves it into place.
+	 * 
+	 * @param properties
+	 *            the index.
+	 * @throws IOException
+	 *             thrown if the index cannot be written.
+	 */
+	private void write(final Properties properties) throws IOException {
+		File temp = new File(dir, INDEX + ".tmp");
+		File file = new File(dir, INDEX);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			properties.store(out, "Image metadata");
+			out.close();
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("Unable to move " + temp + " to " + file);
+			}
+		} finally {
+			Closeables.closeQuietly(out);
+		}
+	}
+}
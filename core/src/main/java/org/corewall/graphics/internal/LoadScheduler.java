@@ -0,0 +1,277 @@
+package org.corewall.graphics.internal;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.JComponent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Schedules the stages of loading images so the most urgent work runs first.
+ * Requests are ordered by their distance from the visible part of the
+ * component rendering them and then by how recently they were made. Each
+ * paint of a component starts a new pass; a request that was not renewed in
+ * the last full pass belongs to an image that has scrolled away or is no
+ * longer drawn, so it is cancelled instead of run. Pending jobs are kept in a
+ * priority queue that is rebuilt whenever a pass starts, since renewing a
+ * request changes its urgency. Each stage runs its jobs on its own bounded
+ * pool of daemon threads; tile pyramids are built one at a time.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class LoadScheduler {
+	/**
+	 * A unit of work in a stage.
+	 */
+	public interface Job extends Runnable {
+
+		/**
+		 * Cancels the job.
+		 * 
+		 * @param mayInterruptIfRunning
+		 *            true if the job may be interrupted.
+		 * @return true if the job was cancelled.
+		 */
+		boolean cancel(boolean mayInterruptIfRunning);
+
+		/**
+		 * Gets the latest request for the job.
+		 * 
+		 * @return the request.
+		 */
+		LoadTask.Params getRequest();
+	}
+
+	/**
+	 * A stage of loading with its own queue and thread pool.
+	 */
+	public class Stage {
+		private final ExecutorService executor;
+		private final String name;
+		private PriorityQueue<Job> pending = new PriorityQueue<Job>(11, URGENCY);
+		private int running = 0;
+		private final int threads;
+
+		Stage(final String name, final int threads) {
+			this.name = name;
+			this.threads = threads;
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 10, SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setNameFormat(
+							"corewall-" + name + "-%d").build());
+			pool.allowCoreThreadTimeOut(true);
+			executor = MoreExecutors.getExitingExecutorService(pool, 1, SECONDS);
+		}
+
+		/**
+		 * Queues a job.
+		 * 
+		 * @param job
+		 *            the job.
+		 */
+		public void execute(final Job job) {
+			boolean start = false;
+			synchronized (this) {
+				pending.add(job);
+				if (running < threads) {
+					running++;
+					start = true;
+				}
+			}
+			if (start) {
+				executor.execute(new Runnable() {
+					public void run() {
+						work();
+					}
+				});
+			}
+		}
+
+		public synchronized int getPending() {
+			return pending.size();
+		}
+
+		public synchronized int getRunning() {
+			return running;
+		}
+
+		/**
+		 * Rebuilds the queue after a new paint pass has restamped its
+		 * requests, removing any stale jobs.
+		 * 
+		 * @param stale
+		 *            the list to add the stale jobs to.
+		 */
+		private synchronized void reorder(final List<Job> stale) {
+			PriorityQueue<Job> queue = new PriorityQueue<Job>(Math.max(11, pending.size()), URGENCY);
+			for (Job job : pending) {
+				if (isStale(job.getRequest())) {
+					stale.add(job);
+				} else {
+					queue.add(job);
+				}
+			}
+			pending = queue;
+		}
+
+		/**
+		 * Takes the most urgent job, skipping any stale jobs.
+		 * 
+		 * @param stale
+		 *            the list to add the stale jobs to.
+		 * @return the job or null if there are none.
+		 */
+		private synchronized Job take(final List<Job> stale) {
+			Job job;
+			while (((job = pending.poll()) != null) && isStale(job.getRequest())) {
+				stale.add(job);
+			}
+			if (job == null) {
+				running--;
+			}
+			return job;
+		}
+
+		private void work() {
+			List<Job> stale = Lists.newArrayList();
+			Job job;
+			while ((job = take(stale)) != null) {
+				cancel(stale);
+				try {
+					job.run();
+				} catch (RuntimeException e) {
+					LOGGER.error("Unable to run " + name + " job", e);
+				}
+			}
+			cancel(stale);
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadScheduler.class);
+	private static final Comparator<Job> URGENCY = new Comparator<Job>() {
+		public int compare(final Job j1, final Job j2) {
+			return LoadScheduler.compare(j1.getRequest(), j2.getRequest());
+		}
+	};
+
+	private static void cancel(final List<Job> stale) {
+		for (Job job : stale) {
+			LOGGER.debug("Cancelling {} @ {}", job.getRequest().path, job.getRequest().level);
+			job.cancel(false);
+		}
+		stale.clear();
+	}
+
+	/**
+	 * Compares the urgency of two requests.
+	 * 
+	 * @param r1
+	 *            the first request.
+	 * @param r2
+	 *            the second request.
+	 * @return a negative number if the first request is more urgent.
+	 */
+	protected static int compare(final LoadTask.Params r1, final LoadTask.Params r2) {
+		if (r1.distance != r2.distance) {
+			return (r1.distance < r2.distance) ? -1 : 1;
+		}
+		return (r1.sequence > r2.sequence) ? -1 : ((r1.sequence < r2.sequence) ? 1 : 0);
+	}
+
+	public final Stage decode;
+	public final Stage fetch;
+	public final Stage tile;
+	private final ConcurrentMap<JComponent, AtomicInteger> passes = new MapMaker().weakKeys().makeMap();
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Create a new LoadScheduler.
+	 * 
+	 * @param fetchThreads
+	 *            the maximum number of files to fetch at once.
+	 * @param decodeThreads
+	 *            the maximum number of images to decode at once.
+	 */
+	public LoadScheduler(final int fetchThreads, final int decodeThreads) {
+		fetch = new Stage("fetch", fetchThreads);
+		decode = new Stage("decode", decodeThreads);
+		tile = new Stage("tile", 1);
+	}
+
+	private int getPass(final JComponent component) {
+		AtomicInteger pass = passes.get(component);
+		return (pass == null) ? 0 : pass.get();
+	}
+
+	/**
+	 * Checks whether a request is stale.
+	 * 
+	 * @param request
+	 *            the request.
+	 * @return true if the component that made the request is gone or has
+	 *         stopped asking for the image.
+	 */
+	protected boolean isStale(final LoadTask.Params request) {
+		if (request.pass < 0) {
+			return false;
+		}
+		JComponent component = request.component.get();
+		return (component == null) || !component.isShowing() || (getPass(component) - request.pass >= 2);
+	}
+
+	/**
+	 * Stamps a request with its urgency.
+	 * 
+	 * @param request
+	 *            the request.
+	 * @param distance
+	 *            the distance in pixels of the image from the visible part of
+	 *            the component.
+	 */
+	public void stamp(final LoadTask.Params request, final int distance) {
+		JComponent component = request.component.get();
+		request.pass = (component == null) ? -1 : getPass(component);
+		request.distance = Math.max(0, distance);
+		request.sequence = sequence.incrementAndGet();
+	}
+
+	/**
+	 * Starts a new paint pass of a component.
+	 * 
+	 * @param component
+	 *            the component.
+	 */
+	public void startPass(final JComponent component) {
+		AtomicInteger pass = passes.get(component);
+		if (pass == null) {
+			pass = new AtomicInteger();
+			AtomicInteger existing = passes.putIfAbsent(component, pass);
+			if (existing != null) {
+				pass = existing;
+			}
+		}
+		pass.incrementAndGet();
+
+		// requests renewed in the last pass have new urgencies
+		List<Job> stale = Lists.newArrayList();
+		for (Stage stage : new Stage[] { fetch, decode, tile }) {
+			stage.reorder(stale);
+		}
+		cancel(stale);
+	}
+}
@@ -1,12 +1,18 @@
 package org.corewall.graphics.internal;
 
+import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
@@ -25,16 +31,28 @@ import org.slf4j.LoggerFactory;
 public class LoadTask implements Callable<BufferedImage> {
 	static class Params {
 		WeakReference<JComponent> component;
+		volatile int distance = 0;
 		Future<File> file;
 		boolean isVertical = false;
 		int level = 0;
+		volatile int pass = -1;
 		String path;
+		Future<TilePyramid> pyramid;
+		Rectangle region;
+		volatile long sequence = 0;
 
 		Params(final String path, final Future<File> file, final int level, final boolean isVertical,
 				final JComponent component) {
+			this(path, file, null, level, null, isVertical, component);
+		}
+
+		Params(final String path, final Future<File> file, final Future<TilePyramid> pyramid, final int level,
+				final Rectangle region, final boolean isVertical, final JComponent component) {
 			this.path = path;
 			this.file = file;
+			this.pyramid = pyramid;
 			this.level = level;
+			this.region = region;
 			this.isVertical = isVertical;
 			this.component = new WeakReference<JComponent>(component);
 		}
@@ -64,6 +82,13 @@ public class LoadTask implements Callable<BufferedImage> {
 			} else if (!path.equals(other.path)) {
 				return false;
 			}
+			if (region == null) {
+				if (other.region != null) {
+					return false;
+				}
+			} else if (!region.equals(other.region)) {
+				return false;
+			}
 			return true;
 		}
 
@@ -74,6 +99,7 @@ public class LoadTask implements Callable<BufferedImage> {
 			result = prime * result + (isVertical ? 1231 : 1237);
 			result = prime * result + level;
 			result = prime * result + ((path == null) ? 0 : path.hashCode());
+			result = prime * result + ((region == null) ? 0 : region.hashCode());
 			return result;
 		}
 
@@ -81,6 +107,105 @@ public class LoadTask implements Callable<BufferedImage> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(LoadTask.class);
 
+	private static int opaqueType = -1;
+	private static int translucentType = -1;
+
+	/**
+	 * Gets the image type that draws fastest on the default screen.
+	 * 
+	 * @param alpha
+	 *            true if the image has transparency.
+	 * @return the compatible type of the default graphics configuration or
+	 *         TYPE_INT_RGB or TYPE_INT_ARGB if headless.
+	 */
+	protected static synchronized int displayType(final boolean alpha) {
+		if (opaqueType < 0) {
+			opaqueType = BufferedImage.TYPE_INT_RGB;
+			translucentType = BufferedImage.TYPE_INT_ARGB;
+			if (!GraphicsEnvironment.isHeadless()) {
+				GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+						.getDefaultConfiguration();
+				int opaque = gc.createCompatibleImage(1, 1, Transparency.OPAQUE).getType();
+				int translucent = gc.createCompatibleImage(1, 1, Transparency.TRANSLUCENT).getType();
+				if (opaque != BufferedImage.TYPE_CUSTOM) {
+					opaqueType = opaque;
+				}
+				if (translucent != BufferedImage.TYPE_CUSTOM) {
+					translucentType = translucent;
+				}
+			}
+		}
+		return alpha ? translucentType : opaqueType;
+	}
+
+	/**
+	 * Rotates an image a quarter turn to the right so the top of the image is
+	 * on the right. Each row of pixels is copied into a column of the rotated
+	 * raster, so the only allocation is the rotated image and its color model
+	 * and pixel layout are kept.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @return the rotated image.
+	 */
+	protected static BufferedImage rotate(final BufferedImage image) {
+		final int w = image.getWidth();
+		final int h = image.getHeight();
+		WritableRaster src = image.getRaster();
+		WritableRaster dst = src.createCompatibleWritableRaster(h, w);
+
+		// source pixel (x, y) moves to (h - 1 - y, x); the destination is only
+		// written through its raster so it can still be cached by the display
+		Object row = null;
+		for (int y = 0; y < h; y++) {
+			row = src.getDataElements(0, y, w, 1, row);
+			dst.setDataElements(h - 1 - y, 0, 1, w, row);
+		}
+		return new BufferedImage(image.getColorModel(), dst, image.isAlphaPremultiplied(), null);
+	}
+
+	/**
+	 * Converts a decoded image to the type that draws fastest on the screen,
+	 * rotating it right at the same time if requested. Decoded images have
+	 * whatever layout the reader chose and their pixels have been handed out,
+	 * so they are always copied into a new image that Java2D can draw with
+	 * its fast loops and cache on the display.
+	 * 
+	 * @param image
+	 *            the decoded image.
+	 * @param rotate
+	 *            true to rotate the image right.
+	 * @return the converted image.
+	 */
+	protected static BufferedImage toDisplay(final BufferedImage image, final boolean rotate) {
+		int type = displayType(image.getColorModel().hasAlpha());
+		if (rotate && (image.getType() == type)) {
+			return rotate(image);
+		}
+		final int w = image.getWidth();
+		final int h = image.getHeight();
+		if (rotate && ((type == BufferedImage.TYPE_INT_RGB) || (type == BufferedImage.TYPE_INT_ARGB))
+				&& image.getColorModel().getColorSpace().isCS_sRGB()) {
+			// convert each row to packed pixels and copy it into a column
+			BufferedImage out = new BufferedImage(h, w, type);
+			WritableRaster dst = out.getRaster();
+			int[] row = new int[w];
+			for (int y = 0; y < h; y++) {
+				image.getRGB(0, y, w, 1, row, 0, w);
+				dst.setDataElements(h - 1 - y, 0, 1, w, row);
+			}
+			return out;
+		}
+
+		BufferedImage source = rotate ? rotate(image) : image;
+		BufferedImage out = new BufferedImage(source.getWidth(), source.getHeight(), type);
+		Graphics2D g2 = out.createGraphics();
+		g2.setComposite(AlphaComposite.Src);
+		g2.drawImage(source, 0, 0, null);
+		g2.dispose();
+		return out;
+	}
+
 	final Params params;
 
 	/**
@@ -94,10 +219,57 @@ public class LoadTask implements Callable<BufferedImage> {
 	}
 
 	public BufferedImage call() throws Exception {
-		ImageInputStream iis = null;
 		try {
 			LOGGER.debug("Loading {} @ {}", params.path, params.level);
 
+			// read the covering tiles if the pyramid is ready, otherwise decode
+			BufferedImage image = null;
+			if ((params.pyramid != null) && params.pyramid.isDone() && !params.pyramid.isCancelled()) {
+				try {
+					TilePyramid pyramid = params.pyramid.get();
+					if (pyramid != null) {
+						image = pyramid.read(params.level, params.region);
+					}
+				} catch (ExecutionException e) {
+					LOGGER.debug("No tile pyramid for {}", params.path);
+				} catch (IOException e) {
+					LOGGER.warn("Decoding {} instead of its tile pyramid: {}", params.path, e.getMessage());
+				}
+			}
+			if (image == null) {
+				image = decode();
+			}
+
+			// convert once for fast drawing and rotate right if not vertical
+			return toDisplay(image, !params.isVertical);
+		} catch (IOException ioe) {
+			LOGGER.error("Unable to load image", ioe);
+			return null;
+		} finally {
+			final JComponent component = params.component.get();
+			if (component != null) {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						component.invalidate();
+						component.validate();
+						component.repaint();
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Decodes the requested region of the source image at the requested
+	 * level.
+	 * 
+	 * @return the image.
+	 * @throws Exception
+	 *             thrown if the image cannot be decoded.
+	 */
+	private BufferedImage decode() throws Exception {
+		ImageInputStream iis = null;
+		try {
 			// set decimation level
 			final ImageReader imgReader = ImageIO.getImageReadersBySuffix(suffix(params.path)).next();
 			iis = ImageIO.createImageInputStream(params.file.get());
@@ -106,32 +278,12 @@ public class LoadTask implements Callable<BufferedImage> {
 			if (params.level > 0) {
 				readParam.setSourceSubsampling(params.level, params.level, 0, 0);
 			}
+			if (params.region != null) {
+				readParam.setSourceRegion(params.region);
+			}
 
 			// load image
-			BufferedImage image = imgReader.read(0, readParam);
-
-			// rotate right if not vertical
-			if (!params.isVertical) {
-				// create our new image and graphics
-				final BufferedImage out = new BufferedImage(image.getHeight(), image.getWidth(), image.getType());
-				final Graphics2D g2 = out.createGraphics();
-
-				// get our dimensions
-				final double w = image.getWidth();
-				final double h = image.getHeight();
-
-				// setup up an affine transformation
-				final AffineTransform at = AffineTransform.getRotateInstance(Math.PI / 2, h / 2, w / 2);
-				at.translate((h - w) / 2, (w - h) / 2);
-				g2.drawRenderedImage(image, at);
-				g2.dispose();
-				return out;
-			} else {
-				return image;
-			}
-		} catch (IOException ioe) {
-			LOGGER.error("Unable to load image", ioe);
-			return null;
+			return imgReader.read(0, readParam);
 		} finally {
 			if (iis != null) {
 				try {
@@ -140,16 +292,6 @@ public class LoadTask implements Callable<BufferedImage> {
 					// ignore
 				}
 			}
-			final JComponent component = params.component.get();
-			if (component != null) {
-				SwingUtilities.invokeLater(new Runnable() {
-					public void run() {
-						component.invalidate();
-						component.validate();
-						component.repaint();
-					}
-				});
-			}
 		}
 	}
 
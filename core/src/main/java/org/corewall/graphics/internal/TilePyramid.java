@@ -0,0 +1,408 @@
+package org.corewall.graphics.internal;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Properties;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * A multi-resolution pyramid of image tiles stored on disk next to the source
+ * image. Each power-of-two scale is cut into square tiles, so an image can be
+ * read at any level of detail by decoding only the tiles that cover it. Tiles
+ * of opaque images are stored as high quality JPEGs, which are much smaller
+ * and faster to decode, and tiles of images with alpha as PNGs. The pyramid is
+ * rebuilt if the length or last modified time of the source changes.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class TilePyramid {
+	private static final String INDEX = "pyramid.properties";
+	private static final float JPEG_QUALITY = 0.9f;
+	private static final Logger LOGGER = LoggerFactory.getLogger(TilePyramid.class);
+	private static final int MAX_SCALE = 8;
+	public static final int TILE = 512;
+
+	/**
+	 * Builds the pyramid for a source image. The source is decoded in
+	 * horizontal strips as tall as a tile at the smallest scale, so only one
+	 * strip of the full resolution image is in memory at a time.
+	 * 
+	 * @param source
+	 *            the source image.
+	 * @param dir
+	 *            the pyramid directory.
+	 * @return the pyramid.
+	 * @throws IOException
+	 *             thrown if the image cannot be read or the tiles written.
+	 */
+	protected static TilePyramid build(final File source, final File dir) throws IOException {
+		long start = System.currentTimeMillis();
+		ImageInputStream iis = ImageIO.createImageInputStream(source);
+		if (iis == null) {
+			throw new IOException("Unsupported image " + source);
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				throw new IOException("Unsupported image " + source);
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, false, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+
+				// halve the image until it fits in a single tile
+				int scales = 1;
+				while ((scales < MAX_SCALE)
+						&& (((width + scales - 1) / scales > TILE) || ((height + scales - 1) / scales > TILE))) {
+					scales *= 2;
+				}
+
+				// write to a temporary directory so a partial pyramid is never used
+				File temp = new File(dir.getParentFile(), dir.getName() + ".tmp");
+				if (temp.exists()) {
+					Files.deleteRecursively(temp);
+				}
+				Properties index = new Properties();
+				index.setProperty("length", Long.toString(source.length()));
+				index.setProperty("modified", Long.toString(source.lastModified()));
+				index.setProperty("width", Integer.toString(width));
+				index.setProperty("height", Integer.toString(height));
+				index.setProperty("tile", Integer.toString(TILE));
+				index.setProperty("scales", Integer.toString(scales));
+
+				// each strip covers whole rows of tiles at every scale
+				int strip = TILE * scales;
+				ImageReadParam param = reader.getDefaultReadParam();
+				String format = null;
+				for (int y = 0; y < height; y += strip) {
+					param.setSourceRegion(new Rectangle(0, y, width, Math.min(strip, height - y)));
+					BufferedImage level = reader.read(0, param);
+					if (format == null) {
+						format = level.getColorModel().hasAlpha() ? "png" : "jpg";
+						index.setProperty("format", format);
+					}
+					for (int scale = 1; true; scale *= 2) {
+						writeTiles(level, new File(temp, Integer.toString(scale)), y / scale / TILE, format);
+						if (scale >= scales) {
+							break;
+						}
+						level = scale(level, (level.getWidth() + 1) / 2, (level.getHeight() + 1) / 2);
+					}
+				}
+				OutputStream out = null;
+				try {
+					out = new FileOutputStream(new File(temp, INDEX));
+					index.store(out, "Tile pyramid");
+				} finally {
+					Closeables.closeQuietly(out);
+				}
+
+				if (dir.exists()) {
+					Files.deleteRecursively(dir);
+				}
+				if (!temp.renameTo(dir)) {
+					throw new IOException("Unable to move " + temp + " to " + dir);
+				}
+				LOGGER.debug("Built tile pyramid for {} in {} ms", source, System.currentTimeMillis() - start);
+				return new TilePyramid(dir, index);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			iis.close();
+		}
+	}
+
+	/**
+	 * Reads the dimensions of an image without decoding it.
+	 * 
+	 * @param source
+	 *            the image.
+	 * @return the width and height or null if the image cannot be read.
+	 * @throws IOException
+	 *             thrown if there is a problem reading the image.
+	 */
+	private static int[] dimensions(final File source) throws IOException {
+		ImageInputStream iis = ImageIO.createImageInputStream(source);
+		if (iis == null) {
+			return null;
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, true, true);
+				return new int[] { reader.getWidth(0), reader.getHeight(0) };
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			iis.close();
+		}
+	}
+
+	/**
+	 * Opens the pyramid for a source image, building it if it does not exist or
+	 * is out of date. The pyramid is stored in a directory named after the
+	 * source with a '.tiles' suffix.
+	 * 
+	 * @param source
+	 *            the source image.
+	 * @return the pyramid or null if the image fits in a single tile.
+	 * @throws IOException
+	 *             thrown if the pyramid cannot be built.
+	 */
+	public static TilePyramid open(final File source) throws IOException {
+		File dir = new File(source.getParentFile(), source.getName() + ".tiles");
+		File file = new File(dir, INDEX);
+		if (file.exists()) {
+			Properties index = new Properties();
+			InputStream in = null;
+			try {
+				in = new FileInputStream(file);
+				index.load(in);
+				if (Long.toString(source.length()).equals(index.getProperty("length"))
+						&& Long.toString(source.lastModified()).equals(index.getProperty("modified"))) {
+					return new TilePyramid(dir, index);
+				}
+			} catch (RuntimeException e) {
+				LOGGER.warn("Rebuilding invalid tile pyramid {}", dir);
+			} finally {
+				Closeables.closeQuietly(in);
+			}
+		}
+
+		int[] dim = dimensions(source);
+		if ((dim == null) || ((dim[0] <= TILE) && (dim[1] <= TILE))) {
+			return null;
+		}
+		return build(source, dir);
+	}
+
+	/**
+	 * Scales an image with bilinear interpolation.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @param width
+	 *            the new width.
+	 * @param height
+	 *            the new height.
+	 * @return the scaled image.
+	 */
+	protected static BufferedImage scale(final BufferedImage image, final int width, final int height) {
+		BufferedImage scaled = new BufferedImage(width, height, type(image));
+		Graphics2D g2 = scaled.createGraphics();
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2.drawImage(image, 0, 0, width, height, null);
+		g2.dispose();
+		return scaled;
+	}
+
+	private static int type(final BufferedImage image) {
+		if (image.getType() != BufferedImage.TYPE_CUSTOM) {
+			return image.getType();
+		}
+		return image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+	}
+
+	/**
+	 * Cuts a strip of a level into tiles.
+	 * 
+	 * @param strip
+	 *            the strip.
+	 * @param scaleDir
+	 *            the directory of the scale.
+	 * @param row
+	 *            the row of tiles the strip starts at.
+	 * @param format
+	 *            the tile format, either 'png' or 'jpg'.
+	 * @throws IOException
+	 *             thrown if a tile cannot be written.
+	 */
+	private static void writeTiles(final BufferedImage strip, final File scaleDir, final int row, final String format)
+			throws IOException {
+		scaleDir.mkdirs();
+		for (int y = 0; y < strip.getHeight(); y += TILE) {
+			for (int x = 0; x < strip.getWidth(); x += TILE) {
+				BufferedImage tile = strip.getSubimage(x, y, Math.min(TILE, strip.getWidth() - x), Math.min(TILE,
+						strip.getHeight() - y));
+				File file = new File(scaleDir, (x / TILE) + "_" + (row + y / TILE) + "." + format);
+				if ("jpg".equals(format)) {
+					writeJPEG(tile, file);
+				} else if (!ImageIO.write(tile, "png", file)) {
+					throw new IOException("No PNG writer available");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes an opaque tile as a high quality JPEG. Tiles that are not plain
+	 * RGB or gray, such as palette images, are converted to RGB first.
+	 * 
+	 * @param tile
+	 *            the tile.
+	 * @param file
+	 *            the file.
+	 * @throws IOException
+	 *             thrown if the tile cannot be written.
+	 */
+	private static void writeJPEG(final BufferedImage tile, final File file) throws IOException {
+		BufferedImage rgb = tile;
+		int type = tile.getType();
+		if ((type != BufferedImage.TYPE_INT_RGB) && (type != BufferedImage.TYPE_3BYTE_BGR)
+				&& (type != BufferedImage.TYPE_BYTE_GRAY)) {
+			rgb = new BufferedImage(tile.getWidth(), tile.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics2D g2 = rgb.createGraphics();
+			g2.drawImage(tile, 0, 0, null);
+			g2.dispose();
+		}
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		if (!writers.hasNext()) {
+			throw new IOException("No JPEG writer available");
+		}
+		ImageWriter writer = writers.next();
+		ImageOutputStream out = null;
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(JPEG_QUALITY);
+			file.delete();
+			out = ImageIO.createImageOutputStream(file);
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(rgb, null, null), param);
+		} finally {
+			writer.dispose();
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+
+	protected final File dir;
+	protected final String format;
+	protected final int height;
+	protected final int scales;
+	protected final int tile;
+	protected final int width;
+
+	protected TilePyramid(final File dir, final Properties index) {
+		this.dir = dir;
+		width = Integer.parseInt(index.getProperty("width"));
+		height = Integer.parseInt(index.getProperty("height"));
+		tile = Integer.parseInt(index.getProperty("tile"));
+		scales = Integer.parseInt(index.getProperty("scales"));
+		format = index.getProperty("format", "png");
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the stored scale to read a level from.
+	 * 
+	 * @param level
+	 *            the decimation level.
+	 * @return the largest stored power-of-two scale not larger than the level.
+	 */
+	public int getScale(final int level) {
+		int scale = 1;
+		while ((scale * 2 <= level) && (scale * 2 <= scales)) {
+			scale *= 2;
+		}
+		return scale;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Reads the image at the specified level of detail. The result has the
+	 * same dimensions as decoding the source with a subsampling of the level.
+	 * 
+	 * @param level
+	 *            the decimation level.
+	 * @param region
+	 *            the region of the source image to read or null for the whole
+	 *            image.
+	 * @return the image.
+	 * @throws IOException
+	 *             thrown if a tile cannot be read.
+	 */
+	public BufferedImage read(final int level, final Rectangle region) throws IOException {
+		int step = Math.max(1, level);
+		Rectangle source = (region == null) ? new Rectangle(0, 0, width, height) : region.intersection(new Rectangle(
+				0, 0, width, height));
+		if (source.isEmpty()) {
+			throw new IOException("Region " + region + " is outside of the image");
+		}
+
+		// find the covering area at the stored scale
+		int scale = getScale(step);
+		int x0 = source.x / scale;
+		int y0 = source.y / scale;
+		int x1 = Math.min((width + scale - 1) / scale, (source.x + source.width + scale - 1) / scale);
+		int y1 = Math.min((height + scale - 1) / scale, (source.y + source.height + scale - 1) / scale);
+
+		// draw the covering tiles
+		BufferedImage image = null;
+		Graphics2D g2 = null;
+		File scaleDir = new File(dir, Integer.toString(scale));
+		try {
+			for (int row = y0 / tile; row <= (y1 - 1) / tile; row++) {
+				for (int col = x0 / tile; col <= (x1 - 1) / tile; col++) {
+					File file = new File(scaleDir, col + "_" + row + "." + format);
+					BufferedImage t = ImageIO.read(file);
+					if (t == null) {
+						throw new IOException("Unable to read tile " + file);
+					}
+					if (image == null) {
+						image = new BufferedImage(x1 - x0, y1 - y0, type(t));
+						g2 = image.createGraphics();
+					}
+					g2.drawImage(t, col * tile - x0, row * tile - y0, null);
+				}
+			}
+		} finally {
+			if (g2 != null) {
+				g2.dispose();
+			}
+		}
+
+		// scale to the exact level
+		int w = (source.width + step - 1) / step;
+		int h = (source.height + step - 1) / step;
+		return ((image.getWidth() == w) && (image.getHeight() == h)) ? image : scale(image, w, h);
+	}
+}
@@ -0,0 +1,73 @@
+package org.corewall.internal;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.corewall.ModelProbe;
+import org.corewall.data.Model;
+import org.corewall.geology.models.Image;
+import org.corewall.graphics.internal.ImageCache;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+/**
+ * Default implementation of the {@link ModelProbe} interface. The metadata of
+ * the images among the models is read concurrently into the image metadata
+ * index on a daemon thread, and then each image picks up its dimensions from
+ * the index.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@Singleton
+public class DefaultModelProbe implements ModelProbe {
+	protected final Provider<ImageCache> cache;
+	protected final ExecutorService executor;
+
+	/**
+	 * Create a new DefaultModelProbe.
+	 * 
+	 * @param cache
+	 *            the provider of the image cache, only used once there are
+	 *            images to probe.
+	 */
+	@Inject
+	public DefaultModelProbe(final Provider<ImageCache> cache) {
+		this.cache = cache;
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 10, SECONDS, new LinkedBlockingQueue<Runnable>());
+		pool.allowCoreThreadTimeOut(true);
+		executor = MoreExecutors.getExitingExecutorService(pool, 1, SECONDS);
+	}
+
+	public Future<?> probe(final List<? extends Model> models) {
+		final List<Image> images = Lists.newArrayList();
+		final List<URL> urls = Lists.newArrayList();
+		for (Model model : models) {
+			if ((model instanceof Image) && (((Image) model).getPath() != null)) {
+				images.add((Image) model);
+				urls.add(((Image) model).getPath());
+			}
+		}
+		if (images.isEmpty()) {
+			return Futures.immediateFuture(null);
+		}
+		return executor.submit(new Runnable() {
+			public void run() {
+				cache.get().probe(urls);
+				for (Image image : images) {
+					image.probe();
+				}
+			}
+		});
+	}
+}
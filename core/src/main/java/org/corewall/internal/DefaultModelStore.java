@@ -0,0 +1,255 @@
+package org.corewall.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.corewall.ModelStore;
+import org.corewall.ProjectLoader;
+import org.corewall.data.Model;
+import org.corewall.data.Project.ManifestEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Default implementation of the {@link ModelStore} interface. Entries are read
+ * through the {@link ProjectLoader}, so a dropped entry is reloaded from the
+ * parsed model cache when its source has not changed. Entries are stored by
+ * their path, format and type, so equivalent entries from different manifests
+ * share their models. The size of an entry is estimated from the properties of a
+ * sample of its models. Concurrent requests for the same entry share a single
+ * load.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@Singleton
+public class DefaultModelStore implements ModelStore {
+	/**
+	 * The path, format and type of an entry.
+	 */
+	private static class Key {
+		final String format;
+		final String path;
+		final String type;
+
+		Key(final ManifestEntry entry) {
+			format = entry.getFormat();
+			path = (entry.getPath() == null) ? null : entry.getPath().toExternalForm();
+			type = entry.getType();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return Objects.equal(path, other.path) && Objects.equal(format, other.format)
+					&& Objects.equal(type, other.type);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(path, format, type);
+		}
+
+		@Override
+		public String toString() {
+			return format + ":" + type + " " + path;
+		}
+	}
+
+	/**
+	 * The models of an entry and their estimated size.
+	 */
+	private static class Stored {
+		final long bytes;
+		final List<? extends Model> models;
+
+		Stored(final List<? extends Model> models, final long bytes) {
+			this.models = models;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final int ENTRY_OVERHEAD = 64;
+	private static final int FIELD_OVERHEAD = 80;
+	private static final Logger LOG = LoggerFactory.getLogger(DefaultModelStore.class);
+	private static final int MODEL_OVERHEAD = 48;
+	private static final int SAMPLES = 16;
+
+	/**
+	 * Estimates the memory used by a list of models.
+	 * 
+	 * @param models
+	 *            the models.
+	 * @return the estimated size in bytes.
+	 */
+	protected static long estimate(final List<? extends Model> models) {
+		int size = models.size();
+		if (size == 0) {
+			return ENTRY_OVERHEAD;
+		}
+		int samples = Math.min(SAMPLES, size);
+		long sampled = 0;
+		for (int i = 0; i < samples; i++) {
+			sampled += MODEL_OVERHEAD;
+			for (Entry<String, String> e : models.get((int) ((long) i * size / samples)).toMap().entrySet()) {
+				sampled += FIELD_OVERHEAD + 2 * (length(e.getKey()) + length(e.getValue()));
+			}
+		}
+		return ENTRY_OVERHEAD + 4L * size + sampled * size / samples;
+	}
+
+	private static int length(final String value) {
+		return (value == null) ? 0 : value.length();
+	}
+
+	protected final long budget;
+	private final Map<Key, Stored> entries = new LinkedHashMap<Key, Stored>(16, 0.75f, true);
+	private final Map<Key, FutureTask<Stored>> loading = Maps.newHashMap();
+	protected final ProjectLoader loader;
+	private long size = 0;
+
+	/**
+	 * Create a new DefaultModelStore with a budget of a quarter of the maximum
+	 * heap.
+	 * 
+	 * @param loader
+	 *            the project loader.
+	 */
+	@Inject
+	DefaultModelStore(final ProjectLoader loader) {
+		this(loader, Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * Create a new DefaultModelStore.
+	 * 
+	 * @param loader
+	 *            the project loader.
+	 * @param budget
+	 *            the memory budget in bytes.
+	 */
+	public DefaultModelStore(final ProjectLoader loader, final long budget) {
+		this.loader = loader;
+		this.budget = budget;
+	}
+
+	public List<? extends Model> get(final ManifestEntry entry) throws IOException {
+		Key key = new Key(entry);
+		FutureTask<Stored> task;
+		boolean owner = false;
+		synchronized (this) {
+			Stored stored = entries.get(key);
+			if (stored != null) {
+				return stored.models;
+			}
+			task = loading.get(key);
+			if (task == null) {
+				task = new FutureTask<Stored>(new Callable<Stored>() {
+					public Stored call() throws Exception {
+						List<? extends Model> models = loader.read(entry);
+						return new Stored(Collections.unmodifiableList(models), estimate(models));
+					}
+				});
+				loading.put(key, task);
+				owner = true;
+			}
+		}
+
+		try {
+			if (owner) {
+				task.run();
+			}
+			Stored stored = task.get();
+			if (owner) {
+				store(key, task, stored);
+			}
+			return stored.models;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else {
+				throw new IOException("Unable to load entry '" + entry.getName() + "'", e.getCause());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading entry '" + entry.getName() + "'");
+		} finally {
+			if (owner) {
+				synchronized (this) {
+					if (loading.get(key) == task) {
+						loading.remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public synchronized List<? extends Model> getIfPresent(final ManifestEntry entry) {
+		Stored stored = entries.get(new Key(entry));
+		return (stored == null) ? null : stored.models;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized void invalidate(final ManifestEntry entry) {
+		Key key = new Key(entry);
+		loading.remove(key);
+		Stored stored = entries.remove(key);
+		if (stored != null) {
+			size -= stored.bytes;
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		loading.clear();
+		entries.clear();
+		size = 0;
+	}
+
+	private synchronized void store(final Key key, final FutureTask<Stored> task, final Stored stored) {
+		if (loading.get(key) != task) {
+			// invalidated while loading
+			return;
+		}
+		entries.put(key, stored);
+		size += stored.bytes;
+
+		// drop the least recently used entries, but always keep the newest
+		Iterator<Entry<Key, Stored>> i = entries.entrySet().iterator();
+		while ((size > budget) && (entries.size() > 1) && i.hasNext()) {
+			Entry<Key, Stored> eldest = i.next();
+			if (!eldest.getKey().equals(key)) {
+				LOG.debug("Dropping entry {} ({} bytes)", eldest.getKey(), eldest.getValue().bytes);
+				size -= eldest.getValue().bytes;
+				i.remove();
+			}
+		}
+	}
+}
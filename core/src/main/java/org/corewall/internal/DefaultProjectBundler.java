@@ -0,0 +1,760 @@
+package org.corewall.internal;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.corewall.ProjectBundler;
+import org.corewall.data.Cells;
+import org.corewall.data.Factory;
+import org.corewall.data.Format;
+import org.corewall.data.FormatRegistry;
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.Attr;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.data.formats.AbstractFormat;
+import org.corewall.data.formats.CachedFormat;
+import org.corewall.geology.models.Image;
+import org.corewall.internal.DefaultProject.DefaultManifestEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.common.io.CountingOutputStream;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * A default implementation of the {@link ProjectBundler} interface.
+ * <p>
+ * A bundle starts with a magic number, a version and the offset of its table
+ * of contents, which is written last. Each entry is stored as a table block:
+ * the row and column counts, the column keys, and then each column in turn.
+ * Text is stored as an array of end offsets followed by the UTF-8 bytes of the
+ * values. A column whose values all parse as numbers is stored as doubles,
+ * followed by the row numbers and text of the values that do not survive the
+ * round trip through {@link Double#toString(double)}, such as integers or
+ * fixed-precision values, so they read back exactly. Each image is stored as one encoded block per
+ * decimation level. Blocks are mapped individually when they are read.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@Singleton
+public class DefaultProjectBundler implements ProjectBundler {
+	/**
+	 * A stored decimation level of an image.
+	 */
+	private static class Level {
+		final int height;
+		final int length;
+		final int level;
+		final long offset;
+		final int width;
+
+		Level(final int level, final int width, final int height, final long offset, final int length) {
+			this.level = level;
+			this.width = width;
+			this.height = height;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * An open bundle file.
+	 */
+	private class MappedBundle implements Bundle {
+		private final FileChannel channel;
+		private final RandomAccessFile file;
+		private final Map<String, List<Level>> images = Maps.newHashMap();
+		private final DefaultProject project = new DefaultProject();
+		private final Map<ManifestEntry, long[]> tables = Maps.newHashMap();
+
+		MappedBundle(final File path) throws IOException {
+			file = new RandomAccessFile(path, "r");
+			channel = file.getChannel();
+			try {
+				long size = channel.size();
+				if (size < HEADER) {
+					throw new IOException("Not a project bundle: " + path);
+				}
+				ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER);
+				byte[] magic = new byte[MAGIC.length];
+				header.get(magic);
+				if (!Arrays.equals(MAGIC, magic) || (header.getInt() != VERSION)) {
+					throw new IOException("Not a project bundle: " + path);
+				}
+				long toc = header.getLong();
+				if ((toc < HEADER) || (toc > size)) {
+					throw new IOException("Corrupt project bundle: " + path);
+				}
+				try {
+					readContents(channel.map(MapMode.READ_ONLY, toc, size - toc), toc);
+				} catch (RuntimeException e) {
+					throw new IOException("Corrupt project bundle: " + path, e);
+				}
+				project.setPath(path);
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		public void close() throws IOException {
+			Closeables.closeQuietly(channel);
+			Closeables.closeQuietly(file);
+		}
+
+		public BufferedImage getImage(final URL path, final int level) throws IOException {
+			List<Level> levels = images.get(path.toExternalForm());
+			if (levels == null) {
+				return null;
+			}
+			Level closest = null;
+			for (Level l : levels) {
+				if ((l.level <= level) && ((closest == null) || (l.level > closest.level))) {
+					closest = l;
+				}
+			}
+			if (closest == null) {
+				return null;
+			}
+			return ImageIO.read(new BufferStream(channel.map(MapMode.READ_ONLY, closest.offset, closest.length)));
+		}
+
+		public List<? extends Model> getModels(final ManifestEntry entry) throws IOException {
+			Format<?> format = getFormat(entry);
+			Table table = getTable(entry);
+			if (format instanceof AbstractFormat<?>) {
+				return ((AbstractFormat<?>) format).build(table.keys, table.rows());
+			} else if (format instanceof CachedFormat<?>) {
+				return ((CachedFormat<?>) format).build(table.keys, table.rows());
+			} else {
+				throw new IOException("No format '" + entry.getFormat() + "' for entry '" + entry.getName() + "'");
+			}
+		}
+
+		public Project getProject() {
+			return project;
+		}
+
+		public List<Map<String, String>> getRaw(final ManifestEntry entry) throws IOException {
+			Table table = getTable(entry);
+			List<Map<String, String>> raw = Lists.newArrayListWithCapacity(table.count);
+			for (Iterator<Cells> i = table.rows(); i.hasNext();) {
+				Cells cells = i.next();
+				Map<String, String> map = Maps.newHashMap();
+				for (int c = 0; c < table.keys.length; c++) {
+					String value = cells.get(c);
+					if (value != null) {
+						map.put(table.keys[c], value);
+					}
+				}
+				raw.add(map);
+			}
+			return raw;
+		}
+
+		private Table getTable(final ManifestEntry entry) throws IOException {
+			long[] block = tables.get(entry);
+			if ((block == null) || (block[0] < 0)) {
+				throw new IOException("Entry '" + entry.getName() + "' is not in the bundle");
+			}
+			try {
+				return new Table(channel.map(MapMode.READ_ONLY, block[0], block[1]));
+			} catch (RuntimeException e) {
+				throw new IOException("Corrupt entry '" + entry.getName() + "' in bundle", e);
+			}
+		}
+
+		private void readContents(final ByteBuffer toc, final long end) throws IOException {
+			project.setId(readString(toc));
+			project.setName(readString(toc));
+			for (int i = toc.getInt(); i > 0; i--) {
+				Attr attr = Attr.valueOf(readString(toc));
+				project.setAttribute(attr, readString(toc));
+			}
+			for (int i = toc.getInt(); i > 0; i--) {
+				String name = readString(toc);
+				String type = readString(toc);
+				String format = readString(toc);
+				String path = readString(toc);
+				URL url = null;
+				try {
+					url = (path == null) ? null : new URL(path);
+				} catch (IOException e) {
+					LOG.warn("Invalid path {} in bundle", path);
+				}
+				ManifestEntry entry = new DefaultManifestEntry(name, type, format, url);
+				long[] block = { toc.getLong(), toc.getLong() };
+				if ((block[0] >= 0) && !inside(block[0], block[1], end)) {
+					throw new IOException("Entry '" + name + "' is outside the bundle");
+				}
+				project.addEntry(entry);
+				tables.put(entry, block);
+			}
+			for (int i = toc.getInt(); i > 0; i--) {
+				String path = readString(toc);
+				List<Level> levels = Lists.newArrayList();
+				for (int j = toc.getInt(); j > 0; j--) {
+					Level level = new Level(toc.getInt(), toc.getInt(), toc.getInt(), toc.getLong(), toc.getInt());
+					if (!inside(level.offset, level.length, end)) {
+						throw new IOException("Image '" + path + "' is outside the bundle");
+					}
+					levels.add(level);
+				}
+				images.put(path, levels);
+			}
+		}
+	}
+
+	/**
+	 * Reads a mapped buffer as a stream.
+	 */
+	private static class BufferStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+	}
+
+	/**
+	 * A mapped table block, read row by row as {@link Cells}.
+	 */
+	private static class Table implements Cells {
+		private final ByteBuffer buffer;
+		final int count;
+		private final byte[] encodings;
+		private final int[] exceptions;
+		final String[] keys;
+		private int row = -1;
+		private byte[] scratch = new byte[64];
+		private final int[] starts;
+		private final int[] texts;
+
+		Table(final ByteBuffer buffer) {
+			this.buffer = buffer;
+			count = buffer.getInt();
+			int columns = buffer.getInt();
+			if ((count < 0) || (columns < 0)) {
+				throw new IllegalArgumentException("Negative table size");
+			}
+			keys = new String[columns];
+			encodings = new byte[columns];
+			for (int c = 0; c < columns; c++) {
+				keys[c] = readString(buffer);
+				encodings[c] = buffer.get();
+			}
+			starts = new int[columns];
+			exceptions = new int[columns];
+			texts = new int[columns];
+			int position = buffer.position();
+			for (int c = 0; c < columns; c++) {
+				starts[c] = position;
+				if (encodings[c] == NUMBERS) {
+					position += count * 8;
+					exceptions[c] = buffer.getInt(position);
+					if ((exceptions[c] < 0) || (exceptions[c] > count)) {
+						throw new IllegalArgumentException("Invalid exception count");
+					}
+					position += 4 + exceptions[c] * 4;
+					texts[c] = position;
+					position = skipText(position, exceptions[c]);
+				} else {
+					texts[c] = position;
+					position = skipText(position, count);
+				}
+			}
+			if ((position < 0) || (position > buffer.limit())) {
+				throw new BufferUnderflowException();
+			}
+		}
+
+		public String get(final int column) {
+			if ((column < 0) || (column >= keys.length)) {
+				return null;
+			}
+			if (encodings[column] != NUMBERS) {
+				return getText(column, row);
+			}
+			int exception = findException(column);
+			if (exception >= 0) {
+				return getText(column, exception);
+			}
+			return Double.toString(buffer.getDouble(starts[column] + row * 8));
+		}
+
+		public double getDouble(final int column) {
+			if ((column < 0) || (column >= keys.length) || (encodings[column] != NUMBERS)) {
+				return Double.NaN;
+			}
+			return buffer.getDouble(starts[column] + row * 8);
+		}
+
+		/**
+		 * Finds the current row among the sorted exception rows of a number
+		 * column.
+		 * 
+		 * @param column
+		 *            the column.
+		 * @return the index of the exception or a negative number if the row
+		 *         has no exception.
+		 */
+		private int findException(final int column) {
+			int rows = starts[column] + count * 8 + 4;
+			int low = 0;
+			int high = exceptions[column] - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int value = buffer.getInt(rows + mid * 4);
+				if (value < row) {
+					low = mid + 1;
+				} else if (value > row) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+
+		/**
+			 * Reads a value from the text of a column.
+			 * 
+			 * @param column
+			 *            the column.
+			 * @param index
+			 *            the index of the value in the text.
+			 * @return the value.
+			 */
+		private String getText(final int column, final int index) {
+			int ends = texts[column];
+			int end = buffer.getInt(ends + index * 4);
+			if ((end & NULL) != 0) {
+				return null;
+			}
+			int start = (index == 0) ? 0 : buffer.getInt(ends + (index - 1) * 4) & ~NULL;
+			int length = end - start;
+			if (scratch.length < length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+			int bytes = ends + ((encodings[column] == NUMBERS) ? exceptions[column] : count) * 4;
+			for (int i = 0; i < length; i++) {
+				scratch[i] = buffer.get(bytes + start + i);
+			}
+			return new String(scratch, 0, length, UTF8);
+		}
+
+		Iterator<Cells> rows() {
+			row = -1;
+			return new Iterator<Cells>() {
+				public boolean hasNext() {
+					return row + 1 < count;
+				}
+
+				public Cells next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					row++;
+					return Table.this;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		public int size() {
+			return keys.length;
+		}
+
+		private int skipText(final int ends, final int n) {
+			int position = ends + n * 4;
+			if (n > 0) {
+				position += buffer.getInt(position - 4) & ~NULL;
+			}
+			return position;
+		}
+
+	}
+
+	private static final int BUFFER = 256 * 1024;
+	private static final int HEADER = 20;
+	private static final int[] LEVELS = { 2, 4, 8 };
+	private static final Logger LOG = LoggerFactory.getLogger(DefaultProjectBundler.class);
+	private static final byte[] MAGIC = { 'C', 'W', 'B', 'U', 'N', 'D', 'L', 'E' };
+	private static final int NULL = 0x80000000;
+	private static final byte NUMBERS = 2;
+	private static final byte STRINGS = 0;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int VERSION = 2;
+
+	private static boolean inside(final long offset, final long length, final long end) {
+		return (offset >= HEADER) && (length >= 0) && (offset + length <= end);
+	}
+
+	private static boolean isNumber(final String value) {
+		try {
+			Double.parseDouble(value);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static String suffix(final String path) {
+		int index = path.lastIndexOf('.');
+		return (index == -1) ? "png" : path.substring(index + 1).toLowerCase();
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	protected final int[] levels;
+	protected final FormatRegistry registry;
+
+	/**
+	 * Create a new DefaultProjectBundler.
+	 * 
+	 * @param registry
+	 *            the format registry.
+	 */
+	@Inject
+	public DefaultProjectBundler(final FormatRegistry registry) {
+		this(registry, LEVELS);
+	}
+
+	/**
+	 * Create a new DefaultProjectBundler that stores the specified image
+	 * levels.
+	 * 
+	 * @param registry
+	 *            the format registry.
+	 * @param levels
+	 *            the decimation levels to store for each image.
+	 */
+	public DefaultProjectBundler(final FormatRegistry registry, final int... levels) {
+		this.registry = registry;
+		this.levels = levels.clone();
+		Arrays.sort(this.levels);
+	}
+
+	public void export(final Project project, final File file) throws IOException {
+		// write next to the destination and rename so a failed export never
+		// leaves a partial bundle in its place
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		CountingOutputStream counter = null;
+		DataOutputStream out = null;
+		boolean done = false;
+		try {
+			counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER));
+			out = new DataOutputStream(counter);
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(0);
+
+			// write the entries and collect the images they reference
+			List<long[]> tables = Lists.newArrayList();
+			Set<URL> images = Sets.newLinkedHashSet();
+			for (ManifestEntry entry : project.getManifest()) {
+				Format<?> format = getFormat(entry);
+				if ((format == null) || (entry.getPath() == null)) {
+					LOG.warn("Skipping entry '{}' without a path or format", entry.getName());
+					tables.add(new long[] { -1, 0 });
+					continue;
+				}
+				List<Map<String, String>> raw = format.getRaw(entry.getPath());
+				long start = counter.getCount();
+				writeTable(out, raw);
+				tables.add(new long[] { start, counter.getCount() - start });
+
+				Factory<?> factory = getFactory(format);
+				if (factory != null) {
+					for (Map<String, String> map : raw) {
+						Model model = factory.build(map);
+						if (model instanceof Image) {
+							images.add(((Image) model).getPath());
+						}
+					}
+				}
+			}
+
+			// write the image levels
+			Map<URL, List<Level>> stored = Maps.newLinkedHashMap();
+			for (URL url : images) {
+				List<Level> list = Lists.newArrayList();
+				for (int level : levels) {
+					try {
+						list.add(writeLevel(out, counter, url, level));
+					} catch (IOException e) {
+						LOG.error("Unable to store " + url + " @ " + level, e);
+					}
+				}
+				stored.put(url, list);
+			}
+
+			// write the table of contents
+			long toc = counter.getCount();
+			writeString(out, project.getId());
+			writeString(out, project.getName());
+			List<Attr> attrs = Lists.newArrayList();
+			for (Attr attr : Attr.values()) {
+				if (project.getAttribute(attr) != null) {
+					attrs.add(attr);
+				}
+			}
+			out.writeInt(attrs.size());
+			for (Attr attr : attrs) {
+				writeString(out, attr.name());
+				writeString(out, project.getAttribute(attr));
+			}
+			List<ManifestEntry> manifest = project.getManifest();
+			out.writeInt(manifest.size());
+			for (int i = 0; i < manifest.size(); i++) {
+				ManifestEntry entry = manifest.get(i);
+				writeString(out, entry.getName());
+				writeString(out, entry.getType());
+				writeString(out, entry.getFormat());
+				writeString(out, (entry.getPath() == null) ? null : entry.getPath().toExternalForm());
+				out.writeLong(tables.get(i)[0]);
+				out.writeLong(tables.get(i)[1]);
+			}
+			out.writeInt(stored.size());
+			for (Map.Entry<URL, List<Level>> e : stored.entrySet()) {
+				writeString(out, e.getKey().toExternalForm());
+				out.writeInt(e.getValue().size());
+				for (Level l : e.getValue()) {
+					out.writeInt(l.level);
+					out.writeInt(l.width);
+					out.writeInt(l.height);
+					out.writeLong(l.offset);
+					out.writeInt(l.length);
+				}
+			}
+			out.close();
+
+			// point the header at the table of contents
+			RandomAccessFile patch = new RandomAccessFile(temp, "rw");
+			try {
+				patch.seek(HEADER - 8);
+				patch.writeLong(toc);
+			} finally {
+				patch.close();
+			}
+
+			if (file.exists() && !file.delete()) {
+				throw new IOException("Unable to replace " + file);
+			}
+			if (!temp.renameTo(file)) {
+				throw new IOException("Unable to rename " + temp + " to " + file);
+			}
+			done = true;
+		} finally {
+			Closeables.closeQuietly(out);
+			if (!done && !temp.delete()) {
+				LOG.warn("Unable to delete {}", temp);
+			}
+		}
+	}
+
+	protected Factory<?> getFactory(final Format<?> format) {
+		if (format instanceof AbstractFormat<?>) {
+			return ((AbstractFormat<?>) format).getFactory();
+		} else if (format instanceof CachedFormat<?>) {
+			return ((CachedFormat<?>) format).getFactory();
+		} else {
+			return null;
+		}
+	}
+
+	protected Format<?> getFormat(final ManifestEntry entry) {
+		Format<?> format = registry.get(entry.getFormat() + ":" + entry.getType());
+		return (format == null) ? registry.get(entry.getFormat()) : format;
+	}
+
+	public Bundle open(final File file) throws IOException {
+		return new MappedBundle(file);
+	}
+
+	private Level writeLevel(final DataOutputStream out, final CountingOutputStream counter, final URL url,
+			final int level) throws IOException {
+		String suffix = suffix(url.getPath());
+		BufferedImage image;
+		ImageInputStream iis = null;
+		InputStream in = null;
+		try {
+			in = url.openStream();
+			iis = ImageIO.createImageInputStream(in);
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				throw new IOException("No image reader for " + url);
+			}
+			ImageReader reader = readers.next();
+			reader.setInput(iis);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceSubsampling(level, level, 0, 0);
+			image = reader.read(0, param);
+			reader.dispose();
+		} finally {
+			if (iis != null) {
+				iis.close();
+			}
+			Closeables.closeQuietly(in);
+		}
+
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		if (!ImageIO.write(image, suffix, encoded)) {
+			encoded.reset();
+			ImageIO.write(image, "png", encoded);
+		}
+		long offset = counter.getCount();
+		encoded.writeTo(out);
+		return new Level(level, image.getWidth(), image.getHeight(), offset, encoded.size());
+	}
+
+	private void writeTable(final DataOutputStream out, final List<Map<String, String>> raw) throws IOException {
+		Set<String> union = Sets.newLinkedHashSet();
+		for (Map<String, String> map : raw) {
+			union.addAll(map.keySet());
+		}
+		String[] keys = union.toArray(new String[union.size()]);
+		byte[] encodings = new byte[keys.length];
+		for (int c = 0; c < keys.length; c++) {
+			encodings[c] = NUMBERS;
+			for (Map<String, String> map : raw) {
+				String value = map.get(keys[c]);
+				if ((value != null) && !isNumber(value)) {
+					encodings[c] = STRINGS;
+					break;
+				}
+			}
+		}
+
+		out.writeInt(raw.size());
+		out.writeInt(keys.length);
+		for (int c = 0; c < keys.length; c++) {
+			writeString(out, keys[c]);
+			out.writeByte(encodings[c]);
+		}
+		for (int c = 0; c < keys.length; c++) {
+			List<String> values = Lists.newArrayListWithCapacity(raw.size());
+			for (Map<String, String> map : raw) {
+				values.add(map.get(keys[c]));
+			}
+			if (encodings[c] == NUMBERS) {
+				// keep the text of the values that do not round trip
+				List<Integer> rows = Lists.newArrayList();
+				List<String> exceptions = Lists.newArrayList();
+				for (int r = 0; r < values.size(); r++) {
+					String value = values.get(r);
+					double d = (value == null) ? Double.NaN : Double.parseDouble(value);
+					out.writeDouble(d);
+					if ((value == null) || !Double.toString(d).equals(value)) {
+						rows.add(r);
+						exceptions.add(value);
+					}
+				}
+				out.writeInt(rows.size());
+				for (int r : rows) {
+					out.writeInt(r);
+				}
+				writeText(out, exceptions);
+			} else {
+				writeText(out, values);
+			}
+		}
+	}
+
+	private void writeText(final DataOutputStream out, final List<String> values) throws IOException {
+		byte[][] bytes = new byte[values.size()][];
+		int end = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			String value = values.get(i);
+			if (value == null) {
+				out.writeInt(end | NULL);
+			} else {
+				bytes[i] = value.getBytes(UTF8);
+				end += bytes[i].length;
+				out.writeInt(end);
+			}
+		}
+		for (byte[] value : bytes) {
+			if (value != null) {
+				out.write(value);
+			}
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package org.corewall.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.corewall.ProjectCatalog;
+import org.corewall.data.Format;
+import org.corewall.data.FormatRegistry;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.data.models.Length;
+import org.corewall.data.models.Unit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * A default implementation of the {@link ProjectCatalog} interface. The catalog
+ * is a properties file named 'catalog.properties' next to the project file.
+ * The depth of a row is read from its 'top' or 'depth' field and extends to
+ * its 'base' field if it has one. Entries are signed by the length and last
+ * modified time of their source file, like the {@link DefaultProjectWatcher}.
+ * Entries that are not local files cannot be signed without going over the
+ * network, so they are summarized once and their summary is reused. An entry
+ * that cannot be read is left out of the catalog without failing the update.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@Singleton
+public class DefaultProjectCatalog implements ProjectCatalog {
+	/**
+	 * A catalog file as last read.
+	 */
+	private static class Catalog {
+		final long modified;
+		final ImmutableMap<String, Summary> summaries;
+
+		Catalog(final long modified, final ImmutableMap<String, Summary> summaries) {
+			this.modified = modified;
+			this.summaries = summaries;
+		}
+	}
+
+	private static final int BINS = 32;
+	private static final String CATALOG = "catalog.properties";
+	private static final Logger LOG = LoggerFactory.getLogger(DefaultProjectCatalog.class);
+	private static final Joiner JOIN = Joiner.on(',');
+	private static final Splitter SPLIT = Splitter.on(',').omitEmptyStrings();
+	private static final Joiner TAB = Joiner.on('\t');
+
+	/**
+	 * Parses a depth in meters.
+	 * 
+	 * @param value
+	 *            the value, optionally with a unit.
+	 * @return the depth or NaN if the value is missing or invalid.
+	 */
+	protected static double depth(final String value) {
+		if ((value == null) || (value.length() == 0)) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			try {
+				return Length.valueOf(value.trim()).to(Unit.METER).getValue().doubleValue();
+			} catch (RuntimeException re) {
+				return Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * Gets the file of an entry.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @return the file or null if the entry is not a local file.
+	 */
+	protected static File file(final ManifestEntry entry) {
+		URL path = entry.getPath();
+		if ((path == null) || !"file".equals(path.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(path.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the key of an entry in the catalog.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @return the external form of the entry's path or null if it has none.
+	 */
+	protected static String key(final ManifestEntry entry) {
+		URL path = entry.getPath();
+		return (path == null) ? null : path.toExternalForm();
+	}
+
+	private static double parse(final String value) {
+		return (value == null) ? Double.NaN : Double.parseDouble(value);
+	}
+
+	/**
+	 * Gets the signature of an entry's source.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @return the signature or null if the source is not a local file.
+	 */
+	protected static String signature(final ManifestEntry entry) {
+		File file = file(entry);
+		return ((file == null) || !file.exists()) ? null : file.length() + ":" + file.lastModified();
+	}
+
+	/**
+	 * Summarizes the raw maps of an entry.
+	 * 
+	 * @param signature
+	 *            the signature of the entry.
+	 * @param raw
+	 *            the raw maps.
+	 * @return the summary.
+	 */
+	protected static Summary summarize(final String signature, final List<Map<String, String>> raw) {
+		Set<String> fields = Sets.newLinkedHashSet();
+		double[] tops = new double[raw.size()];
+		double min = Double.NaN;
+		double max = Double.NaN;
+		for (int i = 0; i < tops.length; i++) {
+			Map<String, String> map = raw.get(i);
+			fields.addAll(map.keySet());
+			double top = depth(map.get("top"));
+			if (Double.isNaN(top)) {
+				top = depth(map.get("depth"));
+			}
+			double base = depth(map.get("base"));
+			if (Double.isNaN(base)) {
+				base = top;
+			}
+			tops[i] = top;
+			if (!Double.isNaN(top)) {
+				min = Double.isNaN(min) ? Math.min(top, base) : Math.min(min, Math.min(top, base));
+				max = Double.isNaN(max) ? Math.max(top, base) : Math.max(max, Math.max(top, base));
+			}
+		}
+
+		int[] histogram = new int[Double.isNaN(min) ? 0 : BINS];
+		for (double top : tops) {
+			if (!Double.isNaN(top) && (histogram.length > 0)) {
+				int bin = (max == min) ? 0 : (int) ((top - min) / (max - min) * BINS);
+				histogram[Math.max(0, Math.min(BINS - 1, bin))]++;
+			}
+		}
+		return new Summary(signature, tops.length, ImmutableSet.copyOf(fields), min, max, histogram);
+	}
+
+	private final ConcurrentMap<File, Catalog> catalogs = Maps.newConcurrentMap();
+	protected final FormatRegistry registry;
+
+	/**
+	 * Create a new DefaultProjectCatalog.
+	 * 
+	 * @param registry
+	 *            the format registry.
+	 */
+	@Inject
+	public DefaultProjectCatalog(final FormatRegistry registry) {
+		this.registry = registry;
+	}
+
+	public ImmutableList<ManifestEntry> find(final Project project, final double top, final double base) {
+		ImmutableMap<String, Summary> summaries = getSummaries(project);
+		ImmutableList.Builder<ManifestEntry> found = ImmutableList.builder();
+		for (ManifestEntry entry : project.getManifest()) {
+			String key = key(entry);
+			Summary summary = (key == null) ? null : summaries.get(key);
+			if ((summary == null) || !summary.hasDepths() || summary.overlaps(top, base)) {
+				found.add(entry);
+			}
+		}
+		return found.build();
+	}
+
+	protected Format<?> getFormat(final ManifestEntry entry) {
+		Format<?> format = registry.get(entry.getFormat() + ":" + entry.getType());
+		return (format == null) ? registry.get(entry.getFormat()) : format;
+	}
+
+	public ImmutableMap<String, Summary> getSummaries(final Project project) {
+		if (project.getPath() == null) {
+			return ImmutableMap.of();
+		}
+		try {
+			return read(new File(new File(project.getPath().toURI()), CATALOG));
+		} catch (URISyntaxException e) {
+			return ImmutableMap.of();
+		} catch (IllegalArgumentException e) {
+			// not a local project
+			return ImmutableMap.of();
+		}
+	}
+
+	/**
+	 * Reads a catalog file, reusing the last read if it has not changed.
+	 * 
+	 * @param file
+	 *            the catalog file.
+	 * @return the summaries by entry path.
+	 */
+	protected ImmutableMap<String, Summary> read(final File file) {
+		long modified = file.lastModified();
+		Catalog catalog = catalogs.get(file);
+		if ((catalog != null) && (catalog.modified == modified)) {
+			return catalog.summaries;
+		}
+		if (!file.exists()) {
+			return ImmutableMap.of();
+		}
+
+		Properties properties = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			properties.load(in);
+		} catch (IOException e) {
+			LOG.error("Unable to read catalog " + file, e);
+			return ImmutableMap.of();
+		} finally {
+			Closeables.closeQuietly(in);
+		}
+
+		Map<String, Summary> summaries = Maps.newLinkedHashMap();
+		int count = Integer.parseInt(properties.getProperty("entries", "0"));
+		for (int i = 0; i < count; i++) {
+			String prefix = "entry." + i + ".";
+			try {
+				List<String> bins = Lists.newArrayList(SPLIT.split(properties.getProperty(prefix + "histogram", "")));
+				int[] histogram = new int[bins.size()];
+				for (int j = 0; j < histogram.length; j++) {
+					histogram[j] = Integer.parseInt(bins.get(j));
+				}
+				String fields = properties.getProperty(prefix + "fields", "");
+				String path = properties.getProperty(prefix + "path");
+				if (path == null) {
+					throw new IllegalArgumentException("No path");
+				}
+				summaries.put(path, new Summary(properties.getProperty(prefix
+						+ "signature"), Integer.parseInt(properties.getProperty(prefix + "rows")), ImmutableSet
+						.copyOf(Splitter.on('\t').omitEmptyStrings().split(fields)), parse(properties
+						.getProperty(prefix + "min")), parse(properties.getProperty(prefix + "max")), histogram));
+			} catch (RuntimeException e) {
+				LOG.warn("Skipping invalid catalog entry {} in {}", i, file);
+			}
+		}
+		catalog = new Catalog(modified, ImmutableMap.copyOf(summaries));
+		catalogs.put(file, catalog);
+		return catalog.summaries;
+	}
+
+	public void update(final Project project, final File dir) throws IOException {
+		File file = new File(dir, CATALOG);
+		ImmutableMap<String, Summary> existing = read(file);
+		Map<String, Summary> summaries = Maps.newLinkedHashMap();
+		for (ManifestEntry entry : project.getManifest()) {
+			String key = key(entry);
+			if ((key == null) || summaries.containsKey(key)) {
+				continue;
+			}
+			String signature = signature(entry);
+			Summary summary = existing.get(key);
+			boolean remote = file(entry) == null;
+			if ((summary != null) && (remote || ((signature != null) && signature.equals(summary.getSignature())))) {
+				summaries.put(key, summary);
+				continue;
+			}
+
+			Format<?> format = getFormat(entry);
+			if (format == null) {
+				continue;
+			}
+			try {
+				summaries.put(key, summarize(signature, format.getRaw(entry.getPath())));
+			} catch (IOException e) {
+				LOG.error("Unable to catalog entry " + entry.getName(), e);
+			} catch (RuntimeException e) {
+				LOG.error("Unable to catalog entry " + entry.getName(), e);
+			}
+		}
+		write(file, summaries);
+	}
+
+	/**
+	 * Writes a catalog file.
+	 * 
+	 * @param file
+	 *            the catalog file.
+	 * @param summaries
+	 *            the summaries by entry path.
+	 * @throws IOException
+	 *             thrown if there is a problem writing the file.
+	 */
+	protected void write(final File file, final Map<String, Summary> summaries) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("entries", Integer.toString(summaries.size()));
+		int i = 0;
+		for (Map.Entry<String, Summary> e : summaries.entrySet()) {
+			String prefix = "entry." + i++ + ".";
+			Summary summary = e.getValue();
+			properties.setProperty(prefix + "path", e.getKey());
+			if (summary.getSignature() != null) {
+				properties.setProperty(prefix + "signature", summary.getSignature());
+			}
+			properties.setProperty(prefix + "rows", Integer.toString(summary.getRows()));
+			properties.setProperty(prefix + "fields", TAB.join(summary.getFields()));
+			if (summary.hasDepths()) {
+				properties.setProperty(prefix + "min", Double.toString(summary.getMin()));
+				properties.setProperty(prefix + "max", Double.toString(summary.getMax()));
+			}
+			List<Integer> bins = Lists.newArrayList();
+			for (int bin : summary.getHistogram()) {
+				bins.add(bin);
+			}
+			properties.setProperty(prefix + "histogram", JOIN.join(bins));
+		}
+
+		// write to a temporary file so readers never see a partial catalog
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			properties.store(out, "Project catalog");
+		} finally {
+			Closeables.closeQuietly(out);
+		}
+		file.delete();
+		Files.move(temp, file);
+		catalogs.remove(file);
+	}
+}
@@ -0,0 +1,293 @@
+package org.corewall.internal;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.corewall.ProjectExporter;
+import org.corewall.ProjectLoader;
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.data.io.CSVModelWriter;
+import org.corewall.data.io.StreamingModelWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Default implementation of the {@link ProjectExporter} interface. Entries
+ * are read through the {@link ProjectLoader} and written on a bounded pool of
+ * daemon threads. Before an entry is read, permits for the expected size of its
+ * models are taken from a shared memory budget, estimated from the uncompressed
+ * size of its source. Once the entry is loaded the charge is corrected to the
+ * estimated size of the models, so only as much data as fits in the budget is
+ * held in memory at once. Entries exported to a directory are written as
+ * tab-separated files with a header row of the model keys in sorted order,
+ * named after the entry and numbered when names collide.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@Singleton
+public class DefaultProjectExporter implements ProjectExporter {
+	/**
+	 * The result of exporting a single entry.
+	 */
+	private static class Written {
+		final long bytes;
+		final long models;
+
+		Written(final long models, final long bytes) {
+			this.models = models;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Writes a header row of the sorted keys of the first model.
+	 */
+	private static class TableWriter extends CSVModelWriter {
+		TableWriter(final OutputStream out) {
+			super(out, '\t');
+		}
+
+		@Override
+		public void open(final String[] keys) throws IOException {
+			String[] sorted = keys.clone();
+			Arrays.sort(sorted);
+			writer.writeNext(sorted.clone());
+			super.open(sorted);
+		}
+	}
+
+	private static final int DEFAULT_BUDGET = 256 * 1024;
+	private static final int DEFAULT_SIZE = 1024;
+	private static final int EXPANSION = 8;
+	private static final Logger LOG = LoggerFactory.getLogger(DefaultProjectExporter.class);
+
+	/**
+	 * Gets the uncompressed size of the source of an entry. The size of a
+	 * gzipped source is read from the trailer of the file.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @return the size in bytes or -1 if unknown.
+	 */
+	protected static long size(final ManifestEntry entry) {
+		URL path = entry.getPath();
+		if ((path != null) && "file".equals(path.getProtocol())) {
+			try {
+				File file = new File(path.toURI());
+				if (file.isFile()) {
+					return uncompressed(file);
+				}
+			} catch (URISyntaxException e) {
+				// fall through
+			}
+		}
+		return -1;
+	}
+
+	private static long uncompressed(final File file) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			if ((raf.length() < 18) || (raf.readUnsignedShort() != 0x1f8b)) {
+				return file.length();
+			}
+
+			// the trailer holds the uncompressed size modulo 2^32, little-endian
+			raf.seek(raf.length() - 4);
+			long size = 0;
+			for (int i = 0; i < 4; i++) {
+				size |= (long) raf.read() << (8 * i);
+			}
+			return Math.max(size, file.length());
+		} catch (IOException e) {
+			return file.length();
+		} finally {
+			Closeables.closeQuietly(raf);
+		}
+	}
+
+	protected final int budget;
+	protected final ExecutorService executor;
+	protected final ProjectLoader loader;
+	protected final Semaphore permits;
+
+	/**
+	 * Create a new DefaultProjectExporter with a thread per processor and a
+	 * 256 MB budget.
+	 * 
+	 * @param loader
+	 *            the project loader.
+	 */
+	@Inject
+	DefaultProjectExporter(final ProjectLoader loader) {
+		this(loader, Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Create a new DefaultProjectExporter.
+	 * 
+	 * @param loader
+	 *            the project loader.
+	 * @param threads
+	 *            the maximum number of entries to export at once.
+	 * @param budget
+	 *            the maximum estimated size of the models being exported at
+	 *            once, in kilobytes.
+	 */
+	public DefaultProjectExporter(final ProjectLoader loader, final int threads, final int budget) {
+		this.loader = loader;
+		this.budget = budget;
+		permits = new Semaphore(budget, true);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 10, SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		pool.allowCoreThreadTimeOut(true);
+		executor = MoreExecutors.getExitingExecutorService(pool, 1, SECONDS);
+	}
+
+	/**
+	 * Gets the number of permits an entry takes from the budget.
+	 * 
+	 * @param bytes
+	 *            the size of the models in memory or -1 if unknown.
+	 * @return the number of permits.
+	 */
+	protected int cost(final long bytes) {
+		long kb = (bytes < 0) ? DEFAULT_SIZE : (bytes + 1023) / 1024;
+		return (int) Math.max(1, Math.min(budget, kb));
+	}
+
+	public Report export(final Project project, final File dir) throws InterruptedException {
+		dir.mkdirs();
+
+		// name the files up front so entries written at once never share one
+		final Map<ManifestEntry, File> files = Maps.newIdentityHashMap();
+		Set<String> used = Sets.newHashSet();
+		for (ManifestEntry entry : project.getManifest()) {
+			String name = entry.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+			String unique = name;
+			for (int i = 2; !used.add(unique.toLowerCase()); i++) {
+				unique = name + "-" + i;
+			}
+			files.put(entry, new File(dir, unique + ".tsv"));
+		}
+		return export(project, new Target() {
+			public StreamingModelWriter open(final ManifestEntry entry) throws IOException {
+				return new TableWriter(new FileOutputStream(files.get(entry)));
+			}
+		});
+	}
+
+	public Report export(final Project project, final Target target) throws InterruptedException {
+		long start = System.nanoTime();
+		List<ManifestEntry> entries = project.getManifest();
+		List<Future<Written>> futures = Lists.newArrayListWithCapacity(entries.size());
+		for (final ManifestEntry entry : entries) {
+			futures.add(executor.submit(new Callable<Written>() {
+				public Written call() throws Exception {
+					return export(entry, target);
+				}
+			}));
+		}
+
+		int exported = 0;
+		long models = 0;
+		long bytes = 0;
+		Map<ManifestEntry, Throwable> failures = Maps.newLinkedHashMap();
+		try {
+			for (int i = 0; i < entries.size(); i++) {
+				try {
+					Written written = futures.get(i).get();
+					exported++;
+					models += written.models;
+					bytes += written.bytes;
+				} catch (ExecutionException e) {
+					LOG.warn("Unable to export entry " + entries.get(i).getName(), e.getCause());
+					failures.put(entries.get(i), e.getCause());
+				}
+			}
+		} finally {
+			for (Future<Written> f : futures) {
+				f.cancel(true);
+			}
+		}
+		Report report = new Report(exported, models, bytes, System.nanoTime() - start, ImmutableMap.copyOf(failures));
+		LOG.debug("Exported {}: {}", project.getId(), report);
+		return report;
+	}
+
+	/**
+	 * Exports a single entry on the calling thread.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @param target
+	 *            the target.
+	 * @return the number of models and bytes.
+	 * @throws IOException
+	 *             thrown if there is a problem reading or writing the entry.
+	 * @throws InterruptedException
+	 *             thrown if interrupted while waiting for the budget.
+	 */
+	private Written export(final ManifestEntry entry, final Target target) throws IOException,
+			InterruptedException {
+		long bytes = size(entry);
+		int charged = cost((bytes < 0) ? -1 : bytes * EXPANSION);
+		permits.acquire(charged);
+		try {
+			List<? extends Model> models = loader.read(entry);
+
+			// correct the charge to the size of the loaded models; an entry
+			// that needs more gives up its permits while it waits so two
+			// growing entries cannot deadlock
+			int cost = cost(DefaultModelStore.estimate(models));
+			if (cost > charged) {
+				permits.release(charged);
+				charged = 0;
+				permits.acquire(cost);
+				charged = cost;
+			} else if (cost < charged) {
+				permits.release(charged - cost);
+				charged = cost;
+			}
+
+			StreamingModelWriter writer = target.open(entry);
+			try {
+				writer.append(models);
+			} finally {
+				writer.close();
+			}
+			return new Written(models.size(), Math.max(0, bytes));
+		} finally {
+			permits.release(charged);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package org.corewall.internal;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.corewall.ModelProbe;
+import org.corewall.ProjectLoader;
+import org.corewall.data.Format;
+import org.corewall.data.FormatRegistry;
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Default implementation of the {@link ProjectLoader} interface. Entries are
+ * read through the {@link FormatRegistry} on a bounded pool of daemon threads.
+ * An entry's format is looked up as 'format:type', falling back to 'format'.
+ * Models loaded in the background are handed to the {@link ModelProbe}, if
+ * there is one, before the listener is notified.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@Singleton
+public class DefaultProjectLoader implements ProjectLoader {
+	/**
+	 * Loads an entry and notifies the listener when it completes.
+	 */
+	private class EntryTask extends FutureTask<List<? extends Model>> {
+		private final ManifestEntry entry;
+		private final Listener listener;
+
+		EntryTask(final ManifestEntry entry, final Listener listener) {
+			super(new Callable<List<? extends Model>>() {
+				public List<? extends Model> call() throws Exception {
+					if (listener != null) {
+						listener.started(entry);
+					}
+					List<? extends Model> models = read(entry);
+					if (probe != null) {
+						probe.probe(models);
+					}
+					return models;
+				}
+			});
+			this.entry = entry;
+			this.listener = listener;
+		}
+
+		@Override
+		protected void done() {
+			if (listener == null) {
+				return;
+			}
+			try {
+				if (isCancelled()) {
+					listener.cancelled(entry);
+				} else {
+					listener.loaded(entry, get());
+				}
+			} catch (ExecutionException e) {
+				listener.failed(entry, e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				LOG.warn("Listener failed for entry " + entry.getName(), e);
+			}
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(DefaultProjectLoader.class);
+
+	protected final ExecutorService executor;
+	protected final ModelProbe probe;
+	protected final FormatRegistry registry;
+
+	/**
+	 * Create a new DefaultProjectLoader with a thread per processor.
+	 * 
+	 * @param registry
+	 *            the format registry.
+	 * @param probe
+	 *            the model probe.
+	 */
+	@Inject
+	DefaultProjectLoader(final FormatRegistry registry, final ModelProbe probe) {
+		this(registry, Math.max(2, Runtime.getRuntime().availableProcessors()), probe);
+	}
+
+	/**
+	 * Create a new DefaultProjectLoader.
+	 * 
+	 * @param registry
+	 *            the format registry.
+	 * @param threads
+	 *            the maximum number of entries to load at once.
+	 */
+	public DefaultProjectLoader(final FormatRegistry registry, final int threads) {
+		this(registry, threads, null);
+	}
+
+	/**
+	 * Create a new DefaultProjectLoader that probes the models it loads in the
+	 * background.
+	 * 
+	 * @param registry
+	 *            the format registry.
+	 * @param threads
+	 *            the maximum number of entries to load at once.
+	 * @param probe
+	 *            the model probe or null.
+	 */
+	public DefaultProjectLoader(final FormatRegistry registry, final int threads, final ModelProbe probe) {
+		this.registry = registry;
+		this.probe = probe;
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 10, SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		pool.allowCoreThreadTimeOut(true);
+		executor = MoreExecutors.getExitingExecutorService(pool, 1, SECONDS);
+	}
+
+	/**
+	 * Gets the format of the specified entry.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @return the format or null if no format is registered.
+	 */
+	protected Format<?> getFormat(final ManifestEntry entry) {
+		Format<?> format = registry.get(entry.getFormat() + ":" + entry.getType());
+		return (format == null) ? registry.get(entry.getFormat()) : format;
+	}
+
+	public Future<List<? extends Model>> load(final ManifestEntry entry, final Listener listener) {
+		EntryTask task = new EntryTask(entry, listener);
+		executor.execute(task);
+		return task;
+	}
+
+	public ImmutableMap<ManifestEntry, Future<List<? extends Model>>> load(final Project project,
+			final Listener listener) {
+		ImmutableMap.Builder<ManifestEntry, Future<List<? extends Model>>> futures = ImmutableMap.builder();
+		for (ManifestEntry entry : project.getManifest()) {
+			futures.put(entry, load(entry, listener));
+		}
+		return futures.build();
+	}
+
+	public List<? extends Model> read(final ManifestEntry entry) throws IOException {
+		if (entry.getPath() == null) {
+			throw new IOException("No path for entry '" + entry.getName() + "'");
+		}
+		Format<?> format = getFormat(entry);
+		if (format == null) {
+			throw new IOException("No format '" + entry.getFormat() + "' for entry '" + entry.getName() + "'");
+		}
+		LOG.debug("Loading {} with {}", entry.getPath(), format.getId());
+		return format.getModels(entry.getPath());
+	}
+}
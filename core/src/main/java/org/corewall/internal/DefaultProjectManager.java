@@ -13,6 +13,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.corewall.ProjectCatalog;
 import org.corewall.ProjectManager;
 import org.corewall.data.Project;
 import org.slf4j.Logger;
@@ -22,6 +23,7 @@ import org.xml.sax.SAXException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.io.Closeables;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.internal.Lists;
 
@@ -36,12 +38,26 @@ public class DefaultProjectManager implements ProjectManager {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DefaultProjectManager.class);
 	private static final String PROJECT_XML = "project.xml";
 	private static final String PROJECTS = "Projects";
+	protected final ProjectCatalog catalog;
 	protected final File root;
 
 	/**
 	 * Create a new DefaultProjectManager.
 	 */
 	public DefaultProjectManager() {
+		this((ProjectCatalog) null);
+	}
+
+	/**
+	 * Create a new DefaultProjectManager that keeps the catalog of each
+	 * project it writes up to date.
+	 * 
+	 * @param catalog
+	 *            the project catalog or null.
+	 */
+	@Inject
+	public DefaultProjectManager(final ProjectCatalog catalog) {
+		this.catalog = catalog;
 		String os = System.getProperty("os.name").toLowerCase();
 		if (os.startsWith("windows")) {
 			// should point to My Documents equivalent regardless of locale
@@ -63,7 +79,21 @@ public class DefaultProjectManager implements ProjectManager {
 	 *            the root.
 	 */
 	public DefaultProjectManager(final File root) {
+		this(root, null);
+	}
+
+	/**
+	 * Create a new DefaultProjectManager with the specified root that keeps
+	 * the catalog of each project it writes up to date.
+	 * 
+	 * @param root
+	 *            the root.
+	 * @param catalog
+	 *            the project catalog or null.
+	 */
+	public DefaultProjectManager(final File root, final ProjectCatalog catalog) {
 		this.root = root;
+		this.catalog = catalog;
 	}
 
 	public void add(final Project project) throws IOException, ProjectExistsException {
@@ -89,6 +119,7 @@ public class DefaultProjectManager implements ProjectManager {
 		} finally {
 			Closeables.closeQuietly(writer);
 		}
+		updateCatalog(project, dir);
 	}
 
 	public ImmutableList<Project> getProjects() {
@@ -117,8 +148,8 @@ public class DefaultProjectManager implements ProjectManager {
 		}
 
 		ProjectWriter writer = null;
+		File dir;
 		try {
-			File dir;
 			if (path == null) {
 				dir = new File(root, project.getId());
 			} else {
@@ -132,6 +163,7 @@ public class DefaultProjectManager implements ProjectManager {
 		} finally {
 			Closeables.closeQuietly(writer);
 		}
+		updateCatalog(project, dir);
 	}
 
 	protected Project parseProject(final File file) {
@@ -171,4 +203,25 @@ public class DefaultProjectManager implements ProjectManager {
 		}
 		return projects;
 	}
+
+	/**
+	 * Brings the catalog of a project up to date after it was written. A
+	 * catalog that cannot be written does not fail the write of the project.
+	 * 
+	 * @param project
+	 *            the project.
+	 * @param dir
+	 *            the directory of the project file.
+	 */
+	protected void updateCatalog(final Project project, final File dir) {
+		if (catalog != null) {
+			try {
+				catalog.update(project, dir);
+			} catch (IOException e) {
+				LOGGER.error("Unable to update the catalog of " + project.getId(), e);
+			} catch (RuntimeException e) {
+				LOGGER.error("Unable to update the catalog of " + project.getId(), e);
+			}
+		}
+	}
 }
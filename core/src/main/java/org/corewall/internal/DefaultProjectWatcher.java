@@ -0,0 +1,211 @@
+package org.corewall.internal;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.corewall.ModelStore;
+import org.corewall.ProjectLoader;
+import org.corewall.ProjectWatcher;
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Default implementation of the {@link ProjectWatcher} interface. The files of
+ * watched entries are polled for changes to their length and last modified
+ * time. A change is only reported once the file has looked the same on two
+ * checks in a row, so files that are still being written are not read half
+ * way. Changed entries are dropped from the {@link ModelStore} and re-read
+ * through the {@link ProjectLoader}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+@Singleton
+public class DefaultProjectWatcher implements ProjectWatcher {
+	/**
+	 * The state of a watched entry file.
+	 */
+	private static class Signature {
+		private final long length;
+		private final long modified;
+
+		Signature(final File file) {
+			length = file.length();
+			modified = file.lastModified();
+		}
+
+		boolean same(final Signature other) {
+			return (other != null) && (length == other.length) && (modified == other.modified);
+		}
+	}
+
+	/**
+	 * A watched project.
+	 */
+	private static class Watch {
+		private final Map<ManifestEntry, Signature> known = Maps.newHashMap();
+		private final Listener listener;
+		private final Map<ManifestEntry, Signature> pending = Maps.newHashMap();
+		private final Project project;
+
+		Watch(final Project project, final Listener listener) {
+			this.project = project;
+			this.listener = listener;
+			for (ManifestEntry entry : project.getManifest()) {
+				File file = toFile(entry.getPath());
+				if (file != null) {
+					known.put(entry, new Signature(file));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The default polling interval in milliseconds.
+	 */
+	public static final long DEFAULT_INTERVAL = 2000;
+	private static final Logger LOG = LoggerFactory.getLogger(DefaultProjectWatcher.class);
+
+	private static File toFile(final URL url) {
+		if ((url == null) || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	protected final ProjectLoader loader;
+	protected final ModelStore store;
+	protected final Map<Project, Watch> watches = Maps.newLinkedHashMap();
+
+	/**
+	 * Create a new DefaultProjectWatcher that polls every
+	 * {@link #DEFAULT_INTERVAL} milliseconds.
+	 * 
+	 * @param loader
+	 *            the project loader.
+	 * @param store
+	 *            the model store.
+	 */
+	@Inject
+	DefaultProjectWatcher(final ProjectLoader loader, final ModelStore store) {
+		this(loader, store, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Create a new DefaultProjectWatcher.
+	 * 
+	 * @param loader
+	 *            the project loader.
+	 * @param store
+	 *            the model store.
+	 * @param interval
+	 *            the polling interval in milliseconds or 0 to only check when
+	 *            {@link #check()} is called.
+	 */
+	public DefaultProjectWatcher(final ProjectLoader loader, final ModelStore store, final long interval) {
+		this.loader = loader;
+		this.store = store;
+		if (interval > 0) {
+			MoreExecutors.getExitingScheduledExecutorService(new ScheduledThreadPoolExecutor(1), 1, SECONDS)
+					.scheduleWithFixedDelay(new Runnable() {
+						public void run() {
+							try {
+								check();
+							} catch (RuntimeException e) {
+								LOG.warn("Unable to check projects for changes", e);
+							}
+						}
+					}, interval, interval, MILLISECONDS);
+		}
+	}
+
+	public void check() {
+		List<Watch> list;
+		synchronized (watches) {
+			list = Lists.newArrayList(watches.values());
+		}
+		for (Watch watch : list) {
+			for (ManifestEntry entry : changed(watch)) {
+				reload(watch, entry);
+			}
+		}
+	}
+
+	private List<ManifestEntry> changed(final Watch watch) {
+		List<ManifestEntry> changed = Lists.newArrayList();
+		synchronized (watch) {
+			for (Entry<ManifestEntry, Signature> e : watch.known.entrySet()) {
+				File file = toFile(e.getKey().getPath());
+				Signature current = new Signature(file);
+				if (current.same(e.getValue())) {
+					watch.pending.remove(e.getKey());
+				} else if (current.same(watch.pending.get(e.getKey()))) {
+					// unchanged since the last check so the write is done
+					watch.pending.remove(e.getKey());
+					e.setValue(current);
+					changed.add(e.getKey());
+				} else {
+					watch.pending.put(e.getKey(), current);
+				}
+			}
+		}
+		return changed;
+	}
+
+	private void reload(final Watch watch, final ManifestEntry entry) {
+		LOG.debug("Reloading changed entry {}", entry.getPath());
+		store.invalidate(entry);
+		loader.load(entry, new ProjectLoader.Listener() {
+			public void cancelled(final ManifestEntry e) {
+				// nothing to report
+			}
+
+			public void failed(final ManifestEntry e, final Throwable t) {
+				watch.listener.failed(watch.project, e, t);
+			}
+
+			public void loaded(final ManifestEntry e, final List<? extends Model> models) {
+				watch.listener.changed(watch.project, e, models);
+			}
+
+			public void started(final ManifestEntry e) {
+				// nothing to report
+			}
+		});
+	}
+
+	public void unwatch(final Project project) {
+		synchronized (watches) {
+			watches.remove(project);
+		}
+	}
+
+	public void watch(final Project project, final Listener listener) {
+		Watch watch = new Watch(project, listener);
+		synchronized (watches) {
+			watches.put(project, watch);
+		}
+	}
+}
@@ -105,6 +105,13 @@ public class ProjectReader extends DefaultHandler {
 			URL url = null;
 			if (Boolean.parseBoolean(relative)) {
 				File path = new File(file, location);
+				if (!path.exists()) {
+					// the entry may have been archived with gzip
+					File compressed = new File(file, location + ".gz");
+					if (compressed.exists()) {
+						path = compressed;
+					}
+				}
 				if (path.exists()) {
 					try {
 						url = path.toURI().toURL();
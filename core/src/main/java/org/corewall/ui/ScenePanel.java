@@ -14,6 +14,7 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -55,6 +56,7 @@ public class ScenePanel extends JPanel implements MouseListener, MouseMotionList
 	protected AtomicBoolean repainting = new AtomicBoolean(false);
 	protected SelectionProvider selectionProvider = SelectionProvider.DEFAULT_PROVIDER;
 	protected int scrollUnits = 20;
+	protected final ViewportMotion motion = new ViewportMotion();
 
 	/**
 	 * Create a new ScenePanel.
@@ -419,14 +421,23 @@ public class ScenePanel extends JPanel implements MouseListener, MouseMotionList
 		// clear our clip
 		g2d.setBackground(Color.white);
 		g2d.setPaint(Color.white);
-		g2d.fill(getVisibleRect());
+		Rectangle visible = getVisibleRect();
+		g2d.fill(visible);
+
+		// track the scrolling so images ahead of it are loaded early
+		motion.update(visible, System.currentTimeMillis());
+		AffineTransform device = g2d.getTransform();
+		Rectangle2D deviceVisible = device.createTransformedShape(visible).getBounds2D();
+		Rectangle2D deviceLookahead = device.createTransformedShape(motion.getLookahead()).getBounds2D();
 
 		// get a graphics context
 		if (orientation == Orientation.HORIZONTAL) {
 			g2d.rotate(-Math.PI / 2);
 			g2d.translate(-scene.getContentSize().getWidth(), 0);
 		}
-		GraphicsContext gfx = new GraphicsContext(new Java2DDriver(g2d, false, this));
+		Java2DDriver driver = new Java2DDriver(g2d, false, this);
+		driver.setViewport(deviceVisible, deviceLookahead);
+		GraphicsContext gfx = new GraphicsContext(driver);
 		switch (part) {
 			case HEADER:
 				scene.renderHeader(gfx);
@@ -0,0 +1,91 @@
+package org.corewall.ui;
+
+import java.awt.Rectangle;
+
+/**
+ * Follows the motion of a viewport to predict the area that will be visible
+ * next. The velocity is smoothed over successive updates and drops to zero
+ * when the viewport has not moved for a while.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class ViewportMotion {
+	private static final long IDLE = 500;
+	private static final long LOOKAHEAD = 1000;
+
+	private long last = -1;
+	private Rectangle visible = null;
+	private double vx = 0;
+	private double vy = 0;
+
+	/**
+	 * Gets the area to prefetch. While moving, this is the visible area moved
+	 * as far as it will travel in the next second, but at least half a
+	 * viewport, in the direction of motion. While still, it is the visible
+	 * area grown by a quarter of a viewport on each side.
+	 * 
+	 * @return the area or null if there have been no updates.
+	 */
+	public synchronized Rectangle getLookahead() {
+		if (visible == null) {
+			return null;
+		}
+		int dx = (int) Math.round(vx * LOOKAHEAD);
+		int dy = (int) Math.round(vy * LOOKAHEAD);
+		if ((dx == 0) && (dy == 0)) {
+			Rectangle ahead = new Rectangle(visible);
+			ahead.grow(visible.width / 4, visible.height / 4);
+			return ahead;
+		}
+		if (dx != 0) {
+			dx = (dx > 0) ? Math.max(dx, visible.width / 2) : Math.min(dx, -visible.width / 2);
+		}
+		if (dy != 0) {
+			dy = (dy > 0) ? Math.max(dy, visible.height / 2) : Math.min(dy, -visible.height / 2);
+		}
+		Rectangle ahead = new Rectangle(visible);
+		ahead.translate(dx, dy);
+		return ahead.union(visible);
+	}
+
+	/**
+	 * Gets the horizontal velocity.
+	 * 
+	 * @return the velocity in pixels per millisecond.
+	 */
+	public synchronized double getVelocityX() {
+		return vx;
+	}
+
+	/**
+	 * Gets the vertical velocity.
+	 * 
+	 * @return the velocity in pixels per millisecond.
+	 */
+	public synchronized double getVelocityY() {
+		return vy;
+	}
+
+	/**
+	 * Records the visible area.
+	 * 
+	 * @param rect
+	 *            the visible area.
+	 * @param millis
+	 *            the current time in milliseconds.
+	 */
+	public synchronized void update(final Rectangle rect, final long millis) {
+		long elapsed = millis - last;
+		if ((visible == null) || (elapsed > IDLE)) {
+			vx = 0;
+			vy = 0;
+		} else if (elapsed > 0) {
+			vx = (vx + (rect.x - visible.x) / (double) elapsed) / 2;
+			vy = (vy + (rect.y - visible.y) / (double) elapsed) / 2;
+		}
+		if ((elapsed > 0) || (visible == null)) {
+			visible = new Rectangle(rect);
+			last = millis;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package org.corewall.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.corewall.data.AbstractFactory.Binding;
+import org.corewall.data.formats.CSVFormat;
+import org.corewall.geology.models.Section;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Exercises the compiled rewrite plans of {@link AbstractFactory}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class AbstractFactoryTest {
+	/**
+	 * A factory that copies the model map.
+	 */
+	private static class CopyFactory extends AbstractFactory<Model> {
+		CopyFactory(final Map<String, String> rewrite, final Map<String, String> defaults) {
+			super(rewrite, defaults);
+		}
+
+		@Override
+		protected Model internalBuild(final Map<String, String> map) {
+			final Map<String, String> copy = new HashMap<String, String>(map);
+			return new Model() {
+				public Map<String, String> toMap() {
+					return copy;
+				}
+			};
+		}
+	}
+
+	protected CopyFactory factory;
+
+	/**
+	 * Create a factory that rewrites 'url' to 'path' and drops 'junk'.
+	 */
+	@Before
+	public void setUp() {
+		Map<String, String> rewrite = new HashMap<String, String>();
+		rewrite.put("url", "path");
+		rewrite.put("junk", null);
+		factory = new CopyFactory(rewrite, ImmutableMap.of("orientation", "vertical", "path", "none"));
+	}
+
+	/**
+	 * Test building from a row through a binding.
+	 */
+	@Test
+	public void testBinding() {
+		Binding binding = factory.bind(new String[] { "url", "top", "junk" });
+		assertEquals(0, binding.column("path"));
+		assertEquals(-1, binding.column("url"));
+		assertEquals(-1, binding.column("junk"));
+
+		Map<String, String> map = factory.build(binding, new String[] { "a.jpg", "1.0", "x" }).toMap();
+		assertEquals(ImmutableMap.of("path", "a.jpg", "top", "1.0", "orientation", "vertical"), map);
+
+		map = factory.build(binding, new String[] { "b.jpg" }).toMap();
+		assertEquals(ImmutableMap.of("path", "b.jpg", "orientation", "vertical"), map);
+	}
+
+	/**
+	 * Test building from a map leaves the source map alone.
+	 */
+	@Test
+	public void testMap() {
+		Map<String, String> source = new HashMap<String, String>();
+		source.put("url", "a.jpg");
+		source.put("path", "b.jpg");
+		source.put("junk", "x");
+		source.put("orientation", "horizontal");
+
+		Map<String, String> map = factory.build(source).toMap();
+		assertEquals(ImmutableMap.of("path", "a.jpg", "orientation", "horizontal"), map);
+		assertEquals(4, source.size());
+
+		source.clear();
+		map = factory.build(source).toMap();
+		assertEquals(ImmutableMap.of("path", "none", "orientation", "vertical"), map);
+		assertNull(map.get("junk"));
+		assertFalse(map.containsKey("url"));
+	}
+
+	/**
+	 * Test reading rows by slot.
+	 */
+	@Test
+	public void testSlots() {
+		factory = new CopyFactory(ImmutableMap.of("url", "path"), ImmutableMap.of("orientation", "vertical")) {
+			@Override
+			protected String[] getSlots() {
+				return new String[] { "path", "top", "orientation", "base" };
+			}
+		};
+		Binding binding = factory.bind(new String[] { "url", "top" });
+		String[] values = new String[] { "a.jpg", "1.5" };
+		assertEquals("a.jpg", binding.get(0, values));
+		assertEquals(1.5, binding.getDouble(1, values, null), 1E-6);
+		assertEquals("vertical", binding.get(2, values));
+		assertNull(binding.get(3, values));
+		assertNull(binding.get(1, new String[] { "b.jpg" }));
+		try {
+			binding.getDouble(3, values, null);
+			fail("A missing number should fail");
+		} catch (NumberFormatException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that CSV rows are built through the plan.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testSections() throws IOException {
+		CSVFormat<Section> format = new CSVFormat<Section>("tsv:Section", '\t', Section.factory(ImmutableMap.of(
+				"name", "label"), null));
+		List<Section> sections = format.getModels(AbstractFactoryTest.class
+				.getResource("/org/corewall/geology/formats/sections.tsv"));
+		assertEquals(3, sections.size());
+		assertNull(sections.get(0).getName());
+		assertEquals(1.0, sections.get(0).getBase().getValue().doubleValue(), 1E-6);
+	}
+}
@@ -0,0 +1,161 @@
+package org.corewall.data.formats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.corewall.data.Filters;
+import org.corewall.data.Model;
+import org.corewall.geology.models.Factories;
+import org.corewall.geology.models.Section;
+import org.corewall.geology.models.XYDatum;
+import org.junit.Test;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests reading with {@link CSVFormat}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class CSVFormatTest {
+	private static final String[] INPUTS = { "a,b,c\n1,2,3", "a,,c\n\n,\n", "\"a,b\",c\r\nd,\"e\"\"f\"\r\n",
+			"\"multi\nline\",x\ny,z", "a\\b,\"c\\\"d\",\"e\\\\f\"", "ab\"cd\"ef,g", "\"unterminated,x\ny",
+			"x\ry\r\nz" };
+
+	/**
+	 * Test that numbers are parsed exactly like {@link Double#parseDouble}.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testDoubles() throws IOException {
+		StringBuilder csv = new StringBuilder();
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			double d = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+			csv.append(d).append(',').append(String.format("%.4f", d)).append(',').append(Math.round(d * 100) / 100.0)
+					.append(',').append(random.nextInt()).append('\n');
+		}
+		csv.append("-0, 2.5 ,1e400,0.1e-3\n");
+		csv.append("1.0 m,,.,NaN\n");
+		CSVTokenizer tokenizer = new CSVTokenizer(new StringReader(csv.toString()), ',', '"', '\\', 0);
+		for (int i = 0; i < 10001; i++) {
+			assertTrue(tokenizer.next());
+			for (int c = 0; c < tokenizer.size(); c++) {
+				double expected = Double.parseDouble(tokenizer.get(c));
+				assertEquals(tokenizer.get(c), Double.doubleToLongBits(expected), Double.doubleToLongBits(tokenizer
+						.getDouble(c)));
+			}
+		}
+		assertTrue(tokenizer.next());
+		for (int c = 0; c < 4; c++) {
+			assertTrue(Double.isNaN(tokenizer.getDouble(c)));
+		}
+	}
+
+	/**
+	 * Test that the numeric keys of a factory are read from the cells.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testNumeric() throws IOException {
+		URL url = CSVFormatTest.class.getResource("/org/corewall/data/io/test.csv");
+		Map<String, String> rewrite = Maps.newHashMap();
+		rewrite.put("top", "x");
+		rewrite.put("base", "y");
+		CSVFormat<XYDatum> format = new CSVFormat<XYDatum>("csv:XYDatum", ',', Factories.datum(rewrite, null));
+		List<XYDatum> data = format.getModels(url);
+		assertEquals(format.getRaw(url).size(), data.size());
+		assertEquals(9.69, data.get(0).getX(), 0);
+		assertEquals(9.98, data.get(0).getY(), 0);
+	}
+
+	/**
+	 * Test filtering and projection while reading.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testPushdown() throws IOException {
+		URL url = CSVFormatTest.class.getResource("/org/corewall/data/io/test.csv");
+		CSVFormat<Model> format = new CSVFormat<Model>("csv:raw", ',', null);
+		List<Map<String, String>> all = format.getRaw(url);
+		int split = 0;
+		for (Map<String, String> map : all) {
+			if ("split".equals(map.get("type"))) {
+				split++;
+			}
+		}
+
+		List<Map<String, String>> raw = format.getRaw(url, Filters.property("type", "split"), ImmutableSet.of("top"));
+		assertEquals(split, raw.size());
+		assertTrue(raw.size() > 0);
+		for (Map<String, String> map : raw) {
+			assertEquals(ImmutableSet.of("top"), map.keySet());
+		}
+	}
+
+	/**
+	 * Test that a filter is applied before the models are built.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testSections() throws IOException {
+		URL url = CSVFormatTest.class.getResource("/org/corewall/geology/formats/sections.tsv");
+		CSVFormat<Section> format = new CSVFormat<Section>("tsv:Section", '\t', Section.factory());
+		assertEquals(3, format.getModels(url).size());
+
+		List<Section> sections = format.getModels(url, Filters.property("name", "Test_2"), null);
+		assertEquals(1, sections.size());
+		assertEquals("Test_2", sections.get(0).getName());
+	}
+
+	/**
+	 * Test that the tokenizer splits records the same way as opencsv.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testTokenizer() throws IOException {
+		for (String input : INPUTS) {
+			CSVReader reader = new CSVReader(new StringReader(input));
+			CSVTokenizer tokenizer = new CSVTokenizer(new StringReader(input), ',', '"', '\\', 0);
+			List<String[]> expected = Lists.newArrayList();
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				expected.add(row);
+			}
+			for (String[] e : expected) {
+				assertTrue(input, tokenizer.next());
+				assertArrayEquals(input, e, tokenizer.toArray());
+			}
+		}
+
+		CSVTokenizer tokenizer = new CSVTokenizer(new StringReader("skip\na,b"), ',', '"', '\\', 1);
+		assertTrue(tokenizer.next());
+		assertEquals(2, tokenizer.size());
+		assertEquals("b", tokenizer.get(1));
+		assertEquals(null, tokenizer.get(2));
+		assertFalse(tokenizer.next());
+	}
+}
@@ -0,0 +1,88 @@
+package org.corewall.data.formats;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Compares reading numbers the old way, with an opencsv {@link CSVReader} into
+ * a map of strings per row, with reading them from a {@link CSVTokenizer}
+ * through strings and {@link Double#valueOf(String)} and through
+ * {@link CSVTokenizer#getDouble(int)}. Run it from the test classpath.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public final class CSVTokenizerBenchmark {
+	private static final int COLUMNS = 4;
+	private static final String[] KEYS = { "top", "base", "value", "count" };
+	private static final int ROUNDS = 10;
+	private static final int ROWS = 200000;
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args
+	 *            ignored.
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	public static void main(final String[] args) throws IOException {
+		StringBuilder csv = new StringBuilder();
+		Random random = new Random(42);
+		for (int i = 0; i < ROWS; i++) {
+			double depth = i * 0.01;
+			csv.append(String.format(Locale.US, "%.2f,%.2f,%.4f,%d\n", depth, depth + 0.01, random.nextDouble() * 3,
+					random.nextInt(1000)));
+		}
+		String data = csv.toString();
+
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			double maps = 0;
+			CSVReader reader = new CSVReader(new StringReader(data));
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				Map<String, String> map = Maps.newHashMap();
+				for (int c = 0; c < COLUMNS; c++) {
+					map.put(KEYS[c], row[c]);
+				}
+				for (String key : KEYS) {
+					maps += Double.valueOf(map.get(key));
+				}
+			}
+			reader.close();
+			long tokenized = System.nanoTime();
+			double strings = 0;
+			CSVTokenizer tokenizer = new CSVTokenizer(new StringReader(data), ',', '"', '\\', 0);
+			while (tokenizer.next()) {
+				for (int c = 0; c < COLUMNS; c++) {
+					strings += Double.valueOf(tokenizer.get(c));
+				}
+			}
+			long middle = System.nanoTime();
+			double numbers = 0;
+			tokenizer = new CSVTokenizer(new StringReader(data), ',', '"', '\\', 0);
+			while (tokenizer.next()) {
+				for (int c = 0; c < COLUMNS; c++) {
+					numbers += tokenizer.getDouble(c);
+				}
+			}
+			long end = System.nanoTime();
+			if ((maps != strings) || (strings != numbers)) {
+				throw new AssertionError("Sums differ: " + maps + ", " + strings + ", " + numbers);
+			}
+			System.out.printf("round %d: opencsv maps %d ms, string path %d ms, getDouble %d ms%n", round,
+					(tokenized - start) / 1000000, (middle - tokenized) / 1000000, (end - middle) / 1000000);
+		}
+	}
+
+	private CSVTokenizerBenchmark() {
+		// not to be instantiated
+	}
+}
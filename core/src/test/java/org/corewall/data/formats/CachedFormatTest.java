@@ -0,0 +1,86 @@
+package org.corewall.data.formats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.corewall.data.Filter;
+import org.corewall.data.Filters;
+import org.corewall.data.internal.DefaultModelCache;
+import org.corewall.geology.models.Section;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for {@link CachedFormat}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class CachedFormatTest {
+	protected File dir;
+
+	/**
+	 * Create a temporary directory for the cache.
+	 */
+	@Before
+	public void setUp() {
+		dir = Files.createTempDir();
+	}
+
+	/**
+	 * Remove the temporary directory.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteRecursively(dir);
+	}
+
+	/**
+	 * Test that misses read models straight from the source and hits build the
+	 * same models from the cached rows.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@Test
+	public void testCached() throws IOException {
+		final AtomicInteger parsed = new AtomicInteger();
+		CSVFormat<Section> format = new CSVFormat<Section>("tsv:Section", '\t', Section.factory()) {
+			@Override
+			public List<Section> getModels(final URL url, final Filter extra, final Set<String> keys)
+					throws IOException {
+				parsed.incrementAndGet();
+				return super.getModels(url, extra, keys);
+			}
+		};
+		CachedFormat<Section> cached = new CachedFormat<Section>(format, new DefaultModelCache(dir,
+				DefaultModelCache.DEFAULT_CAPACITY));
+		URL url = CachedFormatTest.class.getResource("/org/corewall/geology/formats/sections.tsv");
+
+		List<Section> models = cached.getModels(url);
+		assertEquals(1, parsed.get());
+		List<Map<String, String>> raw = cached.getRaw(url);
+		assertEquals(models, cached.getModels(url));
+		assertEquals(1, parsed.get());
+
+		// filters and projections of cached rows
+		Filter filter = Filters.property("top", "0.0");
+		assertEquals(format.getModels(url, filter, null), cached.getModels(url, filter, null));
+		Set<String> keys = ImmutableSet.of("top");
+		assertEquals(AbstractFormat.select(raw, null, keys), cached.getRaw(url, null, keys));
+		assertEquals(AbstractFormat.select(raw, filter, keys), cached.getRaw(url, filter, keys));
+	}
+}
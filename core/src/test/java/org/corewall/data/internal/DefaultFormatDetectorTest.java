@@ -0,0 +1,119 @@
+package org.corewall.data.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+import org.corewall.Platform;
+import org.corewall.data.Format;
+import org.corewall.data.FormatRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+/**
+ * Unit tests for {@link DefaultFormatDetector}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DefaultFormatDetectorTest {
+	/**
+	 * Start the platform so the standard formats are registered.
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		Platform.start();
+	}
+
+	protected DefaultFormatDetector detector;
+	protected File dir;
+
+	private File copy(final String resource, final String name) throws IOException {
+		File file = new File(dir, name);
+		Files.write(Resources.toByteArray(DefaultFormatDetectorTest.class.getResource(resource)), file);
+		return file;
+	}
+
+	/**
+	 * Create a directory of files with misleading names.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		detector = new DefaultFormatDetector(Platform.getService(FormatRegistry.class));
+		dir = Files.createTempDir();
+		copy("/org/corewall/geology/formats/sections.tsv", "a.dat");
+		copy("/org/corewall/data/io/test.csv", "b.txt");
+		copy("/org/corewall/geology/formats/session.cml", "d.xml");
+		copy("/org/corewall/data/io/test.xlsx", "images.xlsx");
+		Files.write("just some notes", new File(dir, "notes.txt"), Charsets.UTF_8);
+
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(new File(dir, "c")));
+		out.write(Resources.toByteArray(DefaultFormatDetectorTest.class.getResource("/org/corewall/data/io/test.tsv")));
+		out.close();
+	}
+
+	/**
+	 * Remove the directory.
+	 */
+	@After
+	public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Test detecting a whole directory.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@Test
+	public void testDirectory() throws IOException {
+		ImmutableMap<File, Format<?>> formats = detector.detect(dir);
+		assertEquals("tsv:Section", formats.get(new File(dir, "a.dat")).getId());
+		assertEquals("csv:Image", formats.get(new File(dir, "b.txt")).getId());
+		assertEquals("tsv:Image", formats.get(new File(dir, "c")).getId());
+		assertEquals("cml:Image", formats.get(new File(dir, "d.xml")).getId());
+		assertEquals("excel:Image", formats.get(new File(dir, "images.xlsx")).getId());
+		assertFalse(formats.containsKey(new File(dir, "notes.txt")));
+	}
+
+	/**
+	 * Test that decisions are cached until the file changes.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@Test
+	public void testSignature() throws IOException {
+		File file = new File(dir, "a.dat");
+		URL url = file.toURI().toURL();
+		assertEquals("tsv:Section", detector.detect(url).getId());
+		assertEquals(1, detector.decisions.size());
+		assertEquals("tsv:Section", detector.detect(url).getId());
+		assertEquals(1, detector.decisions.size());
+
+		Files.write("nothing to see", file, Charsets.UTF_8);
+		assertNull(detector.detect(url));
+		assertEquals(2, detector.decisions.size());
+		assertSame(null, detector.detect(url));
+	}
+}
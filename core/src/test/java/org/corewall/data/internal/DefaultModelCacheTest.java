@@ -0,0 +1,123 @@
+package org.corewall.data.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.corewall.data.Model;
+import org.corewall.data.formats.CSVFormat;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Exercises the {@link DefaultModelCache} class.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DefaultModelCacheTest {
+	protected File dir;
+	protected URL url;
+
+	/**
+	 * Copy the test file to a scratch directory so its timestamp can change.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDir();
+		File csv = new File(dir, "test.csv");
+		Files.copy(new File(toPath("/org/corewall/data/io/test.csv")), csv);
+		url = csv.toURI().toURL();
+	}
+
+	private String toPath(final String resource) {
+		return DefaultModelCacheTest.class.getResource(resource).getFile();
+	}
+
+	/**
+	 * Test that entries round trip and are invalidated when the source changes.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testCache() throws IOException {
+		DefaultModelCache cache = new DefaultModelCache(new File(dir, "cache"), DefaultModelCache.DEFAULT_CAPACITY);
+		List<Map<String, String>> raw = new CSVFormat<Model>("csv:raw", ',', null).getRaw(url);
+		assertNull(cache.get("csv:raw", url));
+		cache.put("csv:raw", url, raw);
+		assertEquals(raw, cache.get("csv:raw", url));
+		assertNull(cache.get("tsv:raw", url));
+
+		// re-open the cache to make sure it persists
+		cache = new DefaultModelCache(new File(dir, "cache"), DefaultModelCache.DEFAULT_CAPACITY);
+		assertNotNull(cache.get("csv:raw", url));
+
+		// touch the file
+		new File(url.getFile()).setLastModified(System.currentTimeMillis() - 60000);
+		assertNull(cache.get("csv:raw", url));
+	}
+
+	/**
+	 * Test that concurrent writers and readers of an entry never see a
+	 * partial entry and leave a single entry behind.
+	 * 
+	 * @throws Exception
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testConcurrent() throws Exception {
+		final DefaultModelCache cache = new DefaultModelCache(new File(dir, "cache"),
+				DefaultModelCache.DEFAULT_CAPACITY);
+		final List<Map<String, String>> raw = new CSVFormat<Model>("csv:raw", ',', null).getRaw(url);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<Boolean>> results = Lists.newArrayList();
+		for (int i = 0; i < 64; i++) {
+			results.add(pool.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					cache.put("csv:raw", url, raw);
+					List<Map<String, String>> read = cache.get("csv:raw", url);
+					return (read == null) || read.equals(raw);
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue(result.get());
+		}
+		pool.shutdown();
+		assertEquals(raw, cache.get("csv:raw", url));
+		assertEquals(1, new File(dir, "cache").list().length);
+		assertEquals(new File(dir, "cache").listFiles()[0].length(), cache.size);
+	}
+
+	/**
+	 * Test that the cache stays under its capacity.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testEviction() throws IOException {
+		DefaultModelCache cache = new DefaultModelCache(new File(dir, "cache"), 1);
+		List<Map<String, String>> raw = new CSVFormat<Model>("csv:raw", ',', null).getRaw(url);
+		cache.put("csv:raw", url, raw);
+		assertNull(cache.get("csv:raw", url));
+		assertEquals(0, cache.size);
+	}
+}
@@ -0,0 +1,86 @@
+package org.corewall.data.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+import org.corewall.data.Model;
+import org.corewall.geology.models.Section;
+import org.corewall.geology.models.XYDatum;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests writing with {@link CSVModelWriter}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class CSVModelWriterTest {
+
+	/**
+	 * Test that rows come out the same whether a model writes into the row or
+	 * goes through its map.
+	 */
+	@Test
+	public void testRowBuffer() {
+		Section section = new Section(ImmutableMap.of("name", "A", "top", "1 m", "base", "2 m"));
+		final Map<String, String> map = section.toMap();
+		Model plain = new Model() {
+			public Map<String, String> toMap() {
+				return map;
+			}
+		};
+		RowBuffer row = new RowBuffer(new String[] { "base", "name", "missing" });
+		String[] expected = row.read(plain).clone();
+		assertEquals("A", expected[1]);
+		assertNull(expected[2]);
+		assertArrayEquals(expected, row.read(section));
+	}
+
+	/**
+	 * Test streaming models with a header map.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testStreaming() throws IOException {
+		StringWriter out = new StringWriter();
+		CSVModelWriter writer = new CSVModelWriter(out, ',', ImmutableMap.of("x", "X", "y", "Y"));
+		for (int i = 0; i < 1000; i++) {
+			writer.append(new XYDatum(i, i / 2.0));
+		}
+		writer.append(ImmutableList.of(new XYDatum(-1, -1)));
+		writer.close();
+
+		String[] lines = out.toString().split("\n");
+		assertEquals(1002, lines.length);
+		assertEquals("\"X\",\"Y\"", lines[0]);
+		assertEquals("\"3\",\"1.5\"", lines[4]);
+		assertEquals("\"-1\",\"-1\"", lines[1001]);
+	}
+
+	/**
+	 * Test writing a list without a header map takes the keys from the first
+	 * model.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testWrite() throws IOException {
+		StringWriter out = new StringWriter();
+		List<XYDatum> data = ImmutableList.of(new XYDatum(1, 2), new XYDatum(3, 4));
+		new CSVModelWriter(out, '\t').write(data);
+		String[] lines = out.toString().split("\n");
+		assertEquals(2, lines.length);
+		assertEquals(2, lines[1].split("\t").length);
+	}
+}
@@ -0,0 +1,153 @@
+package org.corewall.data.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.corewall.data.Model;
+import org.corewall.data.formats.CSVFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+/**
+ * Tests for {@link Streams}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class StreamsTest {
+	protected File dir;
+
+	private File gzip(final byte[] bytes, final String name) throws IOException {
+		File file = new File(dir, name);
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+		out.write(bytes);
+		out.close();
+		return file;
+	}
+
+	private byte[] read(final URL url) throws IOException {
+		InputStream in = Streams.open(url);
+		try {
+			return ByteStreams.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Create a temporary directory.
+	 */
+	@Before
+	public void setUp() {
+		dir = Files.createTempDir();
+	}
+
+	/**
+	 * Remove the temporary directory.
+	 */
+	@After
+	public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private static boolean decompressing() {
+		// pooled threads outlive their work, so look for a running decompressor
+		for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+			for (StackTraceElement element : stack) {
+				if (element.getClassName().endsWith("Streams$Gunzip") && "run".equals(element.getMethodName())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean waitForDecompression() throws InterruptedException {
+		for (int i = 0; (i < 100) && decompressing(); i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return decompressing();
+	}
+
+	/**
+	 * Test that the decompressing thread stops when the stream is closed or
+	 * abandoned part way through.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testAbandon() throws Exception {
+		byte[] bytes = new byte[4 * 1024 * 1024];
+		URL url = gzip(bytes, "zeros.gz").toURI().toURL();
+
+		InputStream in = Streams.open(url);
+		assertEquals(0, in.read());
+		in.close();
+		assertFalse(waitForDecompression());
+		try {
+			in.read();
+			fail("Reading a closed stream should fail");
+		} catch (IOException e) {
+			assertEquals("Stream closed", e.getMessage());
+		}
+
+		in = Streams.open(url);
+		assertEquals(0, in.read());
+		in = null;
+		assertFalse(waitForDecompression());
+	}
+
+	/**
+	 * Test reading a compressed CSV file by extension and by magic bytes.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@Test
+	public void testCSV() throws IOException {
+		URL url = StreamsTest.class.getResource("/org/corewall/data/io/test.csv");
+		byte[] bytes = Resources.toByteArray(url);
+		CSVFormat<Model> format = new CSVFormat<Model>("csv:raw", ',', null);
+		assertEquals(format.getRaw(url), format.getRaw(gzip(bytes, "test.csv.gz").toURI().toURL()));
+		assertEquals(format.getRaw(url), format.getRaw(gzip(bytes, "test.csv").toURI().toURL()));
+	}
+
+	/**
+	 * Test that a file spanning many chunks is decompressed intact.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@Test
+	public void testLarge() throws IOException {
+		byte[] bytes = new byte[3 * 1024 * 1024 + 17];
+		Random random = new Random(42);
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) ('a' + random.nextInt(4));
+		}
+		assertArrayEquals(bytes, read(gzip(bytes, "large.gz").toURI().toURL()));
+
+		File plain = new File(dir, "plain.txt");
+		Files.write(bytes, plain);
+		assertArrayEquals(bytes, read(plain.toURI().toURL()));
+	}
+}
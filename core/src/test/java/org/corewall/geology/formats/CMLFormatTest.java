@@ -0,0 +1,82 @@
+package org.corewall.geology.formats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.corewall.data.Filters;
+import org.corewall.geology.models.Image;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Exercises the {@link CMLFormat} class.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class CMLFormatTest {
+	protected File dir;
+	protected CMLFormat format;
+	protected URL session;
+
+	private URL image(final String name) throws Exception {
+		File file = new File(dir, name);
+		ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", file);
+		return file.toURI().toURL();
+	}
+
+	/**
+	 * Write a session with two images.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDir();
+		URL a = image("a.png");
+		URL b = image("b.png");
+		File cml = new File(dir, "session.cml");
+		Files.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<session name=\"Default\">\n"
+				+ "<visual type=\"core_section\" depth=\"0.0\" orientation=\"PORTRAIT\" urn=\"" + a + "\"/>\n"
+				+ "<visual type=\"core_section\" depth=\"1.0\" orientation=\"PORTRAIT\" urn=\"" + b + "\"/>\n"
+				+ "</session>\n", cml, Charsets.UTF_8);
+		session = cml.toURI().toURL();
+		format = new CMLFormat("cml:Image");
+	}
+
+	/**
+	 * Remove the session and images.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteRecursively(dir);
+	}
+
+	/**
+	 * Test reading the sections of a session.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testSession() throws Exception {
+		List<Image> images = format.getModels(session, Filters.property("type", "core_section"), null);
+		assertEquals(2, images.size());
+		assertEquals(new URL(dir.toURI().toURL(), "a.png"), images.get(0).getPath());
+		assertEquals(new URL(dir.toURI().toURL(), "b.png"), images.get(1).getPath());
+		assertEquals("core_section", images.get(1).getType());
+	}
+}
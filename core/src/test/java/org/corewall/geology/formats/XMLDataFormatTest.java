@@ -0,0 +1,53 @@
+package org.corewall.geology.formats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import org.corewall.geology.models.XYDataSet;
+import org.junit.Test;
+
+/**
+ * Exercises the {@link XMLDataFormat} class.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class XMLDataFormatTest {
+	protected final URL data = XMLDataFormatTest.class.getResource("data.xml");
+
+	/**
+	 * Test that the readings are streamed into one dataset per field.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testDataSets() throws IOException {
+		Map<String, XYDataSet> datasets = new XMLDataFormat("xml:XYDataSet").getDataSets(data);
+		assertEquals(1, datasets.size());
+		XYDataSet density = datasets.get("0");
+		assertNotNull(density);
+		assertEquals("density", density.getName());
+		assertEquals(97, density.getSize());
+		assertEquals(1.56, density.getAll().get(0).getY(), 1E-6);
+		assertEquals(9.69, density.getAll().get(0).getX(), 1E-6);
+	}
+
+	/**
+	 * Test that the raw maps are still available.
+	 * 
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	@Test
+	public void testRaw() throws IOException {
+		List<Map<String, String>> raw = new XMLDataFormat("xml:XYDataSet").getRaw(data);
+		assertEquals(98, raw.size());
+		assertEquals("section", raw.get(0).get("type"));
+		assertEquals("density", raw.get(1).get("field_name"));
+	}
+}
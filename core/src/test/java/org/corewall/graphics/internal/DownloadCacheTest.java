@@ -0,0 +1,148 @@
+package org.corewall.graphics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for {@link DownloadCache}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DownloadCacheTest {
+
+	/**
+	 * Test that files with the same name from different URLs do not collide,
+	 * that changed sources are fetched again, and that the least recently used
+	 * files are evicted across sessions.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testCache() throws Exception {
+		File sources = Files.createTempDir();
+		File hole1 = new File(sources, "hole1/1H-1.jpg");
+		File hole2 = new File(sources, "hole2/1H-1.jpg");
+		hole1.getParentFile().mkdirs();
+		hole2.getParentFile().mkdirs();
+		Files.write("0123456789", hole1, Charsets.UTF_8);
+		Files.write("abcdefghij", hole2, Charsets.UTF_8);
+		String path1 = hole1.toURI().toURL().toExternalForm();
+		String path2 = hole2.toURI().toURL().toExternalForm();
+
+		File dir = Files.createTempDir();
+		DownloadCache cache = new DownloadCache(dir, 25);
+		assertNull(cache.getIfCurrent(path1));
+		File cached1 = cache.get(path1);
+		File cached2 = cache.get(path2);
+		assertFalse(cached1.equals(cached2));
+		assertTrue(cached1.getName().endsWith(".jpg"));
+		assertEquals("0123456789", Files.toString(cached1, Charsets.UTF_8));
+		assertEquals("abcdefghij", Files.toString(cached2, Charsets.UTF_8));
+		assertEquals(20, cache.getSize());
+
+		// a new session finds the files through the index
+		cache.flush();
+		cache = new DownloadCache(dir, 25);
+		assertEquals(20, cache.getSize());
+		assertEquals(cached1, cache.getIfCurrent(path1));
+
+		// a changed source is fetched again
+		Files.write("9876543210", hole2, Charsets.UTF_8);
+		assertTrue(hole2.setLastModified(hole2.lastModified() - 10000));
+		assertNull(cache.getIfCurrent(path2));
+		assertEquals("9876543210", Files.toString(cache.get(path2), Charsets.UTF_8));
+
+		// hole 1 is the least recently used
+		File tiles = new File(cached1.getParentFile(), cached1.getName() + ".tiles");
+		assertTrue(tiles.mkdir());
+		File hole3 = new File(sources, "hole3.png");
+		Files.write("0123456789", hole3, Charsets.UTF_8);
+		assertNotNull(cache.get(hole3.toURI().toURL().toExternalForm()));
+		assertEquals(20, cache.getSize());
+		assertFalse(cached1.exists());
+		assertFalse(tiles.exists());
+		cache.flush();
+		assertEquals(20, new DownloadCache(dir, 25).getSize());
+	}
+
+	/**
+	 * Test that tile pyramids count towards the size of the cache and that
+	 * evicted files are reported.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testTiles() throws Exception {
+		File sources = Files.createTempDir();
+		File hole1 = new File(sources, "1H-1.jpg");
+		File hole2 = new File(sources, "1H-2.jpg");
+		Files.write("0123456789", hole1, Charsets.UTF_8);
+		Files.write("abcdefghij", hole2, Charsets.UTF_8);
+
+		File dir = Files.createTempDir();
+		final List<File> evicted = Lists.newArrayList();
+		DownloadCache cache = new DownloadCache(dir, 25) {
+			@Override
+			protected void evicted(final List<File> files) {
+				evicted.addAll(files);
+			}
+		};
+		File cached1 = cache.get(hole1.toURI().toURL().toExternalForm());
+		File cached2 = cache.get(hole2.toURI().toURL().toExternalForm());
+		assertTrue(evicted.isEmpty());
+
+		// the tiles of the second file push the first one out
+		File tiles = cache.tiles(cached2);
+		assertTrue(new File(tiles, "1").mkdirs());
+		Files.write("012345", new File(tiles, "1/0_0.png"), Charsets.UTF_8);
+		cache.tiled(cached2);
+		assertEquals(16, cache.getSize());
+		assertEquals(Lists.newArrayList(cached1), evicted);
+		assertFalse(cached1.exists());
+
+		// the tile size is kept in the index
+		cache.flush();
+		assertEquals(16, new DownloadCache(dir, 25).getSize());
+		Files.deleteRecursively(sources);
+		Files.deleteRecursively(dir);
+	}
+
+	/**
+	 * Test that a download is returned even if the index cannot be saved.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testUnsavedIndex() throws Exception {
+		File sources = Files.createTempDir();
+		File hole = new File(sources, "1H-1.jpg");
+		Files.write("0123456789", hole, Charsets.UTF_8);
+
+		// the temporary index file cannot be created over a directory
+		File dir = Files.createTempDir();
+		assertTrue(new File(dir, "index.properties.tmp").mkdir());
+		DownloadCache cache = new DownloadCache(dir, 25);
+		File cached = cache.get(hole.toURI().toURL().toExternalForm());
+		assertEquals("0123456789", Files.toString(cached, Charsets.UTF_8));
+		cache.flush();
+		assertFalse(new File(dir, "index.properties").exists());
+		assertEquals(cached, cache.getIfCurrent(hole.toURI().toURL().toExternalForm()));
+		Files.deleteRecursively(sources);
+		Files.deleteRecursively(dir);
+	}
+}
@@ -0,0 +1,100 @@
+package org.corewall.graphics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for {@link ImageCache}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class ImageCacheTest {
+	protected ImageCache cache;
+	protected BufferedImage original;
+	protected URL url;
+
+	/**
+	 * Write a long test image.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		File dir = Files.createTempDir();
+		original = new BufferedImage(300, 1500, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < original.getHeight(); y++) {
+			for (int x = 0; x < original.getWidth(); x++) {
+				original.setRGB(x, y, (x % 256) << 16 | (y % 256) << 8 | ((x + y) % 256));
+			}
+		}
+		File file = new File(dir, "long.png");
+		ImageIO.write(original, "png", file);
+		url = file.toURI().toURL();
+		cache = new ImageCache(Files.createTempDir());
+	}
+
+	/**
+	 * Test decoding only the blocks that cover a region.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testRegions() throws Exception {
+		assertEquals(new Dimension(300, 1500), cache.getDimensions(url));
+		List<Rectangle> blocks = cache.getBlocks(url, 1, new Rectangle(100, 400, 50, 200));
+		assertEquals(ImmutableList.of(new Rectangle(0, 0, 300, 512), new Rectangle(0, 512, 300, 512)), blocks);
+		assertEquals(ImmutableList.of(new Rectangle(0, 0, 300, 1024), new Rectangle(0, 1024, 300, 476)), cache
+				.getBlocks(url, 2, new Rectangle(0, 1000, 10, 100)));
+		assertEquals(0, cache.getBlocks(url, 1, new Rectangle(400, 0, 10, 10)).size());
+
+		BufferedImage block = cache.get(url, 1, blocks.get(1), true, null).get();
+		assertEquals(300, block.getWidth());
+		assertEquals(512, block.getHeight());
+		assertEquals(original.getRGB(17, 512), block.getRGB(17, 0));
+		assertEquals(original.getRGB(299, 1023), block.getRGB(299, 511));
+
+		// horizontal blocks are rotated and subsampled
+		BufferedImage rotated = cache.get(url, 2, new Rectangle(0, 1024, 300, 476), false, null).get();
+		assertEquals(238, rotated.getWidth());
+		assertEquals(150, rotated.getHeight());
+
+		// blocks are not used as placeholders for the whole image
+		assertNull(cache.getClosest(url, 1, true));
+		assertEquals(300, cache.get(url, 1, true, null).get().getWidth());
+		assertEquals(1500, cache.getClosest(url, 2, true).get().getHeight());
+	}
+
+	/**
+	 * Test that the dimensions of an unreadable image are not remembered.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testMissing() throws Exception {
+		File dir = Files.createTempDir();
+		File file = new File(dir, "missing.png");
+		URL missing = file.toURI().toURL();
+		assertEquals(new Dimension(1, 1), cache.getDimensions(missing));
+		ImageIO.write(new BufferedImage(40, 100, BufferedImage.TYPE_INT_RGB), "png", file);
+		assertEquals(new Dimension(40, 100), cache.getDimensions(missing));
+		Files.deleteRecursively(dir);
+	}
+}
@@ -0,0 +1,169 @@
+package org.corewall.graphics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Unit tests for {@link ImageMemoryCache}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class ImageMemoryCacheTest {
+	protected File file;
+	protected String path;
+
+	private LoadTask.Params params(final int level) {
+		return new LoadTask.Params(path, Futures.immediateFuture(file), level, true, null);
+	}
+
+	/**
+	 * Write a test image.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		file = new File(Files.createTempDir(), "test.png");
+		ImageIO.write(new BufferedImage(40, 100, BufferedImage.TYPE_INT_RGB), "png", file);
+		path = file.toURI().toURL().toExternalForm();
+	}
+
+	/**
+	 * Test that the least recently used images are dropped to stay within the
+	 * budget.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testBudget() throws Exception {
+		BufferedImage full = new LoadTask(params(0)).call();
+		long bytes = ImageMemoryCache.weigh(full);
+		assertEquals(LoadTask.displayType(false), full.getType());
+		assertEquals(40 * 100 * 4, bytes);
+
+		ImageMemoryCache cache = new ImageMemoryCache(bytes + ImageMemoryCache.weigh(new LoadTask(params(2)).call())) {
+			@Override
+			protected void load(final LoadTask.Params key, final LoadScheduler.Job task) {
+				task.run();
+			}
+		};
+		Future<BufferedImage> level0 = cache.get(params(0));
+		assertEquals(40, level0.get().getWidth());
+		Future<BufferedImage> level2 = cache.get(params(2));
+		assertEquals(20, level2.get().getWidth());
+		assertEquals(cache.getBudget(), cache.getSize());
+		assertSame(level0, cache.get(params(0)));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+
+		// level 2 is the least recently used
+		cache.get(params(4)).get();
+		assertEquals(1, cache.getEvictions());
+		assertSame(level0, cache.getClosest(path, 1, true));
+		assertEquals(3, cache.getMisses());
+
+		// level 0 is now the least recently used
+		cache.get(params(1)).get();
+		assertNotNull(cache.getClosest(path, 0, true));
+		assertEquals(bytes + bytes / 16, cache.getSize());
+		assertEquals(2, cache.getEvictions());
+		assertNull(cache.getClosest("missing", 0, true));
+	}
+
+	/**
+	 * Test that images still loading are not dropped and cancelled loads are
+	 * retried.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testLoading() throws Exception {
+		final Runnable[] pending = new Runnable[1];
+		ImageMemoryCache cache = new ImageMemoryCache(0) {
+			@Override
+			protected void load(final LoadTask.Params key, final LoadScheduler.Job task) {
+				if (key.level == 0) {
+					pending[0] = task;
+				} else {
+					task.run();
+				}
+			}
+		};
+		Future<BufferedImage> level0 = cache.get(params(0));
+		cache.get(params(1)).get();
+		assertSame(level0, cache.get(params(0)));
+		assertEquals(0, cache.getEvictions());
+
+		level0.cancel(false);
+		Future<BufferedImage> retry = cache.get(params(0));
+		assertEquals(false, retry == level0);
+		pending[0].run();
+		assertEquals(40, retry.get().getWidth());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	/**
+	 * Test that the closest level comes from the index and that the index
+	 * follows eviction.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testClosest() throws Exception {
+		long budget = ImageMemoryCache.weigh(new LoadTask(params(2)).call())
+				+ ImageMemoryCache.weigh(new LoadTask(params(4)).call());
+		ImageMemoryCache cache = new ImageMemoryCache(budget) {
+			@Override
+			protected void load(final LoadTask.Params key, final LoadScheduler.Job task) {
+				task.run();
+			}
+		};
+		assertNull(cache.getClosest(path, 4, true));
+		Future<BufferedImage> level8 = cache.get(params(8));
+		Future<BufferedImage> level4 = cache.get(params(4));
+		cache.get(new LoadTask.Params(path, Futures.immediateFuture(file), null, 5, new Rectangle(0, 0, 10, 10),
+				true, null)).get();
+		assertSame(level4, cache.getClosest(path, 5, true));
+		assertSame(level4, cache.getClosest(path, 6, true));
+		assertSame(level8, cache.getClosest(path, 7, true));
+		assertSame(level8, cache.getClosest(path, 10, true));
+		assertSame(level4, cache.getClosest(path, 0, true));
+
+		// level 8 and the region are dropped to make room for level 2
+		assertSame(level4, cache.get(params(4)));
+		Future<BufferedImage> level2 = cache.get(params(2));
+		level2.get();
+		assertEquals(2, cache.getEvictions());
+		assertSame(level4, cache.getClosest(path, 10, true));
+		assertSame(level2, cache.getClosest(path, 3, true));
+
+		// a horizontal image is not a placeholder for a vertical one, and
+		// level 4 is dropped to make room for it
+		assertNull(cache.getClosest(path, 4, false));
+		Future<BufferedImage> horizontal = cache.get(new LoadTask.Params(path, Futures.immediateFuture(file), 7,
+				false, null));
+		horizontal.get();
+		assertSame(horizontal, cache.getClosest(path, 4, false));
+		assertSame(level2, cache.getClosest(path, 4, true));
+	}
+}
@@ -0,0 +1,165 @@
+package org.corewall.graphics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for {@link ImageMetadataIndex}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class ImageMetadataIndexTest {
+
+	private static URL write(final File file, final int width, final int height) throws Exception {
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", file);
+		return file.toURI().toURL();
+	}
+
+	/**
+	 * Test reading, saving, and revalidating metadata.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testIndex() throws Exception {
+		File images = Files.createTempDir();
+		File dir = Files.createTempDir();
+		URL a = write(new File(images, "a.png"), 40, 100);
+		URL b = write(new File(images, "b.png"), 30, 20);
+		Files.write("not an image".getBytes("UTF-8"), new File(images, "notes.txt"));
+
+		// populating a directory reads every image and saves the index
+		ImageMetadataIndex index = new ImageMetadataIndex(dir);
+		index.populate(images);
+		assertTrue(new File(dir, "metadata.properties").exists());
+		ImageMetadataIndex.Metadata metadata = index.get(a);
+		assertEquals(40, metadata.getWidth());
+		assertEquals(100, metadata.getHeight());
+		assertEquals("PNG", metadata.getFormat());
+		assertFalse(metadata.isProgressive());
+
+		// a new index uses the saved entries, even if the image is missing
+		File moved = new File(images, "a.moved");
+		new File(images, "a.png").renameTo(moved);
+		assertEquals(100, new ImageMetadataIndex(dir).get(a).getHeight());
+		moved.renameTo(new File(images, "a.png"));
+
+		// changed images are read again
+		write(new File(images, "b.png"), 300, 200);
+		new File(images, "b.png").setLastModified(System.currentTimeMillis() + 10000);
+		assertEquals(300, new ImageMetadataIndex(dir).get(b).getWidth());
+
+		// unreadable images have no metadata
+		assertNull(index.get(new File(images, "notes.txt").toURI().toURL()));
+	}
+
+	/**
+	 * Test that flushing saves the use of an indexed image.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testFlush() throws Exception {
+		File dir = Files.createTempDir();
+		Properties properties = new Properties();
+		long used = System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000L;
+		properties.setProperty("file:/old.png", "\t10\t10\t-1\t-1\tPNG\tfalse\t" + used);
+		OutputStream out = new FileOutputStream(new File(dir, "metadata.properties"));
+		properties.store(out, null);
+		out.close();
+
+		// nothing has changed yet, so there is nothing to save
+		ImageMetadataIndex index = new ImageMetadataIndex(dir);
+		File file = new File(dir, "metadata.properties");
+		long modified = file.lastModified();
+		index.flush();
+		assertEquals(modified, file.lastModified());
+
+		assertEquals(10, index.get(new URL("file:/old.png")).getWidth());
+		index.flush();
+		properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		properties.load(in);
+		in.close();
+		String[] values = properties.getProperty("file:/old.png").split("\t");
+		assertTrue(Long.parseLong(values[7]) > used);
+		Files.deleteRecursively(dir);
+	}
+
+	/**
+	 * Test that entries unused for too long are pruned from the saved index.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testPrune() throws Exception {
+		File images = Files.createTempDir();
+		File dir = Files.createTempDir();
+		Properties properties = new Properties();
+		properties.setProperty("file:/stale.png", "1:1\t10\t10\t-1\t-1\tPNG\tfalse\t0");
+		properties.setProperty("file:/old.png", "1:1\t10\t10\t-1\t-1\tPNG\tfalse");
+		OutputStream out = new FileOutputStream(new File(dir, "metadata.properties"));
+		properties.store(out, null);
+		out.close();
+		write(new File(images, "a.png"), 40, 100);
+
+		new ImageMetadataIndex(dir).populate(images);
+		properties = new Properties();
+		InputStream in = new FileInputStream(new File(dir, "metadata.properties"));
+		properties.load(in);
+		in.close();
+		assertFalse(properties.containsKey("file:/stale.png"));
+		assertTrue(properties.containsKey("file:/old.png"));
+		assertEquals(2, properties.size());
+	}
+
+	/**
+	 * Test that an indexed remote image is used without waiting on its
+	 * source.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testRemote() throws Exception {
+		File images = Files.createTempDir();
+		File dir = Files.createTempDir();
+		File jar = new File(images, "images.jar");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		out.putNextEntry(new JarEntry("a.png"));
+		ImageIO.write(new BufferedImage(40, 100, BufferedImage.TYPE_INT_RGB), "png", out);
+		out.close();
+		URL url = new URL("jar:" + jar.toURI().toURL() + "!/a.png");
+
+		ImageMetadataIndex index = new ImageMetadataIndex(dir);
+		index.populate(Collections.singleton(url));
+		assertEquals(100, index.get(url).getHeight());
+
+		// the source is gone but the indexed entry is used
+		assertTrue(jar.delete());
+		assertEquals(40, new ImageMetadataIndex(dir).get(url).getWidth());
+	}
+}
@@ -0,0 +1,84 @@
+package org.corewall.graphics.internal;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Compares the time to repaint a screen full of core images drawn straight
+ * from the decoder with the same images converted by
+ * {@link LoadTask#toDisplay(BufferedImage, boolean)}, both at their decoded
+ * size and scaled to fit the screen. Run it from the test classpath.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public final class ImageRepaintBenchmark {
+	private static final int CORES = 12;
+	private static final int HEIGHT = 1200;
+	private static final int ROUNDS = 10;
+	private static final int WIDTH = 1920;
+
+	private static long repaint(final Graphics2D g2, final BufferedImage[] images, final boolean scaled) {
+		long start = System.nanoTime();
+		int column = WIDTH / CORES;
+		for (int i = 0; i < images.length; i++) {
+			if (scaled) {
+				g2.drawImage(images[i], i * column, 0, column, HEIGHT, null);
+			} else {
+				g2.drawImage(images[i], i * column, 0, null);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args
+	 *            ignored.
+	 * @throws IOException
+	 *             should not be thrown.
+	 */
+	public static void main(final String[] args) throws IOException {
+		// a core image as the JPEG reader decodes it
+		BufferedImage core = new BufferedImage(WIDTH / CORES, HEIGHT * 2, BufferedImage.TYPE_3BYTE_BGR);
+		Random random = new Random(42);
+		for (int y = 0; y < core.getHeight(); y++) {
+			for (int x = 0; x < core.getWidth(); x++) {
+				int shade = 80 + random.nextInt(60);
+				core.setRGB(x, y, (shade + 30) << 16 | (shade + 10) << 8 | shade);
+			}
+		}
+		File file = File.createTempFile("core", ".jpg");
+		file.deleteOnExit();
+		ImageIO.write(core, "jpeg", file);
+
+		BufferedImage[] decoded = new BufferedImage[CORES];
+		BufferedImage[] display = new BufferedImage[CORES];
+		for (int i = 0; i < CORES; i++) {
+			decoded[i] = ImageIO.read(file);
+			display[i] = LoadTask.toDisplay(decoded[i], false);
+		}
+		System.out.printf("decoded type %d, display type %d%n", decoded[0].getType(), display[0].getType());
+
+		BufferedImage screen = new BufferedImage(WIDTH, HEIGHT, LoadTask.displayType(false));
+		Graphics2D g2 = screen.createGraphics();
+		for (int round = 0; round < ROUNDS; round++) {
+			long before = repaint(g2, decoded, false);
+			long after = repaint(g2, display, false);
+			long beforeScaled = repaint(g2, decoded, true);
+			long afterScaled = repaint(g2, display, true);
+			System.out.printf("round %d: decoded %.1f ms, display %.1f ms; scaled decoded %.1f ms, display %.1f ms%n",
+					round, before / 1e6, after / 1e6, beforeScaled / 1e6, afterScaled / 1e6);
+		}
+		g2.dispose();
+	}
+
+	private ImageRepaintBenchmark() {
+		// not instantiated
+	}
+}
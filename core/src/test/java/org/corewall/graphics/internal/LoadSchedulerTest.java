@@ -0,0 +1,118 @@
+package org.corewall.graphics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Unit tests for {@link LoadScheduler}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class LoadSchedulerTest {
+	/**
+	 * A job that records when it runs.
+	 */
+	private static class TestJob extends FutureTask<String> implements LoadScheduler.Job {
+		final LoadTask.Params request;
+
+		TestJob(final LoadTask.Params request, final List<String> ran, final CountDownLatch started,
+				final CountDownLatch gate) {
+			super(new Callable<String>() {
+				public String call() throws Exception {
+					started.countDown();
+					gate.await();
+					synchronized (ran) {
+						ran.add(request.path);
+					}
+					return request.path;
+				}
+			});
+			this.request = request;
+		}
+
+		public LoadTask.Params getRequest() {
+			return request;
+		}
+	}
+
+	private static LoadTask.Params request(final String path, final JComponent component) {
+		return new LoadTask.Params(path, null, 0, true, component);
+	}
+
+	/**
+	 * Test that the closest and most recent requests run first and that
+	 * requests that were not renewed are cancelled.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testPriority() throws Exception {
+		JPanel panel = new JPanel() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean isShowing() {
+				return true;
+			}
+		};
+		LoadScheduler scheduler = new LoadScheduler(1, 1);
+		List<String> ran = Lists.newArrayList();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch open = new CountDownLatch(0);
+
+		// the first job holds the only thread while the rest are queued
+		scheduler.startPass(panel);
+		LoadTask.Params first = request("first", panel);
+		scheduler.stamp(first, 0);
+		scheduler.decode.execute(new TestJob(first, ran, started, gate));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		LoadTask.Params far = request("far", panel);
+		scheduler.stamp(far, 500);
+		LoadTask.Params old = request("old", panel);
+		scheduler.stamp(old, 0);
+		LoadTask.Params near = request("near", panel);
+		scheduler.stamp(near, 0);
+		LoadTask.Params headless = request("headless", null);
+		scheduler.stamp(headless, 1000);
+		List<TestJob> jobs = Lists.newArrayList();
+		for (LoadTask.Params p : ImmutableList.of(far, old, near, headless)) {
+			TestJob job = new TestJob(p, ran, new CountDownLatch(1), open);
+			jobs.add(job);
+			scheduler.decode.execute(job);
+		}
+		assertEquals(4, scheduler.decode.getPending());
+		assertEquals(1, scheduler.decode.getRunning());
+
+		// only the near image is drawn in the next paint, so the far one is
+		// stale once another paint starts
+		scheduler.startPass(panel);
+		scheduler.stamp(near, 0);
+		scheduler.stamp(old, 0);
+		scheduler.startPass(panel);
+		gate.countDown();
+		for (TestJob job : jobs) {
+			if (job.request != far) {
+				job.get(5, TimeUnit.SECONDS);
+			}
+		}
+		assertTrue(jobs.get(0).isCancelled());
+		assertEquals(ImmutableList.of("first", "old", "near", "headless"), ran);
+	}
+}
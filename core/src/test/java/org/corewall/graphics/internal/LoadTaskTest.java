@@ -0,0 +1,87 @@
+package org.corewall.graphics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link LoadTask}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class LoadTaskTest {
+
+	private static BufferedImage create(final int type) {
+		BufferedImage image = new BufferedImage(37, 90, type);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, 0xff000000 | (x * 6) << 16 | (y * 2) << 8 | ((x + y) % 256));
+			}
+		}
+		return image;
+	}
+
+	private static void assertRotated(final BufferedImage image, final BufferedImage rotated) {
+		assertEquals(image.getHeight(), rotated.getWidth());
+		assertEquals(image.getWidth(), rotated.getHeight());
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				assertEquals(image.getRGB(x, y), rotated.getRGB(image.getHeight() - 1 - y, x));
+			}
+		}
+	}
+
+	private static void assertRotated(final BufferedImage image) {
+		assertRotated(image, LoadTask.rotate(image));
+	}
+
+	/**
+	 * Test converting images to the display type.
+	 */
+	@Test
+	public void testDisplay() {
+		int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+				BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY };
+		for (int type : types) {
+			BufferedImage image = create(type);
+			boolean alpha = image.getColorModel().hasAlpha();
+
+			BufferedImage converted = LoadTask.toDisplay(image, false);
+			assertEquals(LoadTask.displayType(alpha), converted.getType());
+			assertNotSame(image, converted);
+			if (image.getColorModel().getColorSpace().isCS_sRGB()) {
+				for (int y = 0; y < image.getHeight(); y += 7) {
+					for (int x = 0; x < image.getWidth(); x += 3) {
+						assertEquals(image.getRGB(x, y), converted.getRGB(x, y));
+					}
+				}
+			}
+
+			// rotating while converting matches converting then rotating
+			BufferedImage rotated = LoadTask.toDisplay(image, true);
+			assertEquals(LoadTask.displayType(alpha), rotated.getType());
+			assertRotated(converted, rotated);
+		}
+	}
+
+	/**
+	 * Test rotating images with different pixel layouts.
+	 */
+	@Test
+	public void testRotate() {
+		assertRotated(create(BufferedImage.TYPE_INT_RGB));
+		assertRotated(create(BufferedImage.TYPE_INT_ARGB));
+		assertRotated(create(BufferedImage.TYPE_3BYTE_BGR));
+		assertRotated(create(BufferedImage.TYPE_4BYTE_ABGR));
+		assertRotated(create(BufferedImage.TYPE_BYTE_GRAY));
+		assertRotated(create(BufferedImage.TYPE_USHORT_GRAY));
+		assertRotated(create(BufferedImage.TYPE_BYTE_BINARY));
+		assertRotated(create(BufferedImage.TYPE_INT_RGB).getSubimage(5, 7, 20, 30));
+
+		// the pixel layout is kept
+		assertEquals(BufferedImage.TYPE_3BYTE_BGR, LoadTask.rotate(create(BufferedImage.TYPE_3BYTE_BGR)).getType());
+	}
+}
@@ -0,0 +1,161 @@
+package org.corewall.graphics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for {@link TilePyramid}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class TilePyramidTest {
+	private static void assertClose(final int expected, final int actual) {
+		for (int shift = 0; shift < 24; shift += 8) {
+			assertTrue(Math.abs(((expected >> shift) & 0xff) - ((actual >> shift) & 0xff)) <= 4);
+		}
+	}
+
+	/**
+	 * Test building, reusing, and reading a pyramid of an image with alpha,
+	 * which is stored losslessly.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testPyramid() throws Exception {
+		File dir = Files.createTempDir();
+		BufferedImage original = new BufferedImage(300, 1500, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < original.getHeight(); y++) {
+			for (int x = 0; x < original.getWidth(); x++) {
+				original.setRGB(x, y, 0xff000000 | (x % 256) << 16 | (y % 256) << 8 | ((x + y) % 256));
+			}
+		}
+		File source = new File(dir, "core.png");
+		ImageIO.write(original, "png", source);
+
+		TilePyramid pyramid = TilePyramid.open(source);
+		assertNotNull(pyramid);
+		assertEquals(300, pyramid.getWidth());
+		assertEquals(1500, pyramid.getHeight());
+		assertEquals(1, pyramid.getScale(0));
+		assertEquals(2, pyramid.getScale(3));
+		assertEquals(4, pyramid.getScale(10));
+		File index = new File(dir, "core.png.tiles/pyramid.properties");
+		assertTrue(index.exists());
+		assertTrue(new File(dir, "core.png.tiles/1/0_2.png").exists());
+		assertTrue(new File(dir, "core.png.tiles/4/0_0.png").exists());
+
+		// the full image is stitched back together exactly
+		BufferedImage full = pyramid.read(0, null);
+		assertEquals(300, full.getWidth());
+		assertEquals(1500, full.getHeight());
+		for (int y = 0; y < 1500; y += 37) {
+			for (int x = 0; x < 300; x += 13) {
+				assertEquals(original.getRGB(x, y), full.getRGB(x, y));
+			}
+		}
+
+		// other levels have the same dimensions as subsampling
+		BufferedImage third = pyramid.read(3, null);
+		assertEquals(100, third.getWidth());
+		assertEquals(500, third.getHeight());
+		BufferedImage region = pyramid.read(1, new Rectangle(10, 500, 50, 100));
+		assertEquals(50, region.getWidth());
+		assertEquals(100, region.getHeight());
+		assertEquals(original.getRGB(10, 500), region.getRGB(0, 0));
+		assertEquals(original.getRGB(59, 599), region.getRGB(49, 99));
+
+		// an unchanged source reuses the pyramid
+		long modified = index.lastModified();
+		Thread.sleep(10);
+		assertNotNull(TilePyramid.open(source));
+		assertEquals(modified, index.lastModified());
+
+		// small images are not tiled
+		File small = new File(dir, "small.png");
+		ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", small);
+		assertNull(TilePyramid.open(small));
+	}
+
+	/**
+	 * Test that opaque images are cut into JPEG tiles.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testOpaque() throws Exception {
+		File dir = Files.createTempDir();
+		BufferedImage original = new BufferedImage(300, 1500, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = original.createGraphics();
+		g2.setColor(new Color(0x804020));
+		g2.fillRect(0, 0, 300, 750);
+		g2.setColor(new Color(0x2060a0));
+		g2.fillRect(0, 750, 300, 750);
+		g2.dispose();
+		File source = new File(dir, "core.png");
+		ImageIO.write(original, "png", source);
+
+		TilePyramid pyramid = TilePyramid.open(source);
+		assertTrue(new File(dir, "core.png.tiles/1/0_2.jpg").exists());
+		assertFalse(new File(dir, "core.png.tiles/1/0_2.png").exists());
+
+		// the tiles are close to the source away from the edge
+		BufferedImage full = TilePyramid.open(source).read(0, null);
+		assertEquals(1500, full.getHeight());
+		assertClose(0x804020, full.getRGB(150, 300));
+		assertClose(0x2060a0, full.getRGB(150, 1200));
+		assertEquals(750, pyramid.read(2, null).getHeight());
+		Files.deleteRecursively(dir);
+	}
+
+	/**
+	 * Test building a pyramid taller than a single decoded strip.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testStrips() throws Exception {
+		File dir = Files.createTempDir();
+		BufferedImage original = new BufferedImage(600, 5000, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < original.getHeight(); y++) {
+			for (int x = 0; x < original.getWidth(); x++) {
+				original.setRGB(x, y, 0xff000000 | (x % 256) << 16 | (y % 256) << 8 | (y / 256));
+			}
+		}
+		File source = new File(dir, "core.png");
+		ImageIO.write(original, "png", source);
+
+		TilePyramid pyramid = TilePyramid.open(source);
+		assertEquals(8, pyramid.getScale(10));
+		assertTrue(new File(dir, "core.png.tiles/1/1_9.png").exists());
+		assertTrue(new File(dir, "core.png.tiles/8/0_1.png").exists());
+		assertEquals(625, pyramid.read(8, null).getHeight());
+
+		// rows on both sides of the strip boundary are kept exactly
+		BufferedImage region = pyramid.read(0, new Rectangle(500, 4000, 100, 200));
+		for (int y = 0; y < 200; y += 7) {
+			for (int x = 0; x < 100; x += 11) {
+				assertEquals(original.getRGB(500 + x, 4000 + y), region.getRGB(x, y));
+			}
+		}
+		Files.deleteRecursively(dir);
+	}
+}
@@ -0,0 +1,117 @@
+package org.corewall.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.corewall.Platform;
+import org.corewall.data.Filters;
+import org.corewall.geology.formats.CMLFormat;
+import org.corewall.geology.models.Image;
+import org.corewall.geology.models.Section;
+import org.corewall.graphics.internal.ImageCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.inject.Provider;
+
+/**
+ * Exercises the {@link DefaultModelProbe} class.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DefaultModelProbeTest {
+	/**
+	 * Start the platform so the image cache is available.
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		Platform.start();
+	}
+
+	protected File dir;
+	protected DefaultModelProbe probe;
+	protected URL session;
+
+	private URL image(final String name, final int width, final int height) throws Exception {
+		File file = new File(dir, name);
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", file);
+		return file.toURI().toURL();
+	}
+
+	/**
+	 * Write a session with two images.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDir();
+		URL a = image("a.png", 40, 100);
+		URL b = image("b.png", 30, 20);
+		File cml = new File(dir, "session.cml");
+		Files.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<session name=\"Default\">\n"
+				+ "<visual type=\"core_section\" depth=\"0.0\" orientation=\"PORTRAIT\" urn=\"" + a + "\"/>\n"
+				+ "<visual type=\"core_section\" depth=\"1.0\" orientation=\"PORTRAIT\" urn=\"" + b + "\"/>\n"
+				+ "</session>\n", cml, Charsets.UTF_8);
+		session = cml.toURI().toURL();
+		probe = new DefaultModelProbe(new Provider<ImageCache>() {
+			public ImageCache get() {
+				return Platform.getService(ImageCache.class);
+			}
+		});
+	}
+
+	/**
+	 * Remove the session and images.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteRecursively(dir);
+	}
+
+	/**
+	 * Test that models without images are not probed.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testNoImages() throws Exception {
+		assertTrue(probe.probe(ImmutableList.<Image> of()).isDone());
+		assertTrue(probe.probe(ImmutableList.of(Section.builder().name("1").top(0).base(1).build())).isDone());
+	}
+
+	/**
+	 * Test that probing the sections of a session fills in their dimensions.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testProbe() throws Exception {
+		List<Image> images = new CMLFormat("cml:Image").getModels(session,
+				Filters.property("type", "core_section"), null);
+		probe.probe(images).get();
+		assertEquals(2, images.size());
+		assertEquals(40, images.get(0).getWidth());
+		assertEquals(100, images.get(0).getHeight());
+		assertEquals(30, images.get(1).getWidth());
+		assertEquals(20, images.get(1).getHeight());
+	}
+}
@@ -0,0 +1,149 @@
+package org.corewall.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.corewall.data.Model;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.data.formats.CSVFormat;
+import org.corewall.geology.models.Section;
+import org.corewall.internal.DefaultProject.DefaultManifestEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+/**
+ * Unit tests for {@link DefaultModelStore}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DefaultModelStoreTest {
+	protected File dir;
+	protected AtomicInteger reads;
+	protected TestRegistry registry;
+
+	private URL copy(final String name) throws IOException {
+		File file = new File(dir, name);
+		Files.write(Resources.toByteArray(DefaultModelStoreTest.class
+				.getResource("/org/corewall/geology/formats/sections.tsv")), file);
+		return file.toURI().toURL();
+	}
+
+	/**
+	 * Create a registry backed by a map that counts the entries read.
+	 */
+	@Before
+	public void setUp() {
+		dir = Files.createTempDir();
+		reads = new AtomicInteger();
+		registry = new TestRegistry();
+		registry.register(new CSVFormat<Section>("tsv:Section", '\t', Section.factory()) {
+			@Override
+			public List<Section> getModels(final URL url) throws IOException {
+				reads.incrementAndGet();
+				return super.getModels(url);
+			}
+		});
+	}
+
+	/**
+	 * Remove the copied entries.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteRecursively(dir);
+	}
+
+	/**
+	 * Test that the least recently used entries are dropped and reloaded.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testEviction() throws Exception {
+		ManifestEntry a = new DefaultManifestEntry("A", "Section", "tsv", copy("a.tsv"));
+		ManifestEntry b = new DefaultManifestEntry("B", "Section", "tsv", copy("b.tsv"));
+		ManifestEntry c = new DefaultManifestEntry("C", "Section", "tsv", copy("c.tsv"));
+		DefaultProjectLoader loader = new DefaultProjectLoader(registry, 1);
+		long bytes = DefaultModelStore.estimate(loader.read(a));
+		reads.set(0);
+
+		DefaultModelStore store = new DefaultModelStore(loader, 2 * bytes);
+		List<? extends Model> first = store.get(a);
+		assertEquals(3, first.size());
+		assertSame(first, store.get(a));
+		store.get(b);
+		assertEquals(2, reads.get());
+		assertEquals(2 * bytes, store.getSize());
+
+		// touch A so B is the least recently used
+		store.get(a);
+		store.get(c);
+		assertEquals(3, reads.get());
+		assertNull(store.getIfPresent(b));
+		assertNotNull(store.getIfPresent(a));
+		assertEquals(2 * bytes, store.getSize());
+
+		// looking A up touched it, so C is dropped next
+		store.get(b);
+		assertEquals(4, reads.get());
+		assertNull(store.getIfPresent(c));
+		assertNotNull(store.getIfPresent(a));
+
+		// an equivalent entry from another manifest shares the models
+		assertSame(store.get(a), store.get(new DefaultManifestEntry("A2", "Section", "tsv", a.getPath())));
+		assertEquals(4, reads.get());
+
+		store.invalidate(b);
+		assertEquals(bytes, store.getSize());
+		store.invalidateAll();
+		assertEquals(0, store.getSize());
+	}
+
+	/**
+	 * Test that entries of different types reading the same file do not share
+	 * their models.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testTypes() throws Exception {
+		registry.register(new CSVFormat<Model>("tsv:raw", '\t', null));
+		URL path = copy("a.tsv");
+		DefaultModelStore store = new DefaultModelStore(new DefaultProjectLoader(registry, 1), Long.MAX_VALUE);
+		List<? extends Model> sections = store.get(new DefaultManifestEntry("A", "Section", "tsv", path));
+		List<? extends Model> raw = store.get(new DefaultManifestEntry("A", "raw", "tsv", path));
+		assertEquals(3, sections.size());
+		assertNotSame(sections, raw);
+		assertEquals(0, raw.size());
+	}
+
+	/**
+	 * Test that an entry that fails to load is not stored.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test(expected = IOException.class)
+	public void testFailure() throws Exception {
+		DefaultModelStore store = new DefaultModelStore(new DefaultProjectLoader(registry, 1), 1024);
+		store.get(new DefaultManifestEntry("Missing", "Section", "tsv", null));
+	}
+}
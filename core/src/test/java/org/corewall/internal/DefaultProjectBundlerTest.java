@@ -0,0 +1,232 @@
+package org.corewall.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.corewall.Platform;
+import org.corewall.ProjectBundler.Bundle;
+import org.corewall.data.AbstractFactory;
+import org.corewall.data.Cells;
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.Attr;
+import org.corewall.data.formats.CSVFormat;
+import org.corewall.geology.models.Image;
+import org.corewall.geology.models.Section;
+import org.corewall.geology.models.XYDatum;
+import org.corewall.internal.DefaultProject.DefaultManifestEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for {@link DefaultProjectBundler}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DefaultProjectBundlerTest {
+
+	/**
+	 * Start the platform.
+	 */
+	@BeforeClass
+	public static void startPlatform() {
+		Platform.start();
+	}
+
+	protected File dir;
+	protected TestRegistry registry;
+
+	/**
+	 * Create a temporary directory and a registry backed by a map.
+	 */
+	@Before
+	public void setUp() {
+		dir = Files.createTempDir();
+		registry = new TestRegistry();
+		registry.register(new CSVFormat<Section>("tsv:Section", '\t', Section.factory()));
+		registry.register(new CSVFormat<Image>("tsv:Image", '\t', Image.factory()));
+		registry.register(new CSVFormat<Model>("csv:raw", ',', null));
+	}
+
+	/**
+	 * Remove the temporary directory.
+	 */
+	@After
+	public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private void assertCorrupt(final DefaultProjectBundler bundler, final File file) {
+		try {
+			bundler.open(file).close();
+			fail("Corrupt bundle should not open");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that truncated or damaged bundles are rejected when they are
+	 * opened.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testCorrupt() throws Exception {
+		DefaultProject project = new DefaultProject();
+		project.setId("corrupt");
+		project.setName("Corrupt Test");
+		project.addEntry(new DefaultManifestEntry("Data", "raw", "csv", DefaultProjectBundlerTest.class
+				.getResource("/org/corewall/data/io/test.csv")));
+		File file = new File(dir, "test.cwb");
+		DefaultProjectBundler bundler = new DefaultProjectBundler(registry);
+		bundler.export(project, file);
+		assertEquals(1, dir.list().length);
+		byte[] bytes = Files.toByteArray(file);
+
+		// too short for a header
+		File broken = new File(dir, "broken.cwb");
+		Files.write(Arrays.copyOf(bytes, 10), broken);
+		assertCorrupt(bundler, broken);
+
+		// table of contents past the end of the file
+		byte[] copy = bytes.clone();
+		ByteBuffer.wrap(copy).putLong(12, bytes.length + 1);
+		Files.write(copy, broken);
+		assertCorrupt(bundler, broken);
+
+		// truncated table of contents
+		Files.write(Arrays.copyOf(bytes, bytes.length - 8), broken);
+		assertCorrupt(bundler, broken);
+	}
+
+	/**
+	 * Test that number columns are stored as doubles while keeping the exact
+	 * text of values that do not round trip.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testNumbers() throws Exception {
+		final List<Double> read = Lists.newArrayList();
+		registry.register(new CSVFormat<XYDatum>("csv:XYDatum", ',', new AbstractFactory<XYDatum>(null) {
+			@Override
+			public XYDatum build(final Binding binding, final String[] values, final Cells cells) {
+				read.add(cells.getDouble(binding.column("x")));
+				read.add(cells.getDouble(binding.column("y")));
+				return super.build(binding, values, cells);
+			}
+
+			@Override
+			protected XYDatum internalBuild(final Map<String, String> map) {
+				return new XYDatum(map);
+			}
+		}));
+		File data = new File(dir, "data.csv");
+		Files.write("x,y,label\n1,1.50,a\n2,2.5,b\n3,1e3,c\n-0,NaN,d\n", data, Charsets.UTF_8);
+
+		DefaultProject project = new DefaultProject();
+		project.setId("numbers");
+		project.setPath(dir);
+		project.addEntry(new DefaultManifestEntry("Raw", "raw", "csv", data.toURI().toURL()));
+		project.addEntry(new DefaultManifestEntry("Data", "XYDatum", "csv", data.toURI().toURL()));
+		File file = new File(dir, "numbers.cwb");
+		DefaultProjectBundler bundler = new DefaultProjectBundler(registry);
+		bundler.export(project, file);
+
+		Bundle bundle = bundler.open(file);
+		try {
+			Project opened = bundle.getProject();
+			assertEquals(registry.get("csv:raw").getRaw(data.toURI().toURL()), bundle.getRaw(opened.getManifest()
+					.get(0)));
+			List<? extends Model> models = bundle.getModels(opened.getManifest().get(1));
+			assertEquals(4, models.size());
+			assertEquals(Arrays.asList(1.0, 1.5, 2.0, 2.5, 3.0, 1000.0, -0.0, Double.NaN), read);
+		} finally {
+			bundle.close();
+		}
+	}
+
+	/**
+	 * Test that a project survives the round trip through a bundle.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		URL icon = DefaultProjectBundlerTest.class.getResource("/org/corewall/graphics/icon.png");
+		File images = new File(dir, "images.tsv");
+		Files.write("path\ttop\tbase\torientation\n" + icon.toExternalForm() + "\t1.0\t2.0\tvertical\n", images,
+				Charsets.UTF_8);
+
+		DefaultProject project = new DefaultProject();
+		project.setId("bundle");
+		project.setName("Bundle Test");
+		project.setAttribute(Attr.SITE, "1");
+		project.setPath(dir);
+		URL sections = DefaultProjectBundlerTest.class.getResource("/org/corewall/geology/formats/sections.tsv");
+		URL data = DefaultProjectBundlerTest.class.getResource("/org/corewall/data/io/test.csv");
+		project.addEntry(new DefaultManifestEntry("Sections", "Section", "tsv", sections));
+		project.addEntry(new DefaultManifestEntry("Images", "Image", "tsv", images.toURI().toURL()));
+		project.addEntry(new DefaultManifestEntry("Data", "raw", "csv", data));
+		project.addEntry(new DefaultManifestEntry("Missing", "Section", "tsv", null));
+
+		File file = new File(dir, "test.cwb");
+		DefaultProjectBundler bundler = new DefaultProjectBundler(registry, 1, 2);
+		bundler.export(project, file);
+
+		Bundle bundle = bundler.open(file);
+		try {
+			Project opened = bundle.getProject();
+			assertEquals("bundle", opened.getId());
+			assertEquals("Bundle Test", opened.getName());
+			assertEquals("1", opened.getAttribute(Attr.SITE));
+			assertEquals(4, opened.getManifest().size());
+
+			assertEquals(registry.get("tsv:Section").getModels(sections), bundle.getModels(opened.getManifest().get(0)));
+			assertEquals(registry.get("csv:raw").getRaw(data), bundle.getRaw(opened.getManifest().get(2)));
+			try {
+				bundle.getRaw(opened.getManifest().get(3));
+				fail("Entry without a path should not be bundled");
+			} catch (IOException e) {
+				// expected
+			}
+
+			List<? extends Model> list = bundle.getModels(opened.getManifest().get(1));
+			assertEquals(1, list.size());
+			BufferedImage original = ImageIO.read(icon);
+			BufferedImage half = bundle.getImage(icon, 3);
+			assertNotNull(half);
+			assertEquals((original.getWidth() + 1) / 2, half.getWidth());
+			assertEquals(original.getHeight(), bundle.getImage(icon, 1).getHeight());
+			assertNull(bundle.getImage(icon, 0));
+		} finally {
+			bundle.close();
+		}
+	}
+}
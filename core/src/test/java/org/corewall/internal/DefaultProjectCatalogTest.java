@@ -0,0 +1,193 @@
+package org.corewall.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.corewall.ProjectCatalog.Summary;
+import org.corewall.data.Model;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.data.formats.CSVFormat;
+import org.corewall.geology.models.Section;
+import org.corewall.internal.DefaultProject.DefaultManifestEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for {@link DefaultProjectCatalog}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DefaultProjectCatalogTest {
+	protected AtomicInteger reads;
+	protected TestRegistry registry;
+	protected File root;
+
+	/**
+	 * Create a temporary directory and a registry backed by a map that counts
+	 * the entries read.
+	 */
+	@Before
+	public void setUp() {
+		root = Files.createTempDir();
+		reads = new AtomicInteger();
+		registry = new TestRegistry();
+		registry.register(new CSVFormat<Section>("tsv:Section", '\t', Section.factory()) {
+			@Override
+			public List<Map<String, String>> getRaw(final URL url) throws IOException {
+				reads.incrementAndGet();
+				return super.getRaw(url);
+			}
+		});
+		registry.register(new CSVFormat<Model>("csv:raw", ',', null));
+	}
+
+	/**
+	 * Delete the temporary directory.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteRecursively(root);
+	}
+
+	/**
+	 * Test that adding a project through the manager catalogs its entries and
+	 * that only changed entries are read again.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testCatalog() throws Exception {
+		File data = new File(root, "sections.tsv");
+		Files.write("name\ttop\tbase\nA\t0.0\t1.0\nB\t1.0\t2.0\nC\t2.0\t2.5\n", data, Charsets.UTF_8);
+		File shallow = new File(root, "shallow.csv");
+		Files.write("top,base,value\n10 cm,20 cm,1\n", shallow, Charsets.UTF_8);
+		File none = new File(root, "none.csv");
+		Files.write("a,b\n1,2\n", none, Charsets.UTF_8);
+
+		DefaultProject project = new DefaultProject();
+		project.setId("catalog");
+		project.setName("Catalog Test");
+		File dir = new File(root, "catalog");
+		project.setPath(dir);
+		project.addEntry(new DefaultManifestEntry("Sections", "Section", "tsv", data.toURI().toURL()));
+		project.addEntry(new DefaultManifestEntry("Shallow", "raw", "csv", shallow.toURI().toURL()));
+		project.addEntry(new DefaultManifestEntry("None", "raw", "csv", none.toURI().toURL()));
+
+		DefaultProjectCatalog catalog = new DefaultProjectCatalog(registry);
+		DefaultProjectManager manager = new DefaultProjectManager(root, catalog);
+		manager.add(project);
+		assertEquals(1, reads.get());
+
+		Map<String, Summary> summaries = catalog.getSummaries(project);
+		assertEquals(3, summaries.size());
+		Summary sections = summaries.get(data.toURI().toURL().toExternalForm());
+		assertEquals(3, sections.getRows());
+		assertEquals(ImmutableSet.of("name", "top", "base"), sections.getFields());
+		assertEquals(0.0, sections.getMin(), 0);
+		assertEquals(2.5, sections.getMax(), 0);
+		assertEquals(1, sections.estimate(1.95, 2.3));
+		assertEquals(0, sections.estimate(2.25, 2.3));
+		assertEquals(3, sections.estimate(0, 10));
+		assertEquals(0.1, summaries.get(shallow.toURI().toURL().toExternalForm()).getMin(), 1e-9);
+		assertFalse(summaries.get(none.toURI().toURL().toExternalForm()).hasDepths());
+
+		List<ManifestEntry> manifest = project.getManifest();
+		assertEquals(ImmutableList.of(manifest.get(0), manifest.get(2)), catalog.find(project, 1.5, 3));
+		assertEquals(manifest, catalog.find(project, 0, 0.15));
+
+		// unchanged entries are not read again
+		manager.overwrite(project);
+		assertEquals(1, reads.get());
+		assertTrue(data.setLastModified(data.lastModified() - 10000));
+		manager.overwrite(project);
+		assertEquals(2, reads.get());
+	}
+
+	/**
+	 * Test that entries sharing a name are catalogued separately.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testDuplicateNames() throws Exception {
+		File shallow = new File(root, "shallow.csv");
+		Files.write("top,base\n0.1,0.2\n", shallow, Charsets.UTF_8);
+		File deep = new File(root, "deep.csv");
+		Files.write("top,base\n10,20\n", deep, Charsets.UTF_8);
+
+		DefaultProject project = new DefaultProject();
+		project.setId("duplicates");
+		project.setName("Duplicates Test");
+		project.setPath(new File(root, "duplicates"));
+		project.addEntry(new DefaultManifestEntry("Data", "raw", "csv", shallow.toURI().toURL()));
+		project.addEntry(new DefaultManifestEntry("Data", "raw", "csv", deep.toURI().toURL()));
+
+		DefaultProjectCatalog catalog = new DefaultProjectCatalog(registry);
+		new DefaultProjectManager(root, catalog).add(project);
+		assertEquals(2, catalog.getSummaries(project).size());
+		assertEquals(ImmutableList.of(project.getManifest().get(1)), catalog.find(project, 5, 30));
+	}
+
+	/**
+	 * Test that remote entries are only read once and that an entry that
+	 * fails to read does not fail the update.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testRemoteAndBroken() throws Exception {
+		registry.register(new CSVFormat<Model>("csv:broken", ',', null) {
+			@Override
+			public List<Map<String, String>> getRaw(final URL url) throws IOException {
+				throw new IllegalStateException("Broken");
+			}
+		});
+		File jar = new File(root, "remote.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+		out.putNextEntry(new ZipEntry("sections.tsv"));
+		out.write("name\ttop\tbase\nA\t0.0\t1.0\n".getBytes("UTF-8"));
+		out.close();
+		File broken = new File(root, "broken.csv");
+		Files.write("top\n1\n", broken, Charsets.UTF_8);
+
+		DefaultProject project = new DefaultProject();
+		project.setId("remote");
+		project.setName("Remote Test");
+		project.setPath(new File(root, "remote"));
+		URL remote = new URL("jar:" + jar.toURI().toURL() + "!/sections.tsv");
+		project.addEntry(new DefaultManifestEntry("Sections", "Section", "tsv", remote));
+		project.addEntry(new DefaultManifestEntry("Broken", "broken", "csv", broken.toURI().toURL()));
+
+		DefaultProjectCatalog catalog = new DefaultProjectCatalog(registry);
+		DefaultProjectManager manager = new DefaultProjectManager(root, catalog);
+		manager.add(project);
+		assertEquals(1, reads.get());
+		assertEquals(ImmutableSet.of(remote.toExternalForm()), catalog.getSummaries(project).keySet());
+		manager.overwrite(project);
+		assertEquals(1, reads.get());
+		assertEquals(1, catalog.getSummaries(project).get(remote.toExternalForm()).getRows());
+	}
+}
@@ -0,0 +1,162 @@
+package org.corewall.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.corewall.ProjectExporter.Report;
+import org.corewall.ProjectExporter.Target;
+import org.corewall.data.Format;
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.data.formats.CSVFormat;
+import org.corewall.data.io.CSVModelWriter;
+import org.corewall.data.io.StreamingModelWriter;
+import org.corewall.geology.models.Section;
+import org.corewall.internal.DefaultProject.DefaultManifestEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for {@link DefaultProjectExporter}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DefaultProjectExporterTest {
+	protected File dir;
+	protected TestRegistry registry;
+
+	private static List<Map<String, String>> toMaps(final List<? extends Model> models) {
+		List<Map<String, String>> maps = Lists.newArrayList();
+		for (Model model : models) {
+			maps.add(model.toMap());
+		}
+		return maps;
+	}
+
+	/**
+	 * Create a temporary directory and a registry backed by a map.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDir();
+		registry = new TestRegistry();
+		registry.register(new CSVFormat<Section>("tsv:Section", '\t', Section.factory()));
+	}
+
+	/**
+	 * Delete the temporary directory.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteRecursively(dir);
+	}
+
+	/**
+	 * Test that entries larger than the budget are still exported.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testBudget() throws Exception {
+		DefaultProject project = new DefaultProject();
+		project.setId("budget");
+		for (int i = 0; i < 20; i++) {
+			project.addEntry(new DefaultManifestEntry("Sections " + i, "Section", "tsv", DefaultProjectExporterTest.class
+					.getResource("/org/corewall/geology/formats/sections.tsv")));
+		}
+
+		final Map<String, Integer> written = Maps.newConcurrentMap();
+		DefaultProjectExporter exporter = new DefaultProjectExporter(new DefaultProjectLoader(registry, 1), 4, 1);
+		Report report = exporter.export(project, new Target() {
+			public StreamingModelWriter open(final ManifestEntry entry) throws IOException {
+				return new CSVModelWriter(Files.newWriter(File.createTempFile("export", ".tsv", dir), Charsets.UTF_8), '\t') {
+					private int count = 0;
+
+					@Override
+					public void append(final Model model) throws IOException {
+						super.append(model);
+						count++;
+					}
+
+					@Override
+					public void close() throws IOException {
+						super.close();
+						written.put(entry.getName(), count);
+					}
+				};
+			}
+		});
+		assertEquals(20, report.getEntries());
+		assertEquals(60, report.getModels());
+		assertEquals(20, written.size());
+		assertEquals(Integer.valueOf(3), written.get("Sections 7"));
+	}
+
+	/**
+	 * Test exporting a project to a directory.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testExport() throws Exception {
+		File root = new File(DefaultProjectExporterTest.class.getResource("/projects").toURI());
+		Project project = new DefaultProjectManager(root).getProjects().get(0);
+
+		DefaultProjectExporter exporter = new DefaultProjectExporter(new DefaultProjectLoader(registry, 1), 2, 1024);
+		Report report = exporter.export(project, dir);
+		assertEquals(1, report.getEntries());
+		assertEquals(3, report.getModels());
+		assertEquals(1, report.getFailures().size());
+		assertEquals("Images", report.getFailures().keySet().iterator().next().getName());
+		assertTrue(report.getFailures().values().iterator().next() instanceof IOException);
+
+		// the header row makes the file readable again
+		File file = new File(dir, "Sections.tsv");
+		List<String> lines = Files.readLines(file, Charsets.UTF_8);
+		assertEquals(4, lines.size());
+		Format<?> format = registry.get("tsv:Section");
+		assertEquals(toMaps(format.getModels(project.getManifest().get(0).getPath())), toMaps(format.getModels(file
+				.toURI().toURL())));
+	}
+
+	/**
+	 * Test that entries whose names collide are written to separate files.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testNames() throws Exception {
+		DefaultProject project = new DefaultProject();
+		project.setId("names");
+		for (String name : new String[] { "A B", "A_B", "a b" }) {
+			project.addEntry(new DefaultManifestEntry(name, "Section", "tsv", DefaultProjectExporterTest.class
+					.getResource("/org/corewall/geology/formats/sections.tsv")));
+		}
+		Report report = new DefaultProjectExporter(new DefaultProjectLoader(registry, 1), 3, 1024).export(project,
+				dir);
+		assertEquals(3, report.getEntries());
+		assertEquals(ImmutableSet.of("A_B.tsv", "A_B-2.tsv", "a_b-3.tsv"), ImmutableSet.copyOf(dir.list()));
+	}
+}
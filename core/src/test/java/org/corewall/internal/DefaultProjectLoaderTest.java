@@ -0,0 +1,194 @@
+package org.corewall.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.corewall.ModelProbe;
+import org.corewall.ProjectLoader.Listener;
+import org.corewall.data.Filter;
+import org.corewall.data.Format;
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.data.formats.CSVFormat;
+import org.corewall.geology.models.Section;
+import org.corewall.internal.DefaultProject.DefaultManifestEntry;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Unit tests for {@link DefaultProjectLoader}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DefaultProjectLoaderTest {
+	/**
+	 * Records the notifications it receives.
+	 */
+	private static class Recorder implements Listener {
+		final List<String> events = Lists.newArrayList();
+		final CountDownLatch finished;
+
+		Recorder(final int entries) {
+			finished = new CountDownLatch(entries);
+		}
+
+		public synchronized void cancelled(final ManifestEntry entry) {
+			events.add("cancelled " + entry.getName());
+			finished.countDown();
+		}
+
+		public synchronized void failed(final ManifestEntry entry, final Throwable t) {
+			events.add("failed " + entry.getName());
+			finished.countDown();
+		}
+
+		public synchronized void loaded(final ManifestEntry entry, final List<? extends Model> models) {
+			events.add("loaded " + entry.getName());
+			finished.countDown();
+		}
+
+		public synchronized void started(final ManifestEntry entry) {
+			events.add("started " + entry.getName());
+		}
+	}
+
+	protected TestRegistry registry;
+
+	/**
+	 * Create a registry backed by a map.
+	 */
+	@Before
+	public void setUp() {
+		registry = new TestRegistry();
+		registry.register(new CSVFormat<Section>("tsv:Section", '\t', Section.factory()));
+	}
+
+	/**
+	 * Test that queued entries can be cancelled.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testCancel() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		registry.register(new Format<Model>() {
+			public String getId() {
+				return "slow";
+			}
+
+			public List<Model> getModels(final URL url) throws IOException {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted");
+				}
+				return Lists.newArrayList();
+			}
+
+			public List<Model> getModels(final URL url, final Filter filter,
+					final Set<String> keys) throws IOException {
+				return getModels(url);
+			}
+
+			public List<Map<String, String>> getRaw(final URL url) {
+				return Lists.newArrayList();
+			}
+
+			public List<Map<String, String>> getRaw(final URL url, final Filter filter,
+					final Set<String> keys) {
+				return getRaw(url);
+			}
+		});
+
+		URL url = new File(".").toURI().toURL();
+		DefaultProjectLoader loader = new DefaultProjectLoader(registry, 1);
+		Recorder recorder = new Recorder(2);
+		Future<List<? extends Model>> first = loader.load(new DefaultManifestEntry("A", "", "slow", url), recorder);
+		Future<List<? extends Model>> second = loader.load(new DefaultManifestEntry("B", "", "slow", url), recorder);
+		blocked.await();
+		assertTrue(second.cancel(true));
+		release.countDown();
+		assertEquals(0, first.get().size());
+		recorder.finished.await();
+		assertTrue(recorder.events.contains("cancelled B"));
+		assertTrue(recorder.events.contains("loaded A"));
+		assertTrue(!recorder.events.contains("started B"));
+	}
+
+	/**
+	 * Test that models loaded in the background are probed and models read on
+	 * the calling thread are not.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testProbe() throws Exception {
+		final List<Integer> probed = Lists.newArrayList();
+		DefaultProjectLoader loader = new DefaultProjectLoader(registry, 1, new ModelProbe() {
+			public Future<?> probe(final List<? extends Model> models) {
+				synchronized (probed) {
+					probed.add(models.size());
+				}
+				return Futures.immediateFuture(null);
+			}
+		});
+		ManifestEntry entry = new DefaultManifestEntry("Sections", "Section", "tsv", DefaultProjectLoaderTest.class
+				.getResource("/org/corewall/geology/formats/sections.tsv"));
+		loader.read(entry);
+		assertTrue(probed.isEmpty());
+		loader.load(entry, null).get();
+		synchronized (probed) {
+			assertEquals(ImmutableList.of(3), probed);
+		}
+	}
+
+	/**
+	 * Test loading every entry of a project.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testLoad() throws Exception {
+		File root = new File(DefaultProjectLoaderTest.class.getResource("/projects").toURI());
+		Project project = new DefaultProjectManager(root).getProjects().get(0);
+
+		Recorder recorder = new Recorder(2);
+		ImmutableMap<ManifestEntry, Future<List<? extends Model>>> futures = new DefaultProjectLoader(registry, 2)
+				.load(project, recorder);
+		assertEquals(project.getManifest(), futures.keySet().asList());
+
+		List<Future<List<? extends Model>>> list = futures.values().asList();
+		assertEquals(3, list.get(0).get().size());
+		try {
+			list.get(1).get();
+			fail("Entry without a path should fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		recorder.finished.await();
+		assertTrue(recorder.events.contains("loaded Sections"));
+		assertTrue(recorder.events.contains("failed Images"));
+	}
+}
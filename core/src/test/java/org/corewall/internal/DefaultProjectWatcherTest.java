@@ -0,0 +1,123 @@
+package org.corewall.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.corewall.ProjectWatcher.Listener;
+import org.corewall.data.FormatRegistry;
+import org.corewall.data.Model;
+import org.corewall.data.Project;
+import org.corewall.data.Project.ManifestEntry;
+import org.corewall.data.formats.CSVFormat;
+import org.corewall.geology.models.Section;
+import org.corewall.internal.DefaultProject.DefaultManifestEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for {@link DefaultProjectWatcher}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class DefaultProjectWatcherTest {
+	protected File dir;
+	protected DefaultProject project;
+	protected DefaultModelStore store;
+	protected DefaultProjectWatcher watcher;
+
+	/**
+	 * Create a project with two entries.
+	 * 
+	 * @throws IOException
+	 *             should not happen.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDir();
+		project = new DefaultProject();
+		project.setId("watched");
+		for (String name : new String[] { "a", "b" }) {
+			File file = new File(dir, name + ".tsv");
+			Files.write("name\ttop\tbase\nS1\t0\t1\n", file, Charsets.UTF_8);
+			project.addEntry(new DefaultManifestEntry(name, "Section", "tsv", file.toURI().toURL()));
+		}
+
+		FormatRegistry registry = new TestRegistry(new CSVFormat<Section>("tsv:Section", '\t', Section.factory()));
+		DefaultProjectLoader loader = new DefaultProjectLoader(registry, 1);
+		store = new DefaultModelStore(loader, 1024 * 1024);
+		watcher = new DefaultProjectWatcher(loader, store, 0);
+	}
+
+	/**
+	 * Clean up the project files.
+	 */
+	@After
+	public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Test that only the changed entry is re-read once it stops changing.
+	 * 
+	 * @throws Exception
+	 *             should not happen.
+	 */
+	@Test
+	public void testChanged() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final List<String> changed = Lists.newArrayList();
+		final List<Integer> sizes = Lists.newArrayList();
+		watcher.watch(project, new Listener() {
+			public void changed(final Project p, final ManifestEntry entry, final List<? extends Model> models) {
+				changed.add(entry.getName());
+				sizes.add(models.size());
+				latch.countDown();
+			}
+
+			public void failed(final Project p, final ManifestEntry entry, final Throwable t) {
+				latch.countDown();
+			}
+		});
+
+		watcher.check();
+		assertEquals(0, changed.size());
+		ManifestEntry b = project.getManifest().get(1);
+		assertEquals(1, store.get(b).size());
+
+		File file = new File(dir, "b.tsv");
+		Files.write("name\ttop\tbase\nS1\t0\t1\nS2\t1\t2\n", file, Charsets.UTF_8);
+		file.setLastModified(file.lastModified() + 2000);
+		watcher.check();
+		Thread.sleep(100);
+		assertEquals(0, changed.size());
+
+		watcher.check();
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(Lists.newArrayList("b"), changed);
+		assertEquals(Lists.newArrayList(2), sizes);
+		assertNull(store.getIfPresent(b));
+		assertEquals(2, store.get(b).size());
+
+		watcher.unwatch(project);
+		file.setLastModified(file.lastModified() + 2000);
+		watcher.check();
+		watcher.check();
+		Thread.sleep(100);
+		assertEquals(1, changed.size());
+	}
+}
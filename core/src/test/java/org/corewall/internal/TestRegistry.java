@@ -0,0 +1,42 @@
+package org.corewall.internal;
+
+import java.util.Map;
+
+import org.corewall.data.Format;
+import org.corewall.data.FormatRegistry;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link FormatRegistry} backed by a map for tests.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class TestRegistry implements FormatRegistry {
+	protected final Map<String, Format<?>> formats = Maps.newHashMap();
+
+	/**
+	 * Create a new TestRegistry.
+	 * 
+	 * @param formats
+	 *            the formats to register.
+	 */
+	public TestRegistry(final Format<?>... formats) {
+		for (Format<?> format : formats) {
+			register(format);
+		}
+	}
+
+	public Format<?> get(final String id) {
+		return formats.get(id);
+	}
+
+	public ImmutableSet<String> getIds() {
+		return ImmutableSet.copyOf(formats.keySet());
+	}
+
+	public void register(final Format<?> format) {
+		formats.put(format.getId(), format);
+	}
+}
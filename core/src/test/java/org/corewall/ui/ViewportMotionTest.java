@@ -0,0 +1,56 @@
+package org.corewall.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ViewportMotion}.
+ * 
+ * @author Josh Reed (jareed@andrill.org)
+ */
+public class ViewportMotionTest {
+
+	@Test
+	public void testIdle() {
+		ViewportMotion motion = new ViewportMotion();
+		assertNull(motion.getLookahead());
+
+		// a still viewport grows on each side
+		motion.update(new Rectangle(0, 1000, 400, 800), 0);
+		assertEquals(new Rectangle(-100, 800, 600, 1200), motion.getLookahead());
+
+		// motion is forgotten after a pause
+		motion.update(new Rectangle(0, 1100, 400, 800), 100);
+		assertTrue(motion.getVelocityY() > 0);
+		motion.update(new Rectangle(0, 1100, 400, 800), 2000);
+		assertEquals(0, motion.getVelocityY(), 0);
+		assertEquals(new Rectangle(-100, 900, 600, 1200), motion.getLookahead());
+	}
+
+	@Test
+	public void testScrolling() {
+		ViewportMotion motion = new ViewportMotion();
+		motion.update(new Rectangle(0, 1000, 400, 800), 0);
+		motion.update(new Rectangle(0, 1200, 400, 800), 100);
+		motion.update(new Rectangle(0, 1400, 400, 800), 200);
+		assertEquals(0, motion.getVelocityX(), 0);
+		assertEquals(1.5, motion.getVelocityY(), 0.001);
+
+		// scrolling down looks a second ahead
+		Rectangle ahead = motion.getLookahead();
+		assertEquals(new Rectangle(0, 1400, 400, 2300), ahead);
+
+		// scrolling back up looks at least half a viewport behind
+		motion.update(new Rectangle(0, 1390, 400, 800), 300);
+		motion.update(new Rectangle(0, 1300, 400, 800), 400);
+		ahead = motion.getLookahead();
+		assertTrue(motion.getVelocityY() < 0);
+		assertEquals(1300, ahead.y + ahead.height - 800);
+		assertTrue(ahead.y <= 900);
+	}
+}